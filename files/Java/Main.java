@@ -1,5 +1,7 @@
 package Main;
 
+import services.LibraryMetrics;
+import ui.ConsoleOutput;
 import ui.LibraryUI;
 
 /**
@@ -8,13 +10,26 @@ import ui.LibraryUI;
  */
 public class Main {
     public static void main(String[] args) {
+        // Collect console output in a big buffer instead of writing every line straight away.
+        // The UI flushes it whenever it waits for input, and it is flushed on exit too.
+        System.setOut(ConsoleOutput.bufferedConsole());
+        Runtime.getRuntime().addShutdownHook(new Thread(System.out::flush));
+
         // Print a welcome message
         System.out.println("Starting Library Management System...");
 
+        // Optionally append service metrics to a file every so often
+        // (run with -Dlibrary.metrics.file=metrics.log -Dlibrary.metrics.period=60)
+        String metricsFile = System.getProperty("library.metrics.file");
+        if (metricsFile != null) {
+            LibraryMetrics.startPeriodicDump(metricsFile, Long.getLong("library.metrics.period", 60));
+        }
+
         // Create the user interface
         LibraryUI libraryUI = new LibraryUI();
 
         // Start the interface running
         libraryUI.start();
+        System.out.flush();
     }
 }
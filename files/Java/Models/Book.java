@@ -1,5 +1,6 @@
 package models;
 
+import java.io.IOException;
 import java.util.Date;
 
 /**
@@ -35,14 +36,15 @@ public class Book extends LibraryItem {
 
     /**
      * This overrides the abstract method from LibraryItem
-     * It prints details specific to books
+     * It writes details specific to books
      */
     @Override
-    public void displayDetails() {
-        System.out.println("Book: " + title + " by " + author);
-        System.out.println("  ISBN: " + ISBN);
-        System.out.println("  Category: " + category);
-        System.out.println("  Published: " + getPublicationDateFormatted());
-        System.out.println("  Status: " + (isAvailable ? "Available" : "Checked Out"));
+    public void renderTo(Appendable out) throws IOException {
+        out.append("Book: ").append(title).append(" by ").append(author).append('\n');
+        out.append("  ISBN: ").append(ISBN).append('\n');
+        out.append("  Item ID: ").append(String.valueOf(getItemId())).append('\n');
+        out.append("  Category: ").append(category).append('\n');
+        out.append("  Published: ").append(getPublicationDateFormatted()).append('\n');
+        out.append("  Status: ").append(isAvailable ? "Available" : "Checked Out").append('\n');
     }
 }
@@ -1,7 +1,11 @@
 package models;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.Date;
 import java.text.SimpleDateFormat;
+import java.time.ZoneId;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This is the parent class for all items in our library.
@@ -11,8 +15,20 @@ public abstract class LibraryItem {
     protected String title;
     protected String author;
     protected Date publicationDate;
+    // The publication date as days since 1970, for sorting and date range searches
+    private final long publicationDay;
     protected String category;
-    protected boolean isAvailable;
+    // The search keys of the title, author and category (see SearchText),
+    // worked out once so searches don't have to
+    private final String titleKey;
+    private final String authorKey;
+    private final String categoryKey;
+    // volatile so every thread sees the latest status
+    protected volatile boolean isAvailable;
+
+    // Every item gets its own ID number (like a barcode), starting at 1
+    private static final AtomicInteger NEXT_ITEM_ID = new AtomicInteger(1);
+    private final int itemId;
 
     // A shared formatter for dates so they look nice when displayed
     protected static final SimpleDateFormat DATE_FORMAT = new SimpleDateFormat("MM/dd/yyyy");
@@ -35,25 +51,44 @@ public abstract class LibraryItem {
             throw new IllegalArgumentException("Category cannot be empty");
         }
 
-        // Set all the values
+        // Set all the values. Authors (or publishers) and categories repeat across
+        // many items, so every item shares one copy of each from the StringPool.
         this.title = title;
-        this.author = author;
+        this.author = StringPool.canonical(author);
         this.publicationDate = publicationDate;
-        this.category = category;
+        this.publicationDay = publicationDate.toInstant().atZone(ZoneId.systemDefault()).toLocalDate().toEpochDay();
+        this.category = StringPool.canonical(category);
+        this.titleKey = SearchText.normalize(title);
+        this.authorKey = StringPool.searchKey(author);
+        this.categoryKey = StringPool.searchKey(category);
         this.isAvailable = true;  // New items are always available at first
+        this.itemId = NEXT_ITEM_ID.getAndIncrement();
     }
 
     /**
      * Mark this item as checked out
      */
-    public void checkOut() {
+    public synchronized void checkOut() {
+        this.isAvailable = false;
+    }
+
+    /**
+     * Check out this item only if it is available, in one step.
+     * Returns false if someone else already has it, so two borrowers
+     * on different threads can never both get the same item.
+     */
+    public synchronized boolean tryCheckOut() {
+        if (!isAvailable) {
+            return false;
+        }
         this.isAvailable = false;
+        return true;
     }
 
     /**
      * Mark this item as returned to the library
      */
-    public void returnItem() {
+    public synchronized void returnItem() {
         this.isAvailable = true;
     }
 
@@ -66,6 +101,13 @@ public abstract class LibraryItem {
 
     // Getter methods
 
+    /**
+     * Get the unique ID of this item
+     */
+    public int getItemId() {
+        return itemId;
+    }
+
     /**
      * Get the title of this item
      */
@@ -80,6 +122,20 @@ public abstract class LibraryItem {
         return author;
     }
 
+    /**
+     * Get the search key of the title (lowercase, no accents, single spaces - see SearchText)
+     */
+    public String getTitleKey() {
+        return titleKey;
+    }
+
+    /**
+     * Get the search key of the author
+     */
+    public String getAuthorKey() {
+        return authorKey;
+    }
+
     /**
      * Get the publication date of this item
      */
@@ -87,6 +143,13 @@ public abstract class LibraryItem {
         return publicationDate;
     }
 
+    /**
+     * Get the publication date as days since 1970 (turn it back into a date with LocalDate.ofEpochDay)
+     */
+    public long getPublicationDay() {
+        return publicationDay;
+    }
+
     /**
      * Get the publication date as a formatted string
      */
@@ -101,11 +164,35 @@ public abstract class LibraryItem {
         return category;
     }
 
+    /**
+     * Get the search key of the category
+     */
+    public String getCategoryKey() {
+        return categoryKey;
+    }
+
     // Abstract method that child classes must implement
     /**
-     * Display details of this item
+     * Write the details of this item (one or more lines) to out,
+     * for example a StringBuilder.
      * Since different items have different details, each child class
      * will provide its own version of this method
      */
-    public abstract void displayDetails();
+    public abstract void renderTo(Appendable out) throws IOException;
+
+    /**
+     * Display details of this item.
+     * The text is built first and printed in one go, which is much faster
+     * than printing each line on its own.
+     */
+    public void displayDetails() {
+        StringBuilder text = new StringBuilder(256);
+        try {
+            renderTo(text);
+        } catch (IOException e) {
+            // Can't happen - a StringBuilder never throws
+            throw new UncheckedIOException(e);
+        }
+        System.out.print(text);
+    }
 }
\ No newline at end of file
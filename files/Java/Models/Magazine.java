@@ -1,5 +1,6 @@
 package models;
 
+import java.io.IOException;
 import java.util.Date;
 
 /**
@@ -33,15 +34,16 @@ public class Magazine extends LibraryItem {
     }
 
     /**
-     * Display magazine-specific details
+     * Write magazine-specific details
      * This overrides the abstract method from LibraryItem
      */
     @Override
-    public void displayDetails() {
-        System.out.println("Magazine: " + title + " | Issue: " + issueNumber);
-        System.out.println("  Publisher: " + author);
-        System.out.println("  Category: " + category);
-        System.out.println("  Published: " + getPublicationDateFormatted());
-        System.out.println("  Status: " + (isAvailable ? "Available" : "Checked Out"));
+    public void renderTo(Appendable out) throws IOException {
+        out.append("Magazine: ").append(title).append(" | Issue: ").append(String.valueOf(issueNumber)).append('\n');
+        out.append("  Publisher: ").append(author).append('\n');
+        out.append("  Item ID: ").append(String.valueOf(getItemId())).append('\n');
+        out.append("  Category: ").append(category).append('\n');
+        out.append("  Published: ").append(getPublicationDateFormatted()).append('\n');
+        out.append("  Status: ").append(isAvailable ? "Available" : "Checked Out").append('\n');
     }
 }
\ No newline at end of file
@@ -1,10 +1,15 @@
 package models;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
 /**
  * This class represents a library member (a person who can borrow items).
  */
 public class Member {
     private String name;
+    // The search key of the name (see SearchText), worked out once so name searches don't have to
+    private String nameKey;
     private int membershipId;
     private String contactInfo;
 
@@ -24,6 +29,7 @@ public class Member {
         }
 
         this.name = name;
+        this.nameKey = SearchText.normalize(name);
         this.membershipId = membershipId;
         this.contactInfo = contactInfo;
     }
@@ -35,6 +41,13 @@ public class Member {
         return name;
     }
 
+    /**
+     * Get the search key of the member's name (lowercase, no accents, single spaces - see SearchText)
+     */
+    public String getNameKey() {
+        return nameKey;
+    }
+
     /**
      * Get the member's ID
      */
@@ -49,11 +62,26 @@ public class Member {
         return contactInfo;
     }
 
+    /**
+     * Write one line of information about this member to out, for example a StringBuilder
+     */
+    public void renderTo(Appendable out) throws IOException {
+        out.append("Member: ").append(name).append(" | ID: ").append(String.valueOf(membershipId))
+                .append(" | Contact: ").append(contactInfo).append('\n');
+    }
+
     /**
      * Display information about this member
      */
     public void displayMemberInfo() {
-        System.out.println("Member: " + name + " | ID: " + membershipId + " | Contact: " + contactInfo);
+        StringBuilder text = new StringBuilder(128);
+        try {
+            renderTo(text);
+        } catch (IOException e) {
+            // Can't happen - a StringBuilder never throws
+            throw new UncheckedIOException(e);
+        }
+        System.out.print(text);
     }
 
     /**
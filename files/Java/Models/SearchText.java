@@ -0,0 +1,101 @@
+package models;
+
+import java.text.Normalizer;
+import java.util.Locale;
+
+/**
+ * Turns text into a "search key", so searches can ignore differences that
+ * people don't care about: capital letters, accents and extra spaces.
+ * "  Café   SOCIETY" and "cafe society" both become "cafe society".
+ *
+ * Items and members work out the keys of their text once, when they are
+ * created, and a search turns its search term into a key once. Checking a
+ * record is then a plain comparison of two keys (contains, startsWith or
+ * startsWithWord below), which creates no new objects - so scanning a
+ * million records makes no garbage at all.
+ */
+public final class SearchText {
+
+    private SearchText() {
+    }
+
+    /**
+     * Make the search key of some text: case-folded, without accents, with
+     * runs of whitespace squashed into one space and none at either end
+     */
+    public static String normalize(String text) {
+        if (isAlreadyNormal(text)) {
+            // Most text is plain lowercase already - no need to make a copy
+            return text;
+        }
+
+        // Fold the case (upper then lower, so for example "ß" becomes "ss"),
+        // then split accented letters into letter + accent and drop the accents
+        String folded = text.toUpperCase(Locale.ROOT).toLowerCase(Locale.ROOT);
+        String decomposed = Normalizer.normalize(folded, Normalizer.Form.NFKD);
+
+        StringBuilder key = new StringBuilder(decomposed.length());
+        boolean pendingSpace = false;
+        for (int i = 0; i < decomposed.length(); i++) {
+            char c = decomposed.charAt(i);
+            int type = Character.getType(c);
+            if (type == Character.NON_SPACING_MARK || type == Character.COMBINING_SPACING_MARK
+                    || type == Character.ENCLOSING_MARK) {
+                continue;
+            }
+            if (Character.isWhitespace(c) || Character.isSpaceChar(c)) {
+                pendingSpace = key.length() > 0;
+                continue;
+            }
+            if (pendingSpace) {
+                key.append(' ');
+                pendingSpace = false;
+            }
+            key.append(c);
+        }
+        return key.toString();
+    }
+
+    /**
+     * Check if a key contains a search term (both already normalized)
+     */
+    public static boolean contains(String key, String term) {
+        return key.contains(term);
+    }
+
+    /**
+     * Check if some word of a key starts with a search term (both already
+     * normalized), e.g. "the great gatsby" has a word starting with "gat".
+     * Compares in place with regionMatches, so nothing is created.
+     */
+    public static boolean startsWithWord(String key, String term) {
+        int last = key.length() - term.length();
+        for (int start = 0; start <= last; start++) {
+            if ((start == 0 || !Character.isLetterOrDigit(key.charAt(start - 1)))
+                    && key.regionMatches(start, term, 0, term.length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Check (without creating anything) whether text is already its own
+     * search key: plain ASCII, no capitals and single spaces between words
+     */
+    private static boolean isAlreadyNormal(String text) {
+        int length = text.length();
+        if (length > 0 && (text.charAt(0) == ' ' || text.charAt(length - 1) == ' ')) {
+            return false;
+        }
+        char previous = 'x';
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c >= 0x80 || (c >= 'A' && c <= 'Z') || (c < ' ') || (c == ' ' && previous == ' ')) {
+                return false;
+            }
+            previous = c;
+        }
+        return true;
+    }
+}
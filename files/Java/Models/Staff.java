@@ -1,5 +1,8 @@
 package models;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
 /**
  * This class represents a staff member (like a librarian).
  * It extends Member because staff are also members of the library,
@@ -20,7 +23,8 @@ public class Staff extends Member {
         if (staffRole == null || staffRole.trim().isEmpty()) {
             throw new IllegalArgumentException("Staff role cannot be empty");
         }
-        this.staffRole = staffRole;
+        // Many staff share the same role, so they share one copy of it
+        this.staffRole = StringPool.canonical(staffRole);
     }
 
     /**
@@ -30,14 +34,29 @@ public class Staff extends Member {
         return staffRole;
     }
 
+    /**
+     * Write information about this staff member to out
+     * This includes both member info and staff-specific info
+     */
+    public void renderStaffTo(Appendable out) throws IOException {
+        // Call the parent method to write member information
+        super.renderTo(out);
+        // Then add staff-specific information
+        out.append("Role: ").append(staffRole).append('\n');
+    }
+
     /**
      * Display information about this staff member
      * This includes both member info and staff-specific info
      */
     public void displayStaffInfo() {
-        // Call the parent method to show member information
-        super.displayMemberInfo();
-        // Then add staff-specific information
-        System.out.println("Role: " + staffRole);
+        StringBuilder text = new StringBuilder(160);
+        try {
+            renderStaffTo(text);
+        } catch (IOException e) {
+            // Can't happen - a StringBuilder never throws
+            throw new UncheckedIOException(e);
+        }
+        System.out.print(text);
     }
 }
\ No newline at end of file
@@ -0,0 +1,74 @@
+package models;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps one shared copy of text that many objects repeat, like authors,
+ * categories, publishers and staff roles.
+ *
+ * Without it, ten thousand books in "Science" each hold their own
+ * "Science" string. canonical() hands every one of them the same String
+ * object instead, so the copies can be garbage collected. searchKey()
+ * also remembers the search key of each pooled string (see SearchText), so
+ * it is only worked out (and stored) once, however many items share it.
+ *
+ * Strings stay in the pool for as long as the program runs, so only text
+ * that repeats a lot should go in - not titles, names or contact details.
+ * Safe to use from many threads at once.
+ */
+public final class StringPool {
+    private static final ConcurrentHashMap<String, Entry> POOL = new ConcurrentHashMap<>();
+
+    private StringPool() {
+    }
+
+    /**
+     * Get the shared copy of a string (null stays null)
+     */
+    public static String canonical(String text) {
+        return text == null ? null : entryFor(text).text;
+    }
+
+    /**
+     * Get the shared copy of a string's search key, see SearchText.normalize (null stays null)
+     */
+    public static String searchKey(String text) {
+        if (text == null) {
+            return null;
+        }
+        Entry entry = entryFor(text);
+        String key = entry.searchKey;
+        if (key == null) {
+            // Two threads may both work this out the first time; either answer is fine
+            String normalized = SearchText.normalize(text);
+            key = normalized.equals(text) ? entry.text : canonical(normalized);
+            entry.searchKey = key;
+        }
+        return key;
+    }
+
+    /**
+     * Get the number of different strings in the pool
+     */
+    public static int size() {
+        return POOL.size();
+    }
+
+    private static Entry entryFor(String text) {
+        // Reading first is lock-free; computeIfAbsent is only needed for new strings
+        Entry entry = POOL.get(text);
+        return entry != null ? entry : POOL.computeIfAbsent(text, Entry::new);
+    }
+
+    /**
+     * One pooled string and (once asked for) its search key
+     */
+    private static class Entry {
+        final String text;
+        volatile String searchKey;
+
+        Entry(String text) {
+            this.text = text;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package services;
+
+import java.time.LocalDate;
+
+/**
+ * A finished loan, as kept in the LoanArchive
+ */
+public class ArchivedLoan {
+    private final int memberId;
+    private final int itemId;
+    private final long borrowTime;
+    private final long dueDay;
+    private final long returnDay;
+    private final long feePence;
+
+    /**
+     * Create a record of a finished loan. borrowTime is in milliseconds since
+     * 1970, the due and return dates are days since 1970 (see LibraryClock),
+     * and the late fee is in pence so it is stored exactly.
+     */
+    public ArchivedLoan(int memberId, int itemId, long borrowTime, long dueDay, long returnDay, long feePence) {
+        this.memberId = memberId;
+        this.itemId = itemId;
+        this.borrowTime = borrowTime;
+        this.dueDay = dueDay;
+        this.returnDay = returnDay;
+        this.feePence = feePence;
+    }
+
+    public int getMemberId() {
+        return memberId;
+    }
+
+    public int getItemId() {
+        return itemId;
+    }
+
+    /**
+     * Get when the item was borrowed, in milliseconds since 1970
+     */
+    public long getBorrowTime() {
+        return borrowTime;
+    }
+
+    public long getDueDay() {
+        return dueDay;
+    }
+
+    public long getReturnDay() {
+        return returnDay;
+    }
+
+    public LocalDate getReturnDate() {
+        return LocalDate.ofEpochDay(returnDay);
+    }
+
+    /**
+     * Get the late fee that was charged, in pence (0 if it came back on time)
+     */
+    public long getFeePence() {
+        return feePence;
+    }
+
+    /**
+     * Get the late fee that was charged, in pounds
+     */
+    public double getFee() {
+        return feePence / 100.0;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) return true;
+        if (!(obj instanceof ArchivedLoan)) return false;
+        ArchivedLoan other = (ArchivedLoan) obj;
+        return memberId == other.memberId && itemId == other.itemId && borrowTime == other.borrowTime
+                && dueDay == other.dueDay && returnDay == other.returnDay && feePence == other.feePence;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * memberId + itemId) + Long.hashCode(borrowTime);
+    }
+
+    @Override
+    public String toString() {
+        return "Member " + memberId + " borrowed item " + itemId + ", due " + LocalDate.ofEpochDay(dueDay)
+                + ", returned " + getReturnDate() + (feePence > 0 ? String.format(", fee £%.2f", getFee()) : "");
+    }
+}
@@ -2,10 +2,13 @@ package services;
 
 import models.LibraryItem;
 import models.Member;
-import java.util.Date;
-import java.util.HashMap;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.ArrayList;
+import java.util.function.IntFunction;
 
 /**
  * The BorrowingService manages all borrowing and returning activities in the library.
@@ -13,122 +16,470 @@ import java.util.ArrayList;
  * - Which members have borrowed which items
  * - When items are due back
  * - Late fees for overdue items
+ *
+ * One BorrowingService can be shared between threads (ShardedLibraryService
+ * uses one per shard). Loan limits are checked with lock-free per-member
+ * counters and items are claimed with LibraryItem.tryCheckOut(), so the
+ * service's own lock is only held for the short moment the loan table is
+ * read or changed.
  */
 public class BorrowingService {
-    // This stores all the borrowed items and their due dates
-    // For each member, I have mapped the items they've borrowed and when they're due
-    private HashMap<Member, Map<LibraryItem, Date>> borrowedItems;
+    // This stores all the borrowed items and their due dates.
+    // Each loan is one row of a LoanStore (plain arrays on the heap unless another store
+    // is given), indexed by member and by item
+    // (due dates are stored as days since 1970, see LibraryClock)
+    // Only read or change this while holding the service's lock (synchronized)
+    private final LoanStore loans;
 
-    // These constants define our borrowing rules
-    private static final int LOAN_PERIOD_DAYS = 14;     // Items are loaned for 14 days
-    public static final double DAILY_OVERDUE_FEE = 0.50;  // 50 cents per day late fee
+    // How many items each member has out, checked against their loan limit
+    private final MemberLoanCounters loanCounters = new MemberLoanCounters();
+
+    // Where we get the current time from
+    private final LibraryClock clock;
+
+    // Decides the loan period, late fee and loan limit for each borrow
+    private final LoanPolicyEngine policies;
+
+    // How often each item has been borrowed (kept after the loan ends), and what is trending
+    private final CirculationStats circulation;
+
+    // Where finished loans are kept for later reports (null if they aren't kept)
+    private volatile LoanArchive archive;
+
+    // Who holds each item across all the worker processes sharing a state file
+    // (null if this process lends items out on its own)
+    private volatile SharedLoanState sharedState;
+
+    // Finds the members holding items lent out by the other processes
+    private volatile IntFunction<Member> sharedMembers;
+
+    // How many loan table slots snapshotLoans() copies while holding the lock
+    private static final int SNAPSHOT_BATCH_SLOTS = 64 * 1024;
+
+    // The standard late fee (used when no special rule applies)
+    public static final double DAILY_OVERDUE_FEE = LoanPolicy.DEFAULT.getDailyFee();
+
+    // Call counts and latencies for each operation
+    private static final LibraryMetrics.Operation BORROW_METRICS = LibraryMetrics.operation("borrowing.borrowItem");
+    private static final LibraryMetrics.Operation RETURN_METRICS = LibraryMetrics.operation("borrowing.returnItem");
+    private static final LibraryMetrics.Operation LOANS_METRICS = LibraryMetrics.operation("borrowing.getBorrowedItems");
+    private static final LibraryMetrics.Operation HAS_BORROWED_METRICS = LibraryMetrics.operation("borrowing.hasBorrowedItem");
 
     /**
      * Constructor - creates a new empty BorrowingService
      */
     public BorrowingService() {
-        // Initialize the data structure to track borrowed items
-        borrowedItems = new HashMap<>();
+        this(LibraryClock.SYSTEM);
     }
 
     /**
-     * Let a member borrow a library item
+     * Create a new empty BorrowingService that uses the given clock
+     * (for example a ManualClock in tests)
      */
-    public void borrowItem(Member member, LibraryItem item) {
-        // First check that we have valid inputs
-        if (member == null) {
-            System.out.println("Error: Member cannot be null");
-            return;
+    public BorrowingService(LibraryClock clock) {
+        this(clock, LoanPolicyEngine.defaults());
+    }
+
+    /**
+     * Create a new empty BorrowingService with its own clock and borrowing rules
+     */
+    public BorrowingService(LibraryClock clock, LoanPolicyEngine policies) {
+        this(clock, policies, new LoanTable(64));
+    }
+
+    /**
+     * Create a new BorrowingService that keeps its loans in the given store
+     * (for example an OffHeapLoanTable, for very large libraries)
+     */
+    public BorrowingService(LibraryClock clock, LoanPolicyEngine policies, LoanStore loans) {
+        this(clock, policies, loans, new CirculationStats(clock));
+    }
+
+    /**
+     * Create a new BorrowingService that counts its borrows in the given
+     * statistics, which can be shared with other services (for example by
+     * all the shards of a ShardedLibraryService, so the counts cover every item)
+     */
+    public BorrowingService(LibraryClock clock, LoanPolicyEngine policies, LoanStore loans,
+            CirculationStats circulation) {
+        if (clock == null) {
+            throw new IllegalArgumentException("Clock cannot be null");
         }
+        if (policies == null) {
+            throw new IllegalArgumentException("Policy engine cannot be null");
+        }
+        if (loans == null) {
+            throw new IllegalArgumentException("Loan store cannot be null");
+        }
+        if (circulation == null) {
+            throw new IllegalArgumentException("Circulation statistics cannot be null");
+        }
+        this.clock = clock;
+        this.policies = policies;
+        this.circulation = circulation;
+        this.loans = loans;
+    }
 
-        if (item == null) {
-            System.out.println("Error: Item cannot be null");
-            return;
+    /**
+     * Get the clock this service uses
+     */
+    public LibraryClock getClock() {
+        return clock;
+    }
+
+    /**
+     * Keep every finished loan in an archive from now on (null to stop)
+     */
+    public void setArchive(LoanArchive archive) {
+        this.archive = archive;
+    }
+
+    /**
+     * Get the archive finished loans are kept in, or null if there isn't one
+     */
+    public LoanArchive getArchive() {
+        return archive;
+    }
+
+    /**
+     * Share who holds each item with other processes through a state file
+     * (null to stop). Every process must add the same items in the same order,
+     * so an item has the same ID everywhere. members turns the membership IDs
+     * in the file back into members (for example MemberService::findMemberById),
+     * for items lent out by another process.
+     *
+     * An item is only lent out if it can be claimed in the file, and an item
+     * lent out by one process can be returned through any of them.
+     *
+     * Loan limits are still counted by each process on its own, for the loans
+     * it made. A loan returned through another process stays in this
+     * process's lists (and counts) until this process notices: when the item
+     * is borrowed or returned here again, or when the member reaches their
+     * limit here, which first drops any of their loans the file says have
+     * ended. A process that restarts starts with no loans counted.
+     */
+    public void setSharedState(SharedLoanState sharedState, IntFunction<Member> members) {
+        if (sharedState != null && members == null) {
+            throw new IllegalArgumentException("Member lookup cannot be null");
         }
+        this.sharedMembers = members;
+        this.sharedState = sharedState;
+    }
 
-        // Check if the item is available to borrow
-        if (item.isAvailable()) {
-            // First time this member is borrowing something? Create their record
-            if (!borrowedItems.containsKey(member)) {
-                borrowedItems.put(member, new HashMap<>());
+    /**
+     * Get the state file shared with other processes, or null if there isn't one
+     */
+    public SharedLoanState getSharedState() {
+        return sharedState;
+    }
+
+    /**
+     * Get the borrow counts and trending items for this service
+     */
+    public CirculationStats getCirculationStats() {
+        return circulation;
+    }
+
+    /**
+     * Get the borrowing rules this service uses
+     */
+    public LoanPolicyEngine getPolicyEngine() {
+        return policies;
+    }
+
+    /**
+     * Let a member borrow a library item.
+     * Returns true if the item was lent to them.
+     */
+    public boolean borrowItem(Member member, LibraryItem item) {
+        long start = System.nanoTime();
+        // When the work was done; the messages printed after it don't count towards the timing
+        long doneAt = 0;
+        LibraryEvents.BorrowEvent event = new LibraryEvents.BorrowEvent();
+        event.begin();
+        event.memberId = member == null ? 0 : member.getMembershipId();
+        event.itemId = item == null ? 0 : item.getItemId();
+        try {
+            // First check that we have valid inputs
+            if (member == null) {
+                doneAt = System.nanoTime();
+                System.out.println("Error: Member cannot be null");
+                return false;
             }
 
-            // Calculate the due date (current date + 14 days)
-            Date currentDate = new Date();  // Today's date
+            if (item == null) {
+                doneAt = System.nanoTime();
+                System.out.println("Error: Item cannot be null");
+                return false;
+            }
 
-            // Add 14 days to the current date to get the due date
-            // 1000 (ms) * 60 (sec) * 60 (min) * 24 (hours) * LOAN_PERIOD_DAYS
-            long dueTime = currentDate.getTime() + (1000 * 60 * 60 * 24 * LOAN_PERIOD_DAYS);
-            Date dueDate = new Date(dueTime);
+            // Find out which rules apply to this member and item
+            int policyId = policies.policyIdFor(member, item);
+            LoanPolicy policy = policies.getPolicy(policyId);
+
+            // Reserve one of the member's loans (checking the limit in the same step)
+            int memberId = member.getMembershipId();
+            boolean limitReached = !loanCounters.tryAcquire(memberId, policy.getMaxLoans());
+            SharedLoanState shared = sharedState;
+            if (limitReached && shared != null) {
+                // Some of the member's loans may have been returned through another process
+                synchronized (this) {
+                    if (forgetLoansEndedElsewhere(shared, memberId) > 0) {
+                        limitReached = !loanCounters.tryAcquire(memberId, policy.getMaxLoans());
+                    }
+                }
+            }
 
-            // Add the item to the member's borrowed items with its due date
-            borrowedItems.get(member).put(item, dueDate);
+            // Calculate the due date (today + loan period), counted in whole days
+            long borrowTime = clock.currentTimeMillis();
+            long dueDay = clock.dayOf(borrowTime) + policy.getLoanPeriodDays();
+
+            // Check if the item is available, claim it and record the loan in one locked step,
+            // so the same item can never be lent out twice at once, and nobody ever sees
+            // an item that is checked out but not on loan to anyone
+            boolean borrowed = false;
+            if (!limitReached) {
+                synchronized (this) {
+                    // With a shared state file, the item must be claimed there first,
+                    // so no other process can lend it out at the same time
+                    boolean claimed = true;
+                    if (shared != null) {
+                        try {
+                            claimed = shared.tryClaim(item, memberId, dueDay, borrowTime);
+                        } catch (IllegalArgumentException e) {
+                            // The item has no record in the file, or the record is another item's
+                            System.out.println("Error: " + e.getMessage());
+                            claimed = false;
+                        }
+                    }
+                    if (claimed) {
+                        if (shared != null && !item.isAvailable()) {
+                            // We hold the item in the file now, so the loan recorded
+                            // here was returned through another process
+                            forgetLoan(item);
+                        }
+                        if (item.tryCheckOut()) {
+                            loans.add(member, item, borrowTime, (int) dueDay, policyId);
+                            borrowed = true;
+                        } else if (shared != null) {
+                            shared.release(item.getItemId(), memberId);
+                        }
+                    }
+                }
+            }
+            event.borrowed = borrowed;
+            if (borrowed) {
+                // Count the borrow (outside the lock - the counters don't need it)
+                circulation.recordBorrow(item);
+            } else if (!limitReached) {
+                // The item is not available (already checked out), so give back the reserved loan
+                loanCounters.release(memberId);
+            }
+            doneAt = System.nanoTime();
+
+            if (limitReached) {
+                System.out.println("Sorry, " + member.getName() + " already has " + loanCounters.get(memberId)
+                        + " items on loan (the limit is " + policy.getMaxLoans() + ").");
+            } else if (borrowed) {
+                // Print confirmation message
+                System.out.println(member.getName() + " has borrowed: " + item.getTitle());
+                System.out.println("Due date: " + LocalDate.ofEpochDay(dueDay));
+            } else {
+                System.out.println("Sorry, '" + item.getTitle() + "' is not available for borrowing.");
+            }
 
-            // Mark the item as checked out in the catalogue
-            item.checkOut();
+            // Late fee notification
+            System.out.println("\n----- LATE FEE POLICY -----");
+            System.out.println("Please return this item by the due date.");
+            System.out.println("Loan period: " + policy.getLoanPeriodDays() + " days");
+            System.out.println("Late fee: £" + String.format("%.2f", policy.getDailyFee()) + " per day");
+            if (policy.getFeeCap() != LoanPolicy.NO_FEE_CAP) {
+                System.out.println("Maximum late fee: £" + String.format("%.2f", policy.getFeeCap()));
+            }
+            System.out.println("Example late fees:");
+            System.out.println("- 1 day late: £" + String.format("%.2f", policy.feeFor(1)));
+            System.out.println("- 1 week late: £" + String.format("%.2f", policy.feeFor(7)));
+            System.out.println("- 2 weeks late: £" + String.format("%.2f", policy.feeFor(14)));
+            System.out.println("--------------------------");
+            return borrowed;
+        } finally {
+            BORROW_METRICS.record((doneAt == 0 ? System.nanoTime() : doneAt) - start);
+            event.commit();
+        }
+    }
 
-            // Print confirmation message
-            System.out.println(member.getName() + " has borrowed: " + item.getTitle());
-            System.out.println("Due date: " + dueDate);
-        } else {
-            // The item is not available (already checked out)
-            System.out.println("Sorry, '" + item.getTitle() + "' is not available for borrowing.");
+    /**
+     * Drop this process's record of an item's loan, after it was returned
+     * through another process sharing the state file. Call while holding the lock.
+     */
+    private void forgetLoan(LibraryItem item) {
+        int slot = loans.findByItem(item.getItemId());
+        if (slot != LoanStore.NO_SLOT) {
+            loanCounters.release(loans.memberIdAt(slot));
+            loans.remove(slot);
         }
+        item.returnItem();
+    }
 
-        // Late fee notification
-        System.out.println("\n----- LATE FEE POLICY -----");
-        System.out.println("Please return this item by the due date.");
-        System.out.println("Late fee: £" + String.format("%.2f", DAILY_OVERDUE_FEE) + " per day");
-        System.out.println("Example late fees:");
-        System.out.println("- 1 day late: £" + String.format("%.2f", DAILY_OVERDUE_FEE * 1));
-        System.out.println("- 1 week late: £" + String.format("%.2f", DAILY_OVERDUE_FEE * 7));
-        System.out.println("- 2 weeks late: £" + String.format("%.2f", DAILY_OVERDUE_FEE * 14));
-        System.out.println("--------------------------");
+    /**
+     * Drop this process's records of a member's loans that the state file
+     * says have ended (returned through another process), giving the member
+     * back those loans. Returns how many were dropped. Call while holding the lock.
+     */
+    private int forgetLoansEndedElsewhere(SharedLoanState shared, int memberId) {
+        int forgotten = 0;
+        int slot = loans.firstOfMember(memberId);
+        while (slot != LoanStore.NO_SLOT) {
+            int next = loans.nextOfSameMember(slot);
+            SharedLoanState.Holding holding = shared.holdingOf(loans.itemIdAt(slot));
+            if (holding == null || holding.getMemberId() != memberId) {
+                LibraryItem item = loans.itemAt(slot);
+                loanCounters.release(memberId);
+                loans.remove(slot);
+                if (item != null) {
+                    item.returnItem();
+                }
+                forgotten++;
+            }
+            slot = next;
+        }
+        return forgotten;
     }
 
     /**
-     * Process a member returning a library item
+     * Add a finished loan to the archive, if there is one. The return has
+     * already happened, so a problem writing the archive is only reported.
      */
-    public void returnItem(Member member, LibraryItem item) {
-        // First check for valid inputs
-        if (member == null) {
-            System.out.println("Error: Member cannot be null");
+    private void archiveLoan(ArchivedLoan loan) {
+        LoanArchive target = archive;
+        if (target == null) {
             return;
         }
+        try {
+            target.append(loan);
+        } catch (IOException e) {
+            System.out.println("Error: Could not archive the loan: " + e.getMessage());
+        }
+    }
 
+    /**
+     * Process the return of an item using only the item (for example from its
+     * barcode), without the caller having to know who borrowed it.
+     * Returns true if the item was on loan and has now been returned.
+     */
+    public boolean returnItem(LibraryItem item) {
         if (item == null) {
             System.out.println("Error: Item cannot be null");
-            return;
+            return false;
         }
 
-        // Check if this member has borrowed this item
-        if (hasBorrowedItem(member, item)) {
-            // Get the due date for this item
-            Date dueDate = borrowedItems.get(member).get(item);
-
-            // Get today's date (the return date)
-            Date returnDate = new Date();
-
-            // Remove the item from the member's borrowed list
-            borrowedItems.get(member).remove(item);
+        // Look up who has the item, straight from the item index
+        Member borrower = getBorrower(item);
+        if (borrower == null) {
+            System.out.println("'" + item.getTitle() + "' is not currently on loan.");
+            return false;
+        }
+        return returnItem(borrower, item);
+    }
 
-            // If the member has no more borrowed items, remove them from our tracking
-            if (borrowedItems.get(member).isEmpty()) {
-                borrowedItems.remove(member);
+    /**
+     * Process a member returning a library item.
+     * Returns true if the member had the item and it has now been returned.
+     */
+    public boolean returnItem(Member member, LibraryItem item) {
+        long start = System.nanoTime();
+        // When the work was done; the messages printed after it don't count towards the timing
+        long doneAt = 0;
+        LibraryEvents.ReturnEvent event = new LibraryEvents.ReturnEvent();
+        event.begin();
+        event.memberId = member == null ? 0 : member.getMembershipId();
+        event.itemId = item == null ? 0 : item.getItemId();
+        try {
+            // First check for valid inputs
+            if (member == null) {
+                doneAt = System.nanoTime();
+                System.out.println("Error: Member cannot be null");
+                return false;
             }
 
-            // Mark the item as returned (available again)
-            item.returnItem();
+            if (item == null) {
+                doneAt = System.nanoTime();
+                System.out.println("Error: Item cannot be null");
+                return false;
+            }
 
-            // Check if the item is returned late
-            if (returnDate.after(dueDate)) {
-                // Calculate days late
-                long diffTime = returnDate.getTime() - dueDate.getTime();
-                long diffDays = diffTime / (1000 * 60 * 60 * 24);  // Convert ms to days
+            // Find this member's loan of the item, remove it and mark the item as
+            // available again in one locked step, so two returns of the same item
+            // can't both succeed and the loans and the item always agree
+            boolean found = false;
+            boolean lentElsewhere = false;
+            long borrowTime = 0;
+            long dueDay = 0;
+            int policyId = 0;
+            synchronized (this) {
+                int slot = loans.findByItem(item.getItemId());
+                boolean heldHere = slot != LoanStore.NO_SLOT && loans.memberIdAt(slot) == member.getMembershipId();
+
+                // With a shared state file, the file has the final word on who holds the item
+                SharedLoanState shared = sharedState;
+                SharedLoanState.Holding holding =
+                        shared == null ? null : shared.release(item.getItemId(), member.getMembershipId());
+
+                if (heldHere && (shared == null || holding != null)) {
+                    found = true;
+                    borrowTime = loans.borrowTimeAt(slot);
+                    dueDay = loans.dueDayAt(slot);
+                    policyId = loans.policyIdAt(slot);
+                    loans.remove(slot);
+                    item.returnItem();
+                } else if (holding != null) {
+                    // Lent out by another process (or by this one before it restarted)
+                    found = true;
+                    lentElsewhere = true;
+                    borrowTime = holding.getBorrowTime();
+                    dueDay = holding.getDueDay();
+                    policyId = policies.policyIdFor(member, item);
+                } else if (heldHere) {
+                    // Our record is out of date: the item was returned through another process
+                    forgetLoan(item);
+                }
+            }
 
-                // Calculate the late fee
-                double fee = diffDays * DAILY_OVERDUE_FEE;
+            // Check if this member had borrowed this item
+            long diffDays = 0;
+            double fee = 0;
+            if (found) {
+                LoanPolicy policy = policies.getPolicy(policyId);
+
+                // Get today's date (the return date)
+                long returnDay = clock.today();
+
+                // Give the member back one loan (if it was counted here)
+                if (!lentElsewhere) {
+                    loanCounters.release(member.getMembershipId());
+                }
+                event.returned = true;
+
+                // Check if the item is returned late
+                if (returnDay > dueDay) {
+                    // Calculate days late
+                    diffDays = returnDay - dueDay;
+
+                    // Calculate the late fee
+                    fee = policy.feeFor(diffDays);
+                    event.daysLate = diffDays;
+                    event.fee = fee;
+                }
+
+                // Keep a record of the finished loan (outside the lock)
+                archiveLoan(new ArchivedLoan(member.getMembershipId(), item.getItemId(), borrowTime, dueDay,
+                        returnDay, Math.round(fee * 100)));
+            }
+            doneAt = System.nanoTime();
 
+            if (!found) {
+                System.out.println("This member has not borrowed this item or has already returned it.");
+            } else if (diffDays > 0) {
                 // Print late return message with fee
                 System.out.println("Item returned late by " + diffDays + " days.");
                 System.out.println("Late fee: $" + String.format("%.2f", fee));
@@ -136,15 +487,17 @@ public class BorrowingService {
                 // Item returned on time
                 System.out.println("Item returned on time. Thank you!");
             }
-        } else {
-            System.out.println("This member has not borrowed this item or has already returned it.");
+            return found;
+        } finally {
+            RETURN_METRICS.record((doneAt == 0 ? System.nanoTime() : doneAt) - start);
+            event.commit();
         }
     }
 
     /**
      * Display all items borrowed by a member
      */
-    public void displayBorrowedItems(Member member) {
+    public synchronized void displayBorrowedItems(Member member) {
         // Check for valid input
         if (member == null) {
             System.out.println("Error: Member cannot be null");
@@ -152,75 +505,234 @@ public class BorrowingService {
         }
 
         // Check if this member has any borrowed items
-        if (!borrowedItems.containsKey(member) || borrowedItems.get(member).isEmpty()) {
+        int slot = loans.firstOfMember(member.getMembershipId());
+        if (slot == LoanStore.NO_SLOT) {
             System.out.println(member.getName() + " has no borrowed items.");
             return;
         }
 
-        // Print a header for the display
-        System.out.println("\n----- " + member.getName() + "'s Borrowed Items -----");
+        // Build the list as text and print it in one go
+        StringBuilder text = new StringBuilder(64 + loans.countOfMember(member.getMembershipId()) * 120);
 
-        // Get all the items and due dates for this member
-        Map<LibraryItem, Date> items = borrowedItems.get(member);
+        // Print a header for the display
+        text.append("\n----- ").append(member.getName()).append("'s Borrowed Items -----\n");
 
         // Get today's date (to check if items are overdue)
-        Date currentDate = new Date();
+        long today = clock.today();
 
-        // Loop through and display each borrowed item
-        for (Map.Entry<LibraryItem, Date> entry : items.entrySet()) {
-            LibraryItem item = entry.getKey();
-            Date dueDate = entry.getValue();
+        // Loop through and add each of the member's loans
+        for (; slot != LoanStore.NO_SLOT; slot = loans.nextOfSameMember(slot)) {
+            LibraryItem item = loans.itemAt(slot);
+            long dueDay = loans.dueDayAt(slot);
 
-            // Print basic item information
-            System.out.println("- " + item.getTitle());
-            System.out.println("  Due date: " + dueDate);
+            // Print basic item information (the item may have been taken out of the catalogue while on loan)
+            if (item == null) {
+                text.append("- Item #").append(loans.itemIdAt(slot)).append(" (no longer in the catalogue)\n");
+            } else {
+                text.append("- ").append(item.getTitle()).append('\n');
+            }
+            text.append("  Due date: ").append(LocalDate.ofEpochDay(dueDay)).append('\n');
 
             // Check if the item is overdue
-            if (currentDate.after(dueDate)) {
+            if (today > dueDay) {
                 // Calculate days late
-                long diffTime = currentDate.getTime() - dueDate.getTime();
-                long daysLate = diffTime / (1000 * 60 * 60 * 24);  // Convert ms to days
+                long daysLate = today - dueDay;
 
                 // Calculate current fee
-                double fee = daysLate * DAILY_OVERDUE_FEE;
+                double fee = policies.getPolicy(loans.policyIdAt(slot)).feeFor(daysLate);
 
                 // Print overdue status and fee
-                System.out.println("  STATUS: OVERDUE by " + daysLate + " days");
-                System.out.println("  Current fee: $" + String.format("%.2f", fee));
+                text.append("  STATUS: OVERDUE by ").append(daysLate).append(" days\n");
+                text.append("  Current fee: $").append(String.format("%.2f", fee)).append('\n');
             } else {
                 // Calculate days left until due
-                long diffTime = dueDate.getTime() - currentDate.getTime();
-                long daysLeft = diffTime / (1000 * 60 * 60 * 24);  // Convert ms to days
+                long daysLeft = dueDay - today;
 
                 // Prints status
-                System.out.println("  STATUS: On time (" + daysLeft + " days remaining)");
+                text.append("  STATUS: On time (").append(daysLeft).append(" days remaining)\n");
             }
 
-            System.out.println();
+            text.append('\n');
         }
+        System.out.print(text);
     }
 
     /**
-     * Get a list of all items borrowed by a member
+     * Get all items borrowed by a member, with the day each one is due
+     * (as days since 1970 - use LocalDate.ofEpochDay to turn it into a date)
      */
-    public Map<LibraryItem, Date> getBorrowedItems(Member member) {
-        // If the member has borrowed items, return them
-        if (borrowedItems.containsKey(member)) {
-            return borrowedItems.get(member);
+    public synchronized Map<LibraryItem, Long> getBorrowedItems(Member member) {
+        long start = System.nanoTime();
+        try {
+            // Return the shared empty map if they haven't borrowed anything
+            if (member == null) {
+                return Collections.emptyMap();
+            }
+            int slot = loans.firstOfMember(member.getMembershipId());
+            if (slot == LoanStore.NO_SLOT) {
+                return Collections.emptyMap();
+            }
+
+            // Otherwise build a new map of their loans
+            Map<LibraryItem, Long> items = new LinkedHashMap<>();
+            for (; slot != LoanStore.NO_SLOT; slot = loans.nextOfSameMember(slot)) {
+                LibraryItem item = loans.itemAt(slot);
+                // Skip items that have been taken out of the catalogue
+                if (item != null) {
+                    items.put(item, (long) loans.dueDayAt(slot));
+                }
+            }
+            return items;
+        } finally {
+            LOANS_METRICS.recordSince(start);
         }
+    }
 
-        // Return an empty map if they haven't borrowed anything
-        return new HashMap<>();
+    /**
+     * Copy the loans that are due on or before lastDueDay into the list, looking at
+     * no more than maxSlots slots of the loan table, starting at fromSlot.
+     * All of a member's due loans are added next to each other.
+     * Returns the slot to carry on from, or -1 once the whole table has been looked at.
+     *
+     * The lock is only held for one batch, so checkouts carry on in between batches.
+     * Loans that change while a scan is running may be missed or seen twice.
+     */
+    public synchronized int collectDueLoans(int fromSlot, int maxSlots, long lastDueDay, List<DueLoan> into) {
+        long today = clock.today();
+        int end = (int) Math.min(loans.slotLimit(), (long) fromSlot + maxSlots);
+
+        for (int slot = fromSlot; slot < end; slot++) {
+            // Start from each member's first loan, then walk through all of that member's loans
+            if (!loans.isFirstOfMember(slot)) {
+                continue;
+            }
+            for (int loan = slot; loan != LoanStore.NO_SLOT; loan = loans.nextOfSameMember(loan)) {
+                long dueDay = loans.dueDayAt(loan);
+                LibraryItem item = loans.itemAt(loan);
+                Member member = loans.memberAt(loan);
+                // There is nothing to send a notice about if the item or member record is gone
+                if (dueDay <= lastDueDay && item != null && member != null) {
+                    long daysOverdue = today - dueDay;
+                    double fee = policies.getPolicy(loans.policyIdAt(loan)).feeFor(daysOverdue);
+                    into.add(new DueLoan(member, item, dueDay, daysOverdue, fee));
+                }
+            }
+        }
+        return end >= loans.slotLimit() ? -1 : end;
+    }
+
+    /**
+     * Copy all current loans, for reports.
+     *
+     * The loans are copied in batches, and the lock is only held for one
+     * batch, so checkouts carry on in between. Loans that change while the
+     * copy is being made may be missed or seen twice.
+     */
+    public LoanSnapshot snapshotLoans() {
+        LoanSnapshot snapshot = new LoanSnapshot(clock.today(), policies);
+        int slot = 0;
+        while (slot >= 0) {
+            slot = copyLoans(slot, SNAPSHOT_BATCH_SLOTS, snapshot);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Copy the loans in up to maxSlots slots, starting at fromSlot.
+     * Returns the slot to carry on from, or -1 once the whole table has been copied.
+     */
+    private synchronized int copyLoans(int fromSlot, int maxSlots, LoanSnapshot into) {
+        int end = (int) Math.min(loans.slotLimit(), (long) fromSlot + maxSlots);
+        for (int slot = fromSlot; slot < end; slot++) {
+            if (!loans.isUsed(slot)) {
+                continue;
+            }
+            LibraryItem item = loans.itemAt(slot);
+            // Items taken out of the catalogue have no category to report under
+            if (item != null) {
+                into.add(item, loans.memberIdAt(slot), loans.dueDayAt(slot), loans.policyIdAt(slot));
+            }
+        }
+        return end >= loans.slotLimit() ? -1 : end;
+    }
+
+    /**
+     * Get the number of items a member currently has on loan
+     */
+    public int getLoanCount(Member member) {
+        return member == null ? 0 : loanCounters.get(member.getMembershipId());
+    }
+
+    /**
+     * Get the member who currently has an item, or null if it isn't on loan.
+     * With a shared state file, this is whoever holds it in the file, in any process.
+     */
+    public Member getBorrower(LibraryItem item) {
+        if (item == null) {
+            return null;
+        }
+        SharedLoanState shared = sharedState;
+        int holderId = 0;
+        synchronized (this) {
+            int slot = loans.findByItem(item.getItemId());
+            if (shared == null) {
+                return slot == LoanStore.NO_SLOT ? null : loans.memberAt(slot);
+            }
+
+            // The file has the final word; our own record is only used if it agrees
+            SharedLoanState.Holding holding = shared.holdingOf(item.getItemId());
+            if (holding == null) {
+                return null;
+            }
+            holderId = holding.getMemberId();
+            if (slot != LoanStore.NO_SLOT && loans.memberIdAt(slot) == holderId && loans.memberAt(slot) != null) {
+                return loans.memberAt(slot);
+            }
+        }
+
+        // Lent out by another process: look the member up outside the lock
+        IntFunction<Member> members = sharedMembers;
+        return members == null ? null : members.apply(holderId);
+    }
+
+    /**
+     * Get the day an item is due back (days since 1970), or -1 if it isn't on loan
+     */
+    public synchronized long getDueDay(LibraryItem item) {
+        if (item == null) {
+            return -1;
+        }
+        SharedLoanState shared = sharedState;
+        if (shared != null) {
+            SharedLoanState.Holding holding = shared.holdingOf(item.getItemId());
+            return holding == null ? -1 : holding.getDueDay();
+        }
+        int slot = loans.findByItem(item.getItemId());
+        return slot == LoanStore.NO_SLOT ? -1 : loans.dueDayAt(slot);
     }
 
     /**
      * Check if a member has borrowed a specific item
      */
-    public boolean hasBorrowedItem(Member member, LibraryItem item) {
-        // I need to check two things:
-        // 1. Does the member exist in our borrowedItems map?
-        // 2. Has the member borrowed this specific item?
-        return borrowedItems.containsKey(member) &&
-                borrowedItems.get(member).containsKey(item);
+    public synchronized boolean hasBorrowedItem(Member member, LibraryItem item) {
+        long start = System.nanoTime();
+        try {
+            if (member == null || item == null) {
+                return false;
+            }
+
+            // With a shared state file, the file has the final word on who holds the item
+            SharedLoanState shared = sharedState;
+            if (shared != null) {
+                SharedLoanState.Holding holding = shared.holdingOf(item.getItemId());
+                return holding != null && holding.getMemberId() == member.getMembershipId();
+            }
+
+            // Look up who has the item, then check it is this member
+            int slot = loans.findByItem(item.getItemId());
+            return slot != LoanStore.NO_SLOT && loans.memberIdAt(slot) == member.getMembershipId();
+        } finally {
+            HAS_BORROWED_METRICS.recordSince(start);
+        }
     }
 }
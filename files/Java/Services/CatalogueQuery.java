@@ -0,0 +1,281 @@
+package services;
+
+import models.Book;
+import models.LibraryItem;
+import models.SearchText;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A catalogue search with several conditions, all of which must match.
+ * Conditions that are left out match every item.
+ *
+ * Example - available Science books published 2015 to 2020 with "ocean" in the title:
+ *     CatalogueQuery query = new CatalogueQuery.Builder()
+ *             .titleContains("ocean")
+ *             .category("Science")
+ *             .publishedBetween(LocalDate.of(2015, 1, 1), LocalDate.of(2020, 12, 31))
+ *             .available(true)
+ *             .itemType(Book.class)
+ *             .build();
+ *     List<LibraryItem> results = catalogue.search(query);
+ *
+ * LibraryCatalogue.search() picks the best index for the query; see explain().
+ */
+public class CatalogueQuery {
+    // The names of the conditions, as shown by explain()
+    static final String TITLE = "title";
+    static final String AUTHOR = "author";
+    static final String CATEGORY = "category";
+    static final String ISBN = "ISBN";
+    static final String PUBLICATION_DATE = "publication date";
+    static final String AVAILABILITY = "availability";
+    static final String ITEM_TYPE = "item type";
+
+    // Text conditions are stored as search keys (see SearchText), ISBNs without dashes or spaces
+    private final String titleContains;
+    private final String authorContains;
+    private final String category;
+    private final String isbn;
+    private final LocalDate publishedFrom;
+    private final LocalDate publishedTo;
+    private final Boolean available;
+    private final Class<? extends LibraryItem> itemType;
+
+    private CatalogueQuery(Builder builder) {
+        this.titleContains = builder.titleContains;
+        this.authorContains = builder.authorContains;
+        this.category = builder.category;
+        this.isbn = builder.isbn;
+        this.publishedFrom = builder.publishedFrom;
+        this.publishedTo = builder.publishedTo;
+        this.available = builder.available;
+        this.itemType = builder.itemType;
+    }
+
+    /**
+     * Check if an item matches every condition of the query
+     */
+    public boolean matches(LibraryItem item) {
+        if (itemType != null && !itemType.isInstance(item)) {
+            return false;
+        }
+        if (category != null && !item.getCategoryKey().equals(category)) {
+            return false;
+        }
+        if (isbn != null && !(item instanceof Book && normalizeIsbn(((Book) item).getISBN()).equals(isbn))) {
+            return false;
+        }
+        if (hasDateRange()) {
+            long day = item.getPublicationDay();
+            if (day < getFromDay() || day > getToDay()) {
+                return false;
+            }
+        }
+        if (available != null && item.isAvailable() != available) {
+            return false;
+        }
+        if (titleContains != null && !SearchText.contains(item.getTitleKey(), titleContains)) {
+            return false;
+        }
+        return authorContains == null || SearchText.contains(item.getAuthorKey(), authorContains);
+    }
+
+    /**
+     * Get the text (as a search key) the title must contain, or null for any title
+     */
+    public String getTitleContains() {
+        return titleContains;
+    }
+
+    /**
+     * Get the text (as a search key) the author must contain, or null for any author
+     */
+    public String getAuthorContains() {
+        return authorContains;
+    }
+
+    /**
+     * Get the category (as a search key), or null for any category
+     */
+    public String getCategory() {
+        return category;
+    }
+
+    /**
+     * Get the ISBN (without dashes or spaces), or null for any ISBN
+     */
+    public String getIsbn() {
+        return isbn;
+    }
+
+    /**
+     * Check if the query limits the publication date
+     */
+    public boolean hasDateRange() {
+        return publishedFrom != null || publishedTo != null;
+    }
+
+    /**
+     * The first publication day allowed (days since 1970), or Integer.MIN_VALUE if there is no start date
+     */
+    public long getFromDay() {
+        return publishedFrom == null ? Integer.MIN_VALUE : publishedFrom.toEpochDay();
+    }
+
+    /**
+     * The last publication day allowed (days since 1970), or Integer.MAX_VALUE if there is no end date
+     */
+    public long getToDay() {
+        return publishedTo == null ? Integer.MAX_VALUE : publishedTo.toEpochDay();
+    }
+
+    /**
+     * Get the availability the item must have, or null for either
+     */
+    public Boolean getAvailable() {
+        return available;
+    }
+
+    /**
+     * Get the kind of item (e.g. Book.class), or null for any kind
+     */
+    public Class<? extends LibraryItem> getItemType() {
+        return itemType;
+    }
+
+    /**
+     * Get the names of the conditions this query uses
+     */
+    public List<String> getConditionNames() {
+        List<String> names = new ArrayList<>();
+        if (titleContains != null) names.add(TITLE);
+        if (authorContains != null) names.add(AUTHOR);
+        if (category != null) names.add(CATEGORY);
+        if (isbn != null) names.add(ISBN);
+        if (hasDateRange()) names.add(PUBLICATION_DATE);
+        if (available != null) names.add(AVAILABILITY);
+        if (itemType != null) names.add(ITEM_TYPE);
+        return names;
+    }
+
+    @Override
+    public String toString() {
+        List<String> parts = new ArrayList<>();
+        if (titleContains != null) parts.add("title contains '" + titleContains + "'");
+        if (authorContains != null) parts.add("author contains '" + authorContains + "'");
+        if (category != null) parts.add("category = '" + category + "'");
+        if (isbn != null) parts.add("ISBN = " + isbn);
+        if (hasDateRange()) {
+            parts.add("published " + (publishedFrom == null ? "..." : publishedFrom) + " to "
+                    + (publishedTo == null ? "..." : publishedTo));
+        }
+        if (available != null) parts.add(available ? "available" : "checked out");
+        if (itemType != null) parts.add("type = " + itemType.getSimpleName());
+        return parts.isEmpty() ? "all items" : String.join(" and ", parts);
+    }
+
+    /**
+     * Turn text into a search key, the same way items store theirs
+     */
+    static String normalizeText(String text) {
+        return SearchText.normalize(text);
+    }
+
+    /**
+     * Remove dashes and spaces from an ISBN, so "978-0-14-..." and "978014..." match
+     */
+    static String normalizeIsbn(String isbn) {
+        return isbn.replace("-", "").replace(" ", "").toUpperCase();
+    }
+
+    /**
+     * Collects the conditions of a query
+     */
+    public static class Builder {
+        private String titleContains;
+        private String authorContains;
+        private String category;
+        private String isbn;
+        private LocalDate publishedFrom;
+        private LocalDate publishedTo;
+        private Boolean available;
+        private Class<? extends LibraryItem> itemType;
+
+        /**
+         * Only items whose title contains this text (ignoring case and accents)
+         */
+        public Builder titleContains(String text) {
+            this.titleContains = normalizeText(checkNotEmpty(text, "Title"));
+            return this;
+        }
+
+        /**
+         * Only items whose author (or publisher, for magazines) contains this text (ignoring case and accents)
+         */
+        public Builder authorContains(String text) {
+            this.authorContains = normalizeText(checkNotEmpty(text, "Author"));
+            return this;
+        }
+
+        /**
+         * Only items in this category (the whole name, ignoring case and accents)
+         */
+        public Builder category(String category) {
+            this.category = normalizeText(checkNotEmpty(category, "Category"));
+            return this;
+        }
+
+        /**
+         * Only books with this ISBN (dashes and spaces are ignored)
+         */
+        public Builder isbn(String isbn) {
+            this.isbn = normalizeIsbn(checkNotEmpty(isbn, "ISBN"));
+            return this;
+        }
+
+        /**
+         * Only items published between these dates (both included).
+         * Either date can be null to leave that end open.
+         */
+        public Builder publishedBetween(LocalDate from, LocalDate to) {
+            if (from != null && to != null && from.isAfter(to)) {
+                throw new IllegalArgumentException("The start date must not be after the end date");
+            }
+            this.publishedFrom = from;
+            this.publishedTo = to;
+            return this;
+        }
+
+        /**
+         * Only items that are available (true) or checked out (false)
+         */
+        public Builder available(boolean available) {
+            this.available = available;
+            return this;
+        }
+
+        /**
+         * Only items of this kind, e.g. Book.class or Magazine.class
+         */
+        public Builder itemType(Class<? extends LibraryItem> itemType) {
+            if (itemType == null) {
+                throw new IllegalArgumentException("Item type cannot be null");
+            }
+            this.itemType = itemType;
+            return this;
+        }
+
+        public CatalogueQuery build() {
+            return new CatalogueQuery(this);
+        }
+
+        private static String checkNotEmpty(String text, String what) {
+            if (text == null || text.trim().isEmpty()) {
+                throw new IllegalArgumentException(what + " cannot be empty");
+            }
+            return text;
+        }
+    }
+}
@@ -0,0 +1,327 @@
+package services;
+
+import models.LibraryItem;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Counts how often each item has been borrowed, and which items are
+ * trending over the last day, week and month.
+ *
+ * recordBorrow() is called on every checkout, so it must be cheap and must
+ * never make two checkouts wait for each other: it only adds one to the
+ * item's counter with an atomic increment (no locks). The counters live in
+ * pages of 1024 items found by item ID, like MemberLoanCounters. Each page
+ * also remembers the items themselves, for the trending lists, until
+ * forgetItem() is called when an item leaves the catalogue.
+ *
+ * The trending lists are worked out by refresh(), off the checkout path
+ * (see startRefreshing). It compares every counter with the value it saw
+ * last time and adds the difference to an exponentially decayed score per
+ * period: a borrow counts fully at first and fades to about a third after
+ * one day, week or month. The scores are roughly "borrows in the last
+ * period", without having to remember when each borrow happened. Each
+ * refresh then keeps the top TRENDING_SIZE items per period (see TopK),
+ * so getTrending() just hands out the start of a ready-made list: O(k).
+ */
+public class CirculationStats {
+    /**
+     * The periods that trending lists are kept for
+     */
+    public enum Period {
+        DAY(1), WEEK(7), MONTH(30);
+
+        private final int days;
+
+        Period(int days) {
+            this.days = days;
+        }
+
+        public int getDays() {
+            return days;
+        }
+    }
+
+    // How many items each trending list keeps
+    public static final int TRENDING_SIZE = 100;
+
+    // Scores that have faded below this are dropped from the trending lists
+    private static final double MIN_SCORE = 0.01;
+
+    private static final int PAGE_BITS = 10;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int DIRECTORY_BITS = 10;
+    private static final int DIRECTORY_SIZE = 1 << DIRECTORY_BITS;
+    private static final int TOP_SIZE = 1 << (31 - PAGE_BITS - DIRECTORY_BITS);
+
+    private static final Period[] PERIODS = Period.values();
+
+    // Most popular first, then by item ID so the order is always the same
+    private static final Comparator<TrendingItem> BY_SCORE = Comparator
+            .comparingDouble(TrendingItem::getScore).reversed()
+            .thenComparingInt(trending -> trending.getItem().getItemId());
+
+    // top[a] -> directory, directory[b] -> page of 1024 items
+    private final AtomicReferenceArray<AtomicReferenceArray<Page>> top = new AtomicReferenceArray<>(TOP_SIZE);
+
+    private final LibraryClock clock;
+
+    // The latest trending lists, replaced as a whole by each refresh
+    private volatile Map<Period, List<TrendingItem>> trending = emptyTrending();
+
+    // When refresh() last ran (only used inside refresh)
+    private long lastRefreshMillis;
+
+    private ScheduledExecutorService refresher;
+
+    private static final LibraryMetrics.Operation REFRESH_METRICS = LibraryMetrics.operation("circulation.refresh");
+
+    /**
+     * Create empty statistics that use the given clock for the decay
+     */
+    public CirculationStats(LibraryClock clock) {
+        if (clock == null) {
+            throw new IllegalArgumentException("Clock cannot be null");
+        }
+        this.clock = clock;
+        this.lastRefreshMillis = clock.currentTimeMillis();
+    }
+
+    /**
+     * Count one borrow of an item. Safe to call from many threads at once.
+     */
+    public void recordBorrow(LibraryItem item) {
+        int itemId = item.getItemId();
+        Page page = pageFor(itemId, true);
+        int index = itemId & (PAGE_SIZE - 1);
+        if (page.items.get(index) == null) {
+            // Remember the item the first time, so the trending lists can show it
+            page.items.compareAndSet(index, null, item);
+        }
+        page.counts.getAndIncrement(index);
+    }
+
+    /**
+     * Stop remembering an item that has been taken out of the catalogue, so
+     * it can be garbage collected. It drops out of the trending lists at the
+     * next refresh(); its borrow count is kept.
+     */
+    public void forgetItem(LibraryItem item) {
+        Page page = pageFor(item.getItemId(), false);
+        if (page != null) {
+            page.items.compareAndSet(item.getItemId() & (PAGE_SIZE - 1), item, null);
+        }
+    }
+
+    /**
+     * Get how many times an item has been borrowed in total
+     */
+    public int getBorrowCount(int itemId) {
+        Page page = pageFor(itemId, false);
+        return page == null ? 0 : page.counts.get(itemId & (PAGE_SIZE - 1));
+    }
+
+    /**
+     * Get the (up to) k items borrowed most over a period, most popular first.
+     * This only reads the list made by the last refresh(), so it costs O(k).
+     */
+    public List<TrendingItem> getTrending(Period period, int k) {
+        if (period == null) {
+            throw new IllegalArgumentException("Period cannot be null");
+        }
+        if (k < 1 || k > TRENDING_SIZE) {
+            throw new IllegalArgumentException("k must be between 1 and " + TRENDING_SIZE);
+        }
+        List<TrendingItem> list = trending.get(period);
+        return list.subList(0, Math.min(k, list.size()));
+    }
+
+    /**
+     * Update the decayed scores with the borrows since the last refresh and
+     * rebuild the trending lists. Runs in O(number of items ever borrowed).
+     */
+    public synchronized void refresh() {
+        long start = System.nanoTime();
+        try {
+            long now = clock.currentTimeMillis();
+            double elapsedDays = Math.max(0, now - lastRefreshMillis) / (double) LibraryClock.MILLIS_PER_DAY;
+            lastRefreshMillis = now;
+
+            // How much of each score is left after the time that has passed
+            double[] decay = new double[PERIODS.length];
+            List<TopK<TrendingItem>> best = new ArrayList<>(PERIODS.length);
+            for (Period period : PERIODS) {
+                decay[period.ordinal()] = Math.exp(-elapsedDays / period.getDays());
+                best.add(new TopK<>(TRENDING_SIZE, BY_SCORE));
+            }
+
+            for (int topIndex = 0; topIndex < TOP_SIZE; topIndex++) {
+                AtomicReferenceArray<Page> directory = top.get(topIndex);
+                if (directory == null) {
+                    continue;
+                }
+                for (int directoryIndex = 0; directoryIndex < DIRECTORY_SIZE; directoryIndex++) {
+                    Page page = directory.get(directoryIndex);
+                    if (page != null) {
+                        refreshPage(page, decay, best);
+                    }
+                }
+            }
+
+            Map<Period, List<TrendingItem>> lists = new EnumMap<>(Period.class);
+            for (Period period : PERIODS) {
+                lists.put(period, Collections.unmodifiableList(best.get(period.ordinal()).toSortedList()));
+            }
+            trending = lists;
+        } finally {
+            REFRESH_METRICS.recordSince(start);
+        }
+    }
+
+    /**
+     * Decay the scores of one page, add the new borrows and offer the items to the top-k lists
+     */
+    private static void refreshPage(Page page, double[] decay, List<TopK<TrendingItem>> best) {
+        for (int index = 0; index < PAGE_SIZE; index++) {
+            int count = page.counts.get(index);
+            int newBorrows = count - page.countAtLastRefresh[index];
+            page.countAtLastRefresh[index] = count;
+            if (count == 0) {
+                continue;
+            }
+
+            LibraryItem item = page.items.get(index);
+            for (int p = 0; p < decay.length; p++) {
+                double score = page.scores[p][index] * decay[p] + newBorrows;
+                if (score < MIN_SCORE) {
+                    score = 0;
+                }
+                page.scores[p][index] = score;
+
+                // Items taken out of the catalogue (see forgetItem) are left out
+                TopK<TrendingItem> top = best.get(p);
+                if (item != null && score > 0 && (!top.isFull() || score > top.worst().getScore())) {
+                    top.offer(new TrendingItem(item, score, count));
+                }
+            }
+        }
+    }
+
+    /**
+     * Call refresh() every periodMillis on a background thread
+     */
+    public synchronized void startRefreshing(long periodMillis) {
+        if (periodMillis <= 0) {
+            throw new IllegalArgumentException("Refresh period must be positive");
+        }
+        stopRefreshing();
+        refresher = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "circulation-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+        refresher.scheduleWithFixedDelay(this::refresh, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop the background refreshes started by startRefreshing()
+     */
+    public synchronized void stopRefreshing() {
+        if (refresher != null) {
+            refresher.shutdownNow();
+            refresher = null;
+        }
+    }
+
+    private static Map<Period, List<TrendingItem>> emptyTrending() {
+        Map<Period, List<TrendingItem>> lists = new EnumMap<>(Period.class);
+        for (Period period : PERIODS) {
+            lists.put(period, Collections.emptyList());
+        }
+        return lists;
+    }
+
+    /**
+     * Find the page that holds an item's counter, creating it if asked to
+     */
+    private Page pageFor(int itemId, boolean create) {
+        if (itemId <= 0) {
+            throw new IllegalArgumentException("Item ID must be positive");
+        }
+        int topIndex = itemId >>> (PAGE_BITS + DIRECTORY_BITS);
+        int directoryIndex = (itemId >>> PAGE_BITS) & (DIRECTORY_SIZE - 1);
+
+        AtomicReferenceArray<Page> directory = top.get(topIndex);
+        if (directory == null) {
+            if (!create) {
+                return null;
+            }
+            // If two threads race to create it, only one wins and both use the winner's
+            top.compareAndSet(topIndex, null, new AtomicReferenceArray<>(DIRECTORY_SIZE));
+            directory = top.get(topIndex);
+        }
+
+        Page page = directory.get(directoryIndex);
+        if (page == null) {
+            if (!create) {
+                return null;
+            }
+            directory.compareAndSet(directoryIndex, null, new Page());
+            page = directory.get(directoryIndex);
+        }
+        return page;
+    }
+
+    /**
+     * The counters for 1024 items. counts and items are shared with the
+     * checkout threads; the rest is only used by refresh().
+     */
+    private static class Page {
+        final AtomicIntegerArray counts = new AtomicIntegerArray(PAGE_SIZE);
+        final AtomicReferenceArray<LibraryItem> items = new AtomicReferenceArray<>(PAGE_SIZE);
+        final int[] countAtLastRefresh = new int[PAGE_SIZE];
+        final double[][] scores = new double[PERIODS.length][PAGE_SIZE];
+    }
+
+    /**
+     * One entry of a trending list
+     */
+    public static class TrendingItem {
+        private final LibraryItem item;
+        private final double score;
+        private final int totalBorrows;
+
+        TrendingItem(LibraryItem item, double score, int totalBorrows) {
+            this.item = item;
+            this.score = score;
+            this.totalBorrows = totalBorrows;
+        }
+
+        public LibraryItem getItem() {
+            return item;
+        }
+
+        /**
+         * Get the decayed number of borrows - roughly the borrows over the period
+         */
+        public double getScore() {
+            return score;
+        }
+
+        /**
+         * Get the number of times the item has been borrowed in total
+         */
+        public int getTotalBorrows() {
+            return totalBorrows;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package services;
+
+import models.LibraryItem;
+import models.Member;
+
+/**
+ * A copy of one loan that is due soon or overdue, taken at a point in time.
+ * Used by the overdue notice pipeline, so it never has to touch the live loan table.
+ */
+public class DueLoan {
+    private final Member member;
+    private final LibraryItem item;
+    private final long dueDay;
+    private final long daysOverdue;
+    private final double feeSoFar;
+
+    public DueLoan(Member member, LibraryItem item, long dueDay, long daysOverdue, double feeSoFar) {
+        this.member = member;
+        this.item = item;
+        this.dueDay = dueDay;
+        this.daysOverdue = daysOverdue;
+        this.feeSoFar = feeSoFar;
+    }
+
+    public Member getMember() {
+        return member;
+    }
+
+    public LibraryItem getItem() {
+        return item;
+    }
+
+    /**
+     * The day the item is due (days since 1970)
+     */
+    public long getDueDay() {
+        return dueDay;
+    }
+
+    /**
+     * How many days late the item is (0 or less if it isn't late yet)
+     */
+    public long getDaysOverdue() {
+        return daysOverdue;
+    }
+
+    /**
+     * The late fee the member would pay if they returned it today
+     */
+    public double getFeeSoFar() {
+        return feeSoFar;
+    }
+}
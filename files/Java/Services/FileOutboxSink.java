@@ -0,0 +1,48 @@
+package services;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+
+/**
+ * Writes notices into a local outbox file, one after another, so another
+ * program (or a person) can send them later.
+ */
+public class FileOutboxSink implements NoticeSink {
+    private final BufferedWriter writer;
+    private long written;
+
+    /**
+     * Open the outbox file. New notices are added to the end of the file.
+     */
+    public FileOutboxSink(String fileName) throws IOException {
+        // A big buffer, because millions of notices may be written in one night
+        this.writer = new BufferedWriter(new FileWriter(fileName, true), 1 << 16);
+    }
+
+    @Override
+    public void write(OverdueNotice notice) throws IOException {
+        writer.write("To: " + notice.getContactInfo() + " (member " + notice.getMembershipId() + ")");
+        writer.newLine();
+        writer.write("Subject: " + notice.getSubject());
+        writer.newLine();
+        writer.newLine();
+        writer.write(notice.getBody());
+        writer.newLine();
+        writer.write("----------");
+        writer.newLine();
+        written++;
+    }
+
+    /**
+     * Get the number of notices written so far
+     */
+    public long getWrittenCount() {
+        return written;
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+}
@@ -0,0 +1,157 @@
+package services;
+
+import java.util.Arrays;
+
+/**
+ * A hash map from int to int that stores everything in two plain int arrays.
+ *
+ * Unlike HashMap<Integer, Integer> it creates no objects per entry, which
+ * matters when there are millions of entries. It uses open addressing with
+ * linear probing: a key that collides goes into the next free slot.
+ *
+ * Keys must not be 0, because 0 marks an empty slot: put() refuses it,
+ * and get(), containsKey() and remove() treat it as never present. Library
+ * IDs always start at 1, so this is never a problem here.
+ */
+public class IntIntHashMap {
+    private static final int EMPTY = 0;
+
+    private int[] keys;
+    private int[] values;
+    private int mask;
+    private int size;
+
+    // The value returned by get() for a key that isn't in the map
+    private final int missingValue;
+
+    /**
+     * Create an empty map. get() returns missingValue for keys that aren't present.
+     */
+    public IntIntHashMap(int expectedSize, int missingValue) {
+        // Keep the table at most half full so probe chains stay short
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize * 2) - 1) << 1;
+        keys = new int[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+        this.missingValue = missingValue;
+    }
+
+    /**
+     * Get the value for a key, or the missing value if the key isn't present
+     */
+    public int get(int key) {
+        if (key == EMPTY) {
+            return missingValue;
+        }
+        int index = indexOf(key);
+        return keys[index] == key ? values[index] : missingValue;
+    }
+
+    /**
+     * Check if the map has a value for a key
+     */
+    public boolean containsKey(int key) {
+        return key != EMPTY && keys[indexOf(key)] == key;
+    }
+
+    /**
+     * Store a value for a key, replacing any old value
+     */
+    public void put(int key, int value) {
+        if (key == EMPTY) {
+            throw new IllegalArgumentException("Key cannot be 0");
+        }
+        int index = indexOf(key);
+        if (keys[index] != key) {
+            keys[index] = key;
+            size++;
+        }
+        values[index] = value;
+
+        if (size * 2 > keys.length) {
+            resize(keys.length * 2);
+        }
+    }
+
+    /**
+     * Remove a key from the map. Returns true if it was there.
+     */
+    public boolean remove(int key) {
+        if (key == EMPTY) {
+            return false;
+        }
+        int index = indexOf(key);
+        if (keys[index] != key) {
+            return false;
+        }
+
+        // Shift later entries of the same probe chain back into the gap,
+        // so lookups never have to step over deleted slots
+        int gap = index;
+        int next = (gap + 1) & mask;
+        while (keys[next] != EMPTY) {
+            int home = slotOf(keys[next]);
+            // Move the entry if its home slot is not between the gap and where it is now
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                keys[gap] = keys[next];
+                values[gap] = values[next];
+                gap = next;
+            }
+            next = (next + 1) & mask;
+        }
+        keys[gap] = EMPTY;
+        values[gap] = 0;
+        size--;
+        return true;
+    }
+
+    /**
+     * Get the number of entries
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Remove every entry
+     */
+    public void clear() {
+        Arrays.fill(keys, EMPTY);
+        Arrays.fill(values, 0);
+        size = 0;
+    }
+
+    /**
+     * Find the slot that holds the key, or the empty slot where it would go
+     */
+    private int indexOf(int key) {
+        int index = slotOf(key);
+        while (keys[index] != key && keys[index] != EMPTY) {
+            index = (index + 1) & mask;
+        }
+        return index;
+    }
+
+    /**
+     * The first slot a key would like to go in
+     */
+    private int slotOf(int key) {
+        int hash = key * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    private void resize(int newCapacity) {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new int[newCapacity];
+        values = new int[newCapacity];
+        mask = newCapacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int index = indexOf(oldKeys[i]);
+                keys[index] = oldKeys[i];
+                values[index] = oldValues[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package services;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records latencies (in nanoseconds) into log-linear buckets, in the same
+ * spirit as HdrHistogram. Every power of two is split into 32 equal
+ * sub-buckets, so any recorded value is reported within about 3% of its
+ * real value while the whole histogram stays a fixed ~15KB array.
+ *
+ * Recording is a couple of atomic increments and never blocks, so it is
+ * cheap enough to call on every operation.
+ */
+public class LatencyHistogram {
+    // Values below this are counted exactly, one bucket per nanosecond
+    private static final int LINEAR_LIMIT = 64;
+    // Each power of two above that is split into this many sub-buckets
+    private static final int SUB_BUCKETS = 32;
+    private static final int SUB_BITS = 5;
+    private static final int BUCKET_COUNT = LINEAR_LIMIT + (63 - 6) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong totalCount = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * Record one measured latency
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        counts.incrementAndGet(bucketOf(nanos));
+        totalCount.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+
+        // Only touch the max if this value is bigger (rare after warm-up)
+        long max = maxNanos.get();
+        while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+            max = maxNanos.get();
+        }
+    }
+
+    /**
+     * Get the number of recorded values
+     */
+    public long getCount() {
+        return totalCount.get();
+    }
+
+    /**
+     * Get the average latency in nanoseconds
+     */
+    public double getMean() {
+        long count = totalCount.get();
+        return count == 0 ? 0.0 : (double) totalNanos.get() / count;
+    }
+
+    /**
+     * Get the largest recorded latency in nanoseconds
+     */
+    public long getMax() {
+        return maxNanos.get();
+    }
+
+    /**
+     * Get the latency below which the given percentage (0-100) of values fall
+     */
+    public long getPercentile(double percentile) {
+        long count = totalCount.get();
+        if (count == 0) {
+            return 0;
+        }
+
+        // The rank of the value we are looking for (at least the first value)
+        long target = Math.max(1, (long) Math.ceil(count * percentile / 100.0));
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            seen += counts.get(bucket);
+            if (seen >= target) {
+                // Never report more than the real maximum
+                return Math.min(highestValueIn(bucket), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * Clear all recorded values
+     */
+    public void reset() {
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            counts.set(bucket, 0);
+        }
+        totalCount.set(0);
+        totalNanos.set(0);
+        maxNanos.set(0);
+    }
+
+    /**
+     * Work out which bucket a value belongs to
+     */
+    static int bucketOf(long value) {
+        if (value < LINEAR_LIMIT) {
+            return (int) value;
+        }
+        int highestBit = 63 - Long.numberOfLeadingZeros(value);
+        int shift = highestBit - SUB_BITS;
+        int subBucket = (int) (value >>> shift) - SUB_BUCKETS;
+        return LINEAR_LIMIT + (highestBit - 6) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * The largest value that falls into a bucket
+     */
+    static long highestValueIn(int bucket) {
+        if (bucket < LINEAR_LIMIT) {
+            return bucket;
+        }
+        int offset = bucket - LINEAR_LIMIT;
+        int highestBit = offset / SUB_BUCKETS + 6;
+        long subBucket = offset % SUB_BUCKETS + SUB_BUCKETS;
+        int shift = highestBit - SUB_BITS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
@@ -1,8 +1,21 @@
 package services;
 
+import models.Book;
 import models.LibraryItem;
+import models.SearchText;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ToIntFunction;
 
 /**
  * This class manages all the items in our library catalogue.
@@ -12,6 +25,59 @@ public class LibraryCatalogue {
     // ArrayList to store all our library items
     private ArrayList<LibraryItem> items;
 
+    // The same items, looked up by their item ID (barcode). A concurrent map, because
+    // background threads (overdue notices, reports) look items up while the UI changes the catalogue
+    private final ConcurrentHashMap<Integer, LibraryItem> itemsById = new ConcurrentHashMap<>();
+
+    // The same items sorted by publication date, both all together and per category
+    // (by the category's search key), for date range searches
+    private PublicationDateIndex publicationDates = new PublicationDateIndex();
+    private HashMap<String, PublicationDateIndex> publicationDatesByCategory = new HashMap<>();
+
+    // Books by ISBN (without dashes or spaces). A list, because a library can have several copies.
+    private HashMap<String, List<LibraryItem>> itemsByIsbn = new HashMap<>();
+
+    // Items by the search key of their title, in alphabetical order, so exact and prefix
+    // title matches can be found without scanning
+    private TreeMap<String, List<LibraryItem>> itemsByTitle = new TreeMap<>();
+
+    // How popular an item is, used to order ranked search results of the same kind.
+    // Every item counts the same until setPopularity() is called.
+    private ToIntFunction<LibraryItem> popularity = item -> 0;
+
+    // Cache of recent search results, so popular searches don't rescan every item
+    private static final int SEARCH_CACHE_SIZE = 512;
+    private QueryCache<SearchKey, List<LibraryItem>> searchCache = new QueryCache<>(SEARCH_CACHE_SIZE);
+
+    // Goes up by one every time an item is added or removed.
+    // A search only stores its result if nothing changed while it was running.
+    private long generation;
+
+    // Long listings are built up as text and printed in pieces of about this size
+    private static final int PRINT_CHUNK_CHARS = 64 * 1024;
+
+    // Call counts and latencies for each operation
+    private static final LibraryMetrics.Operation ADD_METRICS = LibraryMetrics.operation("catalogue.addItem");
+    private static final LibraryMetrics.Operation REMOVE_METRICS = LibraryMetrics.operation("catalogue.removeItem");
+    private static final LibraryMetrics.Operation TITLE_SEARCH_METRICS = LibraryMetrics.operation("catalogue.searchByTitle");
+    private static final LibraryMetrics.Operation CATEGORY_SEARCH_METRICS = LibraryMetrics.operation("catalogue.searchByCategory");
+    private static final LibraryMetrics.Operation DATE_SEARCH_METRICS = LibraryMetrics.operation("catalogue.searchByPublicationDate");
+    private static final LibraryMetrics.Operation QUERY_METRICS = LibraryMetrics.operation("catalogue.search");
+    private static final LibraryMetrics.Operation RANKED_SEARCH_METRICS = LibraryMetrics.operation("catalogue.rankByTitle");
+
+    // How well a title matches a ranked search, from best to worst
+    private static final int EXACT_MATCH = 3;
+    private static final int PREFIX_MATCH = 2;
+    private static final int WORD_MATCH = 1;
+    private static final int SUBSTRING_MATCH = 0;
+
+    // Best match first, then most popular, then alphabetical by title
+    private static final Comparator<RankedMatch> RANKING = Comparator
+            .comparingInt((RankedMatch match) -> match.matchKind).reversed()
+            .thenComparing(Comparator.comparingInt((RankedMatch match) -> match.popularity).reversed())
+            .thenComparing(match -> match.titleKey)
+            .thenComparingInt(match -> match.item.getItemId());
+
     /**
      * Constructor to create a new empty catalogue
      */
@@ -24,13 +90,29 @@ public class LibraryCatalogue {
      * Add a new item to the catalogue
      */
     public void addItem(LibraryItem item) {
-        // Make sure the item isn't null
-        if (item == null) {
-            throw new IllegalArgumentException("Item cannot be null");
+        long start = System.nanoTime();
+        try {
+            // Make sure the item isn't null
+            if (item == null) {
+                throw new IllegalArgumentException("Item cannot be null");
+            }
+
+            // Add the item to our list
+            items.add(item);
+            itemsById.put(item.getItemId(), item);
+            publicationDates.add(item);
+            publicationDatesByCategory.computeIfAbsent(item.getCategoryKey(), key -> new PublicationDateIndex())
+                    .add(item);
+            if (item instanceof Book) {
+                itemsByIsbn.computeIfAbsent(isbnKey(item), key -> new ArrayList<>(1)).add(item);
+            }
+            itemsByTitle.computeIfAbsent(item.getTitleKey(), key -> new ArrayList<>(1)).add(item);
+            invalidateSearches(item);
+        } finally {
+            ADD_METRICS.recordSince(start);
         }
 
-        // Add the item to our list
-        items.add(item);
+        // Printed after the timing, so the metrics measure the catalogue and not the console
         System.out.println("Added: " + item.getTitle() + " to the catalogue.");
     }
 
@@ -38,13 +120,43 @@ public class LibraryCatalogue {
      * Remove an item from the catalogue
      */
     public void removeItem(LibraryItem item) {
-        // Make sure the item isn't null
-        if (item == null) {
-            throw new IllegalArgumentException("Item cannot be null");
+        long start = System.nanoTime();
+        boolean removed;
+        try {
+            // Make sure the item isn't null
+            if (item == null) {
+                throw new IllegalArgumentException("Item cannot be null");
+            }
+
+            // Try to remove the item
+            removed = items.remove(item);
+            if (removed) {
+                itemsById.remove(item.getItemId());
+                publicationDates.remove(item);
+                String categoryKey = item.getCategoryKey();
+                PublicationDateIndex categoryDates = publicationDatesByCategory.get(categoryKey);
+                if (categoryDates != null && categoryDates.remove(item) && categoryDates.size() == 0) {
+                    publicationDatesByCategory.remove(categoryKey);
+                }
+                if (item instanceof Book) {
+                    List<LibraryItem> copies = itemsByIsbn.get(isbnKey(item));
+                    if (copies != null && copies.remove(item) && copies.isEmpty()) {
+                        itemsByIsbn.remove(isbnKey(item));
+                    }
+                }
+                String titleKey = item.getTitleKey();
+                List<LibraryItem> sameTitle = itemsByTitle.get(titleKey);
+                if (sameTitle != null && sameTitle.remove(item) && sameTitle.isEmpty()) {
+                    itemsByTitle.remove(titleKey);
+                }
+                invalidateSearches(item);
+            }
+        } finally {
+            REMOVE_METRICS.recordSince(start);
         }
 
-        // Try to remove the item and report the result
-        if (items.remove(item)) {
+        // Report the result (after the timing)
+        if (removed) {
             System.out.println("Removed: " + item.getTitle() + " from the catalogue.");
         } else {
             System.out.println("Item not found in catalogue.");
@@ -61,19 +173,34 @@ public class LibraryCatalogue {
             return;
         }
 
+        // Build the listing as text and print it in a few big pieces,
+        // instead of printing every line of every item on its own
+        StringBuilder text = new StringBuilder(PRINT_CHUNK_CHARS + 1024);
+
         // Print a header
-        System.out.println("\n----- LIBRARY CATALOGUE -----");
+        text.append("\n----- LIBRARY CATALOGUE -----\n");
+
+        // Loop through all items and add each one
+        try {
+            for (int i = 0; i < items.size(); i++) {
+                // Show item number (starting from 1, not 0)
+                text.append(i + 1).append(". ");
+                // Let each item write its own details
+                items.get(i).renderTo(text);
 
-        // Loop through all items and display each one
-        for (int i = 0; i < items.size(); i++) {
-            // Show item number (starting from 1, not 0)
-            System.out.print((i + 1) + ". ");
-            // Let each item display its own details
-            items.get(i).displayDetails();
+                if (text.length() >= PRINT_CHUNK_CHARS) {
+                    System.out.print(text);
+                    text.setLength(0);
+                }
+            }
+        } catch (IOException e) {
+            // Can't happen - a StringBuilder never throws
+            throw new UncheckedIOException(e);
         }
 
         // Print a footer
-        System.out.println("---------------------------\n");
+        text.append("---------------------------\n\n");
+        System.out.print(text);
     }
 
     /**
@@ -88,54 +215,478 @@ public class LibraryCatalogue {
         return null;
     }
 
+    /**
+     * Get an item by its item ID, or null if there is no such item.
+     * Safe to call from any thread, even while items are being added or removed.
+     */
+    public LibraryItem findItemById(int itemId) {
+        return itemsById.get(itemId);
+    }
+
     /**
      * Search for items by title (contains search)
      */
     public List<LibraryItem> searchByTitle(String title) {
-        // Make sure the search term isn't empty
-        if (title == null || title.trim().isEmpty()) {
-            throw new IllegalArgumentException("Search title cannot be empty");
+        long start = System.nanoTime();
+        LibraryEvents.SearchEvent event = new LibraryEvents.SearchEvent();
+        event.begin();
+        event.searchType = "title";
+        event.term = title;
+        event.termLength = event.term == null ? 0 : event.term.length();
+        try {
+            // Make sure the search term isn't empty
+            if (title == null || title.trim().isEmpty()) {
+                throw new IllegalArgumentException("Search title cannot be empty");
+            }
+
+            // Turn the search term into a search key, to compare with the items' keys
+            // (ignoring case, accents and extra spaces)
+            String searchTerm = SearchText.normalize(title);
+
+            // Popular searches are usually already in the cache
+            SearchKey key = new SearchKey(SearchKey.TITLE, searchTerm);
+            List<LibraryItem> cached = searchCache.get(key);
+            if (cached != null) {
+                event.cached = true;
+                event.resultCount = cached.size();
+                return new ArrayList<>(cached);
+            }
+
+            // Create a list to hold the results
+            List<LibraryItem> results = new ArrayList<>();
+            long startGeneration = generation;
+
+            // Check each item to see if its title contains the search term
+            for (LibraryItem item : items) {
+                if (SearchText.contains(item.getTitleKey(), searchTerm)) {
+                    results.add(item);
+                }
+            }
+
+            cacheResults(key, results, startGeneration);
+            event.resultCount = results.size();
+            return results;
+        } finally {
+            TITLE_SEARCH_METRICS.recordSince(start);
+            event.commit();
+        }
+    }
+
+    /**
+     * Find the best matches for a title search, best first, without building
+     * the full list of matches.
+     *
+     * Matches are ranked: the whole title (exact), the start of the title
+     * (prefix), the start of a word in the title, then anywhere in the title.
+     * Matches of the same kind are ordered by popularity (see setPopularity),
+     * then alphabetically.
+     *
+     * Only the best limit matches are kept (see TopK), so a broad search like
+     * "the" costs O(n log limit) rather than sorting every match. Exact and
+     * prefix matches come straight from the sorted title index; if those
+     * already fill the page, the weaker matches can't make it in and the scan
+     * of the other titles is skipped.
+     */
+    public RankedResults rankByTitle(String title, int limit) {
+        long start = System.nanoTime();
+        LibraryEvents.SearchEvent event = new LibraryEvents.SearchEvent();
+        event.begin();
+        event.searchType = "rankedTitle";
+        event.term = title;
+        event.termLength = event.term == null ? 0 : event.term.length();
+        try {
+            if (title == null || title.trim().isEmpty()) {
+                throw new IllegalArgumentException("Search title cannot be empty");
+            }
+            if (limit < 1) {
+                throw new IllegalArgumentException("Limit must be at least 1");
+            }
+            String searchTerm = SearchText.normalize(title);
+            TopK<RankedMatch> best = new TopK<>(limit, RANKING);
+            int matchCount = 0;
+
+            // 1. Titles that start with the search term, from the sorted title index
+            for (Map.Entry<String, List<LibraryItem>> entry : itemsByTitle.tailMap(searchTerm, true).entrySet()) {
+                String titleKey = entry.getKey();
+                if (!titleKey.startsWith(searchTerm)) {
+                    break;
+                }
+                int matchKind = titleKey.length() == searchTerm.length() ? EXACT_MATCH : PREFIX_MATCH;
+                if (matchKind == PREFIX_MATCH && best.isFull() && best.worst().matchKind == EXACT_MATCH) {
+                    // The page is already full of exact matches
+                    return rankedResults(best, matchCount, false, event);
+                }
+                for (LibraryItem item : entry.getValue()) {
+                    offerMatch(best, item, titleKey, matchKind);
+                    matchCount++;
+                }
+            }
+
+            // 2. The page is full of exact and prefix matches - nothing weaker can get in
+            if (best.isFull()) {
+                return rankedResults(best, matchCount, false, event);
+            }
+
+            // 3. Otherwise look for the term in the middle of the other titles
+            for (LibraryItem item : items) {
+                String titleKey = item.getTitleKey();
+                int position = titleKey.indexOf(searchTerm);
+                if (position <= 0) {
+                    // Not found, or a prefix match that was already counted
+                    continue;
+                }
+                matchCount++;
+                int matchKind = startsWord(titleKey, searchTerm, position) ? WORD_MATCH : SUBSTRING_MATCH;
+                offerMatch(best, item, titleKey, matchKind);
+            }
+            return rankedResults(best, matchCount, true, event);
+        } finally {
+            RANKED_SEARCH_METRICS.recordSince(start);
+            event.commit();
         }
+    }
 
-        // Create a list to hold the results
-        List<LibraryItem> results = new ArrayList<>();
+    /**
+     * Set how popular each item is (for example how often it is borrowed).
+     * Ranked searches put more popular items first among equally good matches.
+     */
+    public void setPopularity(ToIntFunction<LibraryItem> popularity) {
+        if (popularity == null) {
+            throw new IllegalArgumentException("Popularity cannot be null");
+        }
+        this.popularity = popularity;
+    }
 
-        // Convert the search term to lowercase for case-insensitive search
-        String searchTerm = title.toLowerCase().trim();
+    /**
+     * Offer one match to the top-k. A match that is a worse kind than the
+     * worst one kept is dropped before its popularity is even looked up.
+     */
+    private void offerMatch(TopK<RankedMatch> best, LibraryItem item, String titleKey, int matchKind) {
+        if (best.isFull() && matchKind < best.worst().matchKind) {
+            return;
+        }
+        best.offer(new RankedMatch(item, titleKey, matchKind, popularity.applyAsInt(item)));
+    }
 
-        // Check each item to see if its title contains the search term
-        for (LibraryItem item : items) {
-            if (item.getTitle().toLowerCase().contains(searchTerm)) {
-                results.add(item);
+    private static RankedResults rankedResults(TopK<RankedMatch> best, int matchCount, boolean matchCountExact,
+                                               LibraryEvents.SearchEvent event) {
+        List<LibraryItem> page = new ArrayList<>(best.size());
+        for (RankedMatch match : best.toSortedList()) {
+            page.add(match.item);
+        }
+        event.resultCount = matchCount;
+        return new RankedResults(page, matchCount, matchCountExact);
+    }
+
+    /**
+     * Check if the term appears at the start of a word somewhere in the title,
+     * looking from position (the first place it appears) onwards
+     */
+    private static boolean startsWord(String titleKey, String term, int position) {
+        while (position > 0) {
+            if (!Character.isLetterOrDigit(titleKey.charAt(position - 1))) {
+                return true;
             }
+            position = titleKey.indexOf(term, position + 1);
         }
+        return position == 0;
+    }
 
-        return results;
+    /**
+     * One match of a ranked search, with what it is ranked by
+     */
+    private static class RankedMatch {
+        final LibraryItem item;
+        final String titleKey;
+        final int matchKind;
+        final int popularity;
+
+        RankedMatch(LibraryItem item, String titleKey, int matchKind, int popularity) {
+            this.item = item;
+            this.titleKey = titleKey;
+            this.matchKind = matchKind;
+            this.popularity = popularity;
+        }
     }
 
     /**
      * Search for items by category
      */
     public List<LibraryItem> searchByCategory(String category) {
-        // Make sure the category isn't empty
-        if (category == null || category.trim().isEmpty()) {
-            throw new IllegalArgumentException("Search category cannot be empty");
+        long start = System.nanoTime();
+        LibraryEvents.SearchEvent event = new LibraryEvents.SearchEvent();
+        event.begin();
+        event.searchType = "category";
+        event.term = category;
+        event.termLength = event.term == null ? 0 : event.term.length();
+        try {
+            // Make sure the category isn't empty
+            if (category == null || category.trim().isEmpty()) {
+                throw new IllegalArgumentException("Search category cannot be empty");
+            }
+
+            // Turn the category into a search key (ignoring case, accents and extra spaces)
+            String searchTerm = SearchText.normalize(category);
+
+            SearchKey key = new SearchKey(SearchKey.CATEGORY, searchTerm);
+            List<LibraryItem> cached = searchCache.get(key);
+            if (cached != null) {
+                event.cached = true;
+                event.resultCount = cached.size();
+                return new ArrayList<>(cached);
+            }
+
+            // Create a list to hold the results
+            List<LibraryItem> results = new ArrayList<>();
+            long startGeneration = generation;
+
+            // Check each item to see if its category contains the search term
+            for (LibraryItem item : items) {
+                if (SearchText.contains(item.getCategoryKey(), searchTerm)) {
+                    results.add(item);
+                }
+            }
+
+            cacheResults(key, results, startGeneration);
+            event.resultCount = results.size();
+            return results;
+        } finally {
+            CATEGORY_SEARCH_METRICS.recordSince(start);
+            event.commit();
+        }
+    }
+
+    /**
+     * Search for items published between two dates (both included), oldest first
+     */
+    public List<LibraryItem> searchByPublicationDate(LocalDate from, LocalDate to) {
+        return searchByPublicationDate(from, to, null);
+    }
+
+    /**
+     * Search for items in a category (the whole name, ignoring case) published
+     * between two dates (both included), oldest first.
+     * Pass null as the category to search every category.
+     */
+    public List<LibraryItem> searchByPublicationDate(LocalDate from, LocalDate to, String category) {
+        long start = System.nanoTime();
+        LibraryEvents.SearchEvent event = new LibraryEvents.SearchEvent();
+        event.begin();
+        event.searchType = "publicationDate";
+        event.term = from + ".." + to + (category == null ? "" : " " + category);
+        event.termLength = event.term == null ? 0 : event.term.length();
+        try {
+            // Make sure the dates make sense
+            if (from == null || to == null) {
+                throw new IllegalArgumentException("Dates cannot be empty");
+            }
+            if (from.isAfter(to)) {
+                throw new IllegalArgumentException("The start date must not be after the end date");
+            }
+
+            // Use the category's own date index, so items of other categories are never looked at
+            PublicationDateIndex index = publicationDates;
+            if (category != null) {
+                index = publicationDatesByCategory.get(categoryKey(category));
+                if (index == null) {
+                    return new ArrayList<>();
+                }
+            }
+
+            List<LibraryItem> results = index.findBetween(from.toEpochDay(), to.toEpochDay());
+            event.resultCount = results.size();
+            return results;
+        } finally {
+            DATE_SEARCH_METRICS.recordSince(start);
+            event.commit();
+        }
+    }
+
+    /**
+     * Count the items published between two dates (both included), optionally
+     * only in one category, without building a list of them
+     */
+    public int countByPublicationDate(LocalDate from, LocalDate to, String category) {
+        PublicationDateIndex index = category == null ? publicationDates
+                : publicationDatesByCategory.get(categoryKey(category));
+        return index == null ? 0 : index.countBetween(from.toEpochDay(), to.toEpochDay());
+    }
+
+    /**
+     * Find the items that match every condition of a query.
+     *
+     * Instead of checking every item, the query planner (see explain) starts
+     * from whichever index gives the fewest candidates - ISBN, category,
+     * category and date together, or date - and only checks the remaining
+     * conditions on those candidates. Results come in the order of that index.
+     */
+    public List<LibraryItem> search(CatalogueQuery query) {
+        long start = System.nanoTime();
+        LibraryEvents.SearchEvent event = new LibraryEvents.SearchEvent();
+        event.begin();
+        event.searchType = "query";
+        try {
+            if (query == null) {
+                throw new IllegalArgumentException("Query cannot be null");
+            }
+            event.term = query.toString();
+            event.termLength = event.term == null ? 0 : event.term.length();
+
+            List<LibraryItem> results = new ArrayList<>();
+            plan(query).forEachCandidate(item -> {
+                if (query.matches(item)) {
+                    results.add(item);
+                }
+            });
+            event.resultCount = results.size();
+            return results;
+        } finally {
+            QUERY_METRICS.recordSince(start);
+            event.commit();
+        }
+    }
+
+    /**
+     * Describe how search() would answer a query, without running it
+     */
+    public QueryPlan explain(CatalogueQuery query) {
+        if (query == null) {
+            throw new IllegalArgumentException("Query cannot be null");
+        }
+        return plan(query);
+    }
+
+    /**
+     * Work out every index that could answer the query, with how many
+     * candidates each would give, and pick the one with the fewest
+     */
+    private QueryPlan plan(CatalogueQuery query) {
+        List<QueryPlan> options = new ArrayList<>();
+        long fromDay = query.getFromDay();
+        long toDay = query.getToDay();
+
+        if (query.getIsbn() != null) {
+            List<LibraryItem> copies = itemsByIsbn.getOrDefault(query.getIsbn(), Collections.emptyList());
+            options.add(newPlan(query, "ISBN index", copies.size(), copies::forEach, CatalogueQuery.ISBN));
+        }
+
+        if (query.getCategory() != null) {
+            PublicationDateIndex categoryDates = publicationDatesByCategory.get(query.getCategory());
+            if (categoryDates == null) {
+                // Nothing is in this category, so nothing can match
+                options.add(newPlan(query, "category index", 0, action -> { }, CatalogueQuery.CATEGORY));
+            } else if (query.hasDateRange()) {
+                options.add(newPlan(query, "category and publication date index",
+                        categoryDates.countBetween(fromDay, toDay),
+                        action -> categoryDates.forEachBetween(fromDay, toDay, action),
+                        CatalogueQuery.CATEGORY, CatalogueQuery.PUBLICATION_DATE));
+            } else {
+                options.add(newPlan(query, "category index", categoryDates.size(),
+                        action -> categoryDates.forEachBetween(Integer.MIN_VALUE, Integer.MAX_VALUE, action),
+                        CatalogueQuery.CATEGORY));
+            }
         }
 
-        // Create a list to hold the results
-        List<LibraryItem> results = new ArrayList<>();
+        if (query.hasDateRange()) {
+            options.add(newPlan(query, "publication date index", publicationDates.countBetween(fromDay, toDay),
+                    action -> publicationDates.forEachBetween(fromDay, toDay, action),
+                    CatalogueQuery.PUBLICATION_DATE));
+        }
 
-        // Convert the category to lowercase for case-insensitive search
-        String searchTerm = category.toLowerCase().trim();
+        // Scanning everything always works; it is only picked if no index does better
+        options.add(newPlan(query, "full scan", items.size(), items::forEach));
 
-        // Check each item to see if its category contains the search term
-        for (LibraryItem item : items) {
-            if (item.getCategory().toLowerCase().contains(searchTerm)) {
-                results.add(item);
+        QueryPlan best = options.get(0);
+        for (QueryPlan option : options) {
+            if (option.getEstimatedCandidates() < best.getEstimatedCandidates()) {
+                best = option;
             }
         }
+        return best;
+    }
+
+    private static QueryPlan newPlan(CatalogueQuery query, String indexName, int estimatedCandidates,
+                                     QueryPlan.CandidateSource candidates, String... covered) {
+        List<String> coveredConditions = Arrays.asList(covered);
+        List<String> remainingConditions = new ArrayList<>(query.getConditionNames());
+        remainingConditions.removeAll(coveredConditions);
+        return new QueryPlan(indexName, estimatedCandidates, coveredConditions, remainingConditions, candidates);
+    }
 
-        return results;
+    /**
+     * The form of a category used as a key in the per-category indexes
+     */
+    private static String categoryKey(String category) {
+        return CatalogueQuery.normalizeText(category);
+    }
+
+    /**
+     * The form of a book's ISBN used as a key in the ISBN index
+     */
+    private static String isbnKey(LibraryItem book) {
+        return CatalogueQuery.normalizeIsbn(((Book) book).getISBN());
+    }
+
+    /**
+     * Get the hit/miss/eviction statistics of the search cache
+     */
+    public QueryCache.Stats getSearchCacheStats() {
+        return searchCache.getStats();
+    }
+
+    /**
+     * Store a copy of some search results, unless the catalogue changed during the search
+     */
+    private void cacheResults(SearchKey key, List<LibraryItem> results, long startGeneration) {
+        if (generation == startGeneration) {
+            searchCache.put(key, new ArrayList<>(results));
+        }
+    }
+
+    /**
+     * Drop only the cached searches whose results would include this item
+     */
+    private void invalidateSearches(LibraryItem item) {
+        generation++;
+        String titleKey = item.getTitleKey();
+        String categoryKey = item.getCategoryKey();
+        searchCache.invalidateIf(key -> key.matches(titleKey, categoryKey));
+    }
+
+    /**
+     * The key for a cached search: which field was searched and the search key of the term
+     */
+    private static class SearchKey {
+        static final int TITLE = 0;
+        static final int CATEGORY = 1;
+
+        private final int field;
+        private final String term;
+
+        SearchKey(int field, String term) {
+            this.field = field;
+            this.term = term;
+        }
+
+        /**
+         * Would this search have matched an item with these title and category search keys?
+         */
+        boolean matches(String titleKey, String categoryKey) {
+            return field == TITLE ? titleKey.contains(term) : categoryKey.contains(term);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) return true;
+            if (!(obj instanceof SearchKey)) return false;
+            SearchKey other = (SearchKey) obj;
+            return field == other.field && term.equals(other.term);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * term.hashCode() + field;
+        }
     }
 
     /**
@@ -0,0 +1,66 @@
+package services;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Where the services get the current time from.
+ *
+ * Loans are stored as plain numbers: milliseconds since 1970 for times, and
+ * days since 1970 ("epoch days") for due dates. A day is a calendar day in
+ * the library's own time zone (the computer's, like the publication dates
+ * of LibraryItem), so a loan taken late in the evening is due on the date
+ * LocalDate.ofEpochDay shows for it. Using a clock object
+ * instead of calling new Date() means tests can use a ManualClock and move
+ * time forward to check overdue fees without waiting.
+ */
+public interface LibraryClock {
+    long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+    /**
+     * The shared system clock
+     */
+    LibraryClock SYSTEM = new MonotonicSystemClock();
+
+    /**
+     * Get the current time in milliseconds since 1970
+     */
+    long currentTimeMillis();
+
+    /**
+     * Get the time zone the library's calendar days are counted in
+     */
+    default ZoneId getZone() {
+        return ZoneId.systemDefault();
+    }
+
+    /**
+     * Get the library's date at a time (milliseconds since 1970), as a number of days since 1970
+     */
+    default long dayOf(long timeMillis) {
+        int offsetSeconds = getZone().getRules().getOffset(Instant.ofEpochMilli(timeMillis)).getTotalSeconds();
+        return Math.floorDiv(timeMillis + offsetSeconds * 1000L, MILLIS_PER_DAY);
+    }
+
+    /**
+     * Get today's date as a number of days since 1970
+     */
+    default long today() {
+        return dayOf(currentTimeMillis());
+    }
+
+    /**
+     * The system clock, but it never goes backwards (for example when the
+     * computer's clock is corrected), so a loan can't end before it started.
+     */
+    class MonotonicSystemClock implements LibraryClock {
+        private final AtomicLong lastTime = new AtomicLong();
+
+        @Override
+        public long currentTimeMillis() {
+            long now = System.currentTimeMillis();
+            return lastTime.accumulateAndGet(now, Math::max);
+        }
+    }
+}
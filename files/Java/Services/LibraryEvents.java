@@ -0,0 +1,103 @@
+package services;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Custom Java Flight Recorder events for library operations.
+ *
+ * The services begin an event when an operation starts and commit it when
+ * it finishes, so a recording shows how long each borrow, return, search
+ * and member lookup took next to the JVM's own GC and lock events.
+ * When no recording is running the events cost next to nothing.
+ *
+ * Record with: java -XX:StartFlightRecording=filename=library.jfr ...
+ */
+public class LibraryEvents {
+
+    private LibraryEvents() {
+        // Only holds the event classes
+    }
+
+    @Name("library.Borrow")
+    @Label("Borrow Item")
+    @Category({"Library", "Circulation"})
+    @Description("A member borrowing a library item")
+    @StackTrace(false)
+    public static class BorrowEvent extends Event {
+        @Label("Member ID")
+        public int memberId;
+
+        @Label("Item ID")
+        public int itemId;
+
+        @Label("Borrowed")
+        @Description("False if the item was not available")
+        public boolean borrowed;
+    }
+
+    @Name("library.Return")
+    @Label("Return Item")
+    @Category({"Library", "Circulation"})
+    @Description("A member returning a library item")
+    @StackTrace(false)
+    public static class ReturnEvent extends Event {
+        @Label("Member ID")
+        public int memberId;
+
+        @Label("Item ID")
+        public int itemId;
+
+        @Label("Returned")
+        @Description("False if the member did not have the item")
+        public boolean returned;
+
+        @Label("Days Late")
+        public long daysLate;
+
+        @Label("Late Fee")
+        public double fee;
+    }
+
+    @Name("library.Search")
+    @Label("Search")
+    @Category({"Library", "Search"})
+    @Description("A catalogue or member search")
+    @StackTrace(false)
+    public static class SearchEvent extends Event {
+        @Label("Search Type")
+        @Description("title, category or memberName")
+        public String searchType;
+
+        @Label("Search Term")
+        @Description("What was searched for (left out of member name searches, which are personal data)")
+        public String term;
+
+        @Label("Search Term Length")
+        public int termLength;
+
+        @Label("Result Count")
+        public int resultCount;
+
+        @Label("Cached")
+        @Description("True if the results came from the search cache")
+        public boolean cached;
+    }
+
+    @Name("library.MemberLookup")
+    @Label("Member Lookup")
+    @Category({"Library", "Members"})
+    @Description("Finding a member by ID")
+    @StackTrace(false)
+    public static class MemberLookupEvent extends Event {
+        @Label("Member ID")
+        public int memberId;
+
+        @Label("Found")
+        public boolean found;
+    }
+}
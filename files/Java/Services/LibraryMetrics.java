@@ -0,0 +1,225 @@
+package services;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps call counts and latency histograms for every service operation.
+ *
+ * Each service asks for its operations once (in a static field) and then
+ * records a timing on every call, for example:
+ *
+ *     long start = System.nanoTime();
+ *     try { ... } finally { BORROW.recordSince(start); }
+ *
+ * Snapshots can be read at any time, and can also be appended to a file
+ * on a schedule so tail-latency changes show up over time.
+ */
+public class LibraryMetrics {
+    // All operations we know about, by name (e.g. "borrowing.borrowItem")
+    private static final Map<String, Operation> OPERATIONS = new ConcurrentHashMap<>();
+
+    // Background task that writes snapshots to a file (null when not running)
+    private static ScheduledExecutorService dumpExecutor;
+    private static ScheduledFuture<?> dumpTask;
+
+    private LibraryMetrics() {
+        // Only static methods
+    }
+
+    /**
+     * Get (or create) the metrics for an operation
+     */
+    public static Operation operation(String name) {
+        return OPERATIONS.computeIfAbsent(name, Operation::new);
+    }
+
+    /**
+     * Take a snapshot of every operation, sorted by name
+     */
+    public static List<OperationSnapshot> snapshot() {
+        List<OperationSnapshot> snapshots = new ArrayList<>();
+        for (Operation operation : new TreeMap<>(OPERATIONS).values()) {
+            snapshots.add(operation.snapshot());
+        }
+        return snapshots;
+    }
+
+    /**
+     * Format a snapshot of every operation as a table
+     */
+    public static String formatSnapshot() {
+        StringBuilder text = new StringBuilder();
+        text.append(String.format("%-36s %10s %10s %10s %10s %10s %10s%n",
+                "operation", "count", "mean(us)", "p50(us)", "p99(us)", "p99.9(us)", "max(us)"));
+        for (OperationSnapshot s : snapshot()) {
+            text.append(String.format("%-36s %10d %10.1f %10.1f %10.1f %10.1f %10.1f%n",
+                    s.getName(), s.getCount(), s.getMeanNanos() / 1000.0, s.getP50Nanos() / 1000.0,
+                    s.getP99Nanos() / 1000.0, s.getP999Nanos() / 1000.0, s.getMaxNanos() / 1000.0));
+        }
+        return text.toString();
+    }
+
+    /**
+     * Clear every counter and histogram
+     */
+    public static void reset() {
+        for (Operation operation : OPERATIONS.values()) {
+            operation.reset();
+        }
+    }
+
+    /**
+     * Append a snapshot to the given file every periodSeconds, on a background thread.
+     * Calling this again replaces the previous schedule.
+     */
+    public static synchronized void startPeriodicDump(String fileName, long periodSeconds) {
+        if (periodSeconds <= 0) {
+            throw new IllegalArgumentException("Dump period must be positive");
+        }
+        stopPeriodicDump();
+
+        dumpExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "library-metrics-dump");
+            thread.setDaemon(true);  // Don't keep the program alive just for metrics
+            return thread;
+        });
+        dumpTask = dumpExecutor.scheduleAtFixedRate(() -> dumpTo(fileName),
+                periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stop the periodic dump, if it is running
+     */
+    public static synchronized void stopPeriodicDump() {
+        if (dumpTask != null) {
+            dumpTask.cancel(false);
+            dumpExecutor.shutdown();
+            dumpTask = null;
+            dumpExecutor = null;
+        }
+    }
+
+    /**
+     * Append one snapshot to a file
+     */
+    public static void dumpTo(String fileName) {
+        try (PrintWriter out = new PrintWriter(new FileWriter(fileName, true))) {
+            out.println("===== " + new Date() + " =====");
+            out.print(formatSnapshot());
+            out.println();
+        } catch (IOException e) {
+            System.out.println("Error: could not write metrics to " + fileName + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * The counter and latency histogram for one operation
+     */
+    public static class Operation {
+        private final String name;
+        private final LongAdder calls = new LongAdder();
+        private final LatencyHistogram latency = new LatencyHistogram();
+
+        Operation(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Record one call that started at the given System.nanoTime() value
+         */
+        public void recordSince(long startNanos) {
+            record(System.nanoTime() - startNanos);
+        }
+
+        /**
+         * Record one call that took the given number of nanoseconds
+         */
+        public void record(long nanos) {
+            calls.increment();
+            latency.record(nanos);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getCalls() {
+            return calls.sum();
+        }
+
+        OperationSnapshot snapshot() {
+            return new OperationSnapshot(name, calls.sum(), latency.getMean(), latency.getPercentile(50),
+                    latency.getPercentile(99), latency.getPercentile(99.9), latency.getMax());
+        }
+
+        void reset() {
+            calls.reset();
+            latency.reset();
+        }
+    }
+
+    /**
+     * The numbers for one operation at one point in time (all latencies in nanoseconds)
+     */
+    public static class OperationSnapshot {
+        private final String name;
+        private final long count;
+        private final double meanNanos;
+        private final long p50Nanos;
+        private final long p99Nanos;
+        private final long p999Nanos;
+        private final long maxNanos;
+
+        OperationSnapshot(String name, long count, double meanNanos, long p50Nanos,
+                          long p99Nanos, long p999Nanos, long maxNanos) {
+            this.name = name;
+            this.count = count;
+            this.meanNanos = meanNanos;
+            this.p50Nanos = p50Nanos;
+            this.p99Nanos = p99Nanos;
+            this.p999Nanos = p999Nanos;
+            this.maxNanos = maxNanos;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getMeanNanos() {
+            return meanNanos;
+        }
+
+        public long getP50Nanos() {
+            return p50Nanos;
+        }
+
+        public long getP99Nanos() {
+            return p99Nanos;
+        }
+
+        public long getP999Nanos() {
+            return p999Nanos;
+        }
+
+        public long getMaxNanos() {
+            return maxNanos;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package services;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The figures management asks for, per category and in total:
+ * how many items there are, how many are available, on loan and overdue,
+ * and how much is owed in late fees. Made by ReportingEngine.
+ */
+public class LibraryReport {
+    private final List<CategoryTotals> categories;
+    private final CategoryTotals totals;
+    private final long day;
+    private final long elapsedMillis;
+
+    LibraryReport(List<CategoryTotals> categories, long day, long elapsedMillis) {
+        this.categories = Collections.unmodifiableList(categories);
+        this.totals = new CategoryTotals("Total");
+        for (CategoryTotals category : categories) {
+            totals.add(category);
+        }
+        this.day = day;
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    /**
+     * Get the figures for each category, in alphabetical order
+     */
+    public List<CategoryTotals> getCategories() {
+        return categories;
+    }
+
+    /**
+     * Get the figures for the whole library
+     */
+    public CategoryTotals getTotals() {
+        return totals;
+    }
+
+    /**
+     * Get the day the overdue loans and fees were worked out for (days since 1970)
+     */
+    public long getDay() {
+        return day;
+    }
+
+    /**
+     * Get how long the report took to make
+     */
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    /**
+     * Lay the report out as a table
+     */
+    public String format() {
+        StringBuilder text = new StringBuilder();
+        String row = "%-20s %10s %10s %10s %10s %10s %12s%n";
+        text.append(String.format(row, "Category", "Items", "Available", "On loan", "Overdue", "Available%", "Fees owed"));
+        List<CategoryTotals> rows = new ArrayList<>(categories);
+        rows.add(totals);
+        for (CategoryTotals category : rows) {
+            text.append(String.format(row, category.getCategory(), category.getItemCount(),
+                    category.getAvailableCount(), category.getOnLoanCount(), category.getOverdueCount(),
+                    String.format("%.1f%%", category.getAvailabilityRatio() * 100),
+                    String.format("£%.2f", category.getFeesOwed())));
+        }
+        return text.toString();
+    }
+
+    /**
+     * The figures for one category. While a report is being made, each
+     * worker thread adds up its own CategoryTotals, and they are combined
+     * with add() at the end.
+     */
+    public static class CategoryTotals {
+        private final String category;
+        long itemCount;
+        long availableCount;
+        long onLoanCount;
+        long overdueCount;
+        // In pence, so adding up millions of fees stays exact
+        long feesOwedPence;
+
+        CategoryTotals(String category) {
+            this.category = category;
+        }
+
+        /**
+         * Add another set of figures to these
+         */
+        void add(CategoryTotals other) {
+            itemCount += other.itemCount;
+            availableCount += other.availableCount;
+            onLoanCount += other.onLoanCount;
+            overdueCount += other.overdueCount;
+            feesOwedPence += other.feesOwedPence;
+        }
+
+        public String getCategory() {
+            return category;
+        }
+
+        public long getItemCount() {
+            return itemCount;
+        }
+
+        public long getAvailableCount() {
+            return availableCount;
+        }
+
+        /**
+         * Get the number of loans of items in this category
+         */
+        public long getOnLoanCount() {
+            return onLoanCount;
+        }
+
+        public long getOverdueCount() {
+            return overdueCount;
+        }
+
+        /**
+         * Get the share of the items that are available, from 0 to 1
+         */
+        public double getAvailabilityRatio() {
+            return itemCount == 0 ? 0 : (double) availableCount / itemCount;
+        }
+
+        /**
+         * Get the late fees owed so far on overdue loans, in pounds
+         */
+        public double getFeesOwed() {
+            return feesOwedPence / 100.0;
+        }
+    }
+}
@@ -0,0 +1,791 @@
+package services;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Keeps every finished loan on disk for years, for audits and reports,
+ * without keeping any of it in the live loan table.
+ *
+ * Loans are stored by the month they were returned in: one folder per
+ * month (like "2026-10"), holding "segment" files of up to SEGMENT_ROWS
+ * loans each. A segment is written once and never changed, and stores the
+ * loans column by column - all return days, then all member IDs, then all
+ * item IDs, and so on. Each column is stored as the differences between
+ * neighbouring values (which are small numbers, packed into as few bytes
+ * as possible) and then compressed, so a loan takes a few bytes on disk.
+ *
+ * The start of each segment says which days and member IDs it covers,
+ * including a small Bloom filter of its members (a bit pattern that can
+ * say "this member is definitely not here"). These headers are kept in
+ * memory, so a search skips every segment that can't hold a match without
+ * opening it. Inside a segment only the column being searched (return day
+ * or member) is read and unpacked first, and the other columns only if
+ * some loan matched.
+ *
+ * New loans first go to a small "pending" file and are packed into
+ * segments once SEGMENT_ROWS have built up, or when flush() or close() is
+ * called. A loan is in the file (and so survives the program crashing) as
+ * soon as append() returns. Making sure it is really on the disk (so it
+ * also survives the computer going down) takes a slow "force", so by
+ * default that is done for many loans at once: a background thread forces
+ * the file every syncMillis milliseconds if anything was added, and the
+ * loans of the last few milliseconds can be lost if the power goes. Give
+ * SYNC_EVERY_APPEND instead to force the file inside every append(), which
+ * loses nothing but makes every return wait for the disk, one at a time.
+ * Segments and the rewritten pending file are written to a temporary file
+ * and renamed into place, so a crash never leaves half of either.
+ *
+ * All methods are thread-safe. Searches read the segment files without
+ * holding the lock, so they don't hold up returns.
+ */
+public class LoanArchive implements Closeable {
+    // The most loans in one segment file
+    public static final int SEGMENT_ROWS = 64 * 1024;
+
+    private static final int MAGIC = 0x4C4F414E; // "LOAN"
+    private static final int VERSION = 1;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String PENDING_FILE = "pending.log";
+
+    // The columns of a segment, in the order they are stored
+    private static final int RETURN_DAY = 0;
+    private static final int MEMBER_ID = 1;
+    private static final int ITEM_ID = 2;
+    private static final int BORROW_TIME = 3;
+    private static final int DUE_DAY = 4;
+    private static final int FEE = 5;
+    private static final int COLUMN_COUNT = 6;
+
+    // How often the pending file is forced to disk by default, in milliseconds
+    public static final long DEFAULT_SYNC_MILLIS = 50;
+
+    // Force the pending file inside every append() instead of in the background
+    public static final long SYNC_EVERY_APPEND = 0;
+
+    // Bytes per loan in the pending file: member, item, borrow time, due day, return day, fee
+    private static final int PENDING_RECORD_BYTES = 4 + 4 + 8 + 8 + 8 + 8;
+
+    private final Path directory;
+
+    // What every segment covers, read from the segment headers, oldest month first
+    private final List<SegmentInfo> segments = new ArrayList<>();
+
+    // Loans not yet packed into a segment (also in the pending file).
+    // The file is replaced (not changed in place) whenever it is rewritten, so it is reopened then.
+    private final List<ArchivedLoan> pending = new ArrayList<>();
+    private volatile FileChannel pendingFile;
+
+    // Whether loans have been added to the pending file since it was last forced to disk
+    private boolean unsynced;
+
+    // Forces the pending file every syncMillis (null with SYNC_EVERY_APPEND)
+    private final long syncMillis;
+    private final ScheduledExecutorService syncer;
+
+    // Goes up by one every time the pending loans are packed into segments.
+    // The segments are named after it, and the pending file starts with it, so
+    // after a crash in the middle of packing the same loans aren't loaded twice.
+    private long generation;
+
+    private static final LibraryMetrics.Operation APPEND_METRICS = LibraryMetrics.operation("archive.append");
+    private static final LibraryMetrics.Operation SCAN_METRICS = LibraryMetrics.operation("archive.scan");
+
+    /**
+     * Open the archive in a folder, creating it if needed. New loans are
+     * forced to disk every DEFAULT_SYNC_MILLIS.
+     */
+    public LoanArchive(Path directory) throws IOException {
+        this(directory, DEFAULT_SYNC_MILLIS);
+    }
+
+    /**
+     * Open the archive in a folder, creating it if needed, forcing new loans
+     * to disk every syncMillis (or in every append() with SYNC_EVERY_APPEND)
+     */
+    public LoanArchive(Path directory, long syncMillis) throws IOException {
+        if (directory == null) {
+            throw new IllegalArgumentException("Directory cannot be null");
+        }
+        if (syncMillis < 0) {
+            throw new IllegalArgumentException("Sync period cannot be negative");
+        }
+        this.directory = directory;
+        this.syncMillis = syncMillis;
+        Files.createDirectories(directory);
+
+        try (DirectoryStream<Path> months = Files.newDirectoryStream(directory, Files::isDirectory)) {
+            for (Path month : months) {
+                try (DirectoryStream<Path> files = Files.newDirectoryStream(month, "*" + SEGMENT_SUFFIX)) {
+                    for (Path file : files) {
+                        SegmentInfo segment = SegmentInfo.read(file);
+                        segments.add(segment);
+                        generation = Math.max(generation, segment.generation + 1);
+                    }
+                }
+            }
+        }
+        segments.sort(Comparator.comparingLong((SegmentInfo segment) -> segment.minDay)
+                .thenComparingLong(segment -> segment.generation));
+
+        pendingFile = openPending();
+        loadPending();
+
+        if (syncMillis == SYNC_EVERY_APPEND) {
+            syncer = null;
+        } else {
+            syncer = Executors.newSingleThreadScheduledExecutor(task -> {
+                Thread thread = new Thread(task, "loan-archive-sync");
+                thread.setDaemon(true);
+                return thread;
+            });
+            syncer.scheduleWithFixedDelay(this::syncInBackground, syncMillis, syncMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Add a finished loan to the archive
+     */
+    public synchronized void append(ArchivedLoan loan) throws IOException {
+        long start = System.nanoTime();
+        try {
+            if (loan == null) {
+                throw new IllegalArgumentException("Loan cannot be null");
+            }
+            ByteBuffer record = ByteBuffer.allocate(PENDING_RECORD_BYTES);
+            record.putInt(loan.getMemberId()).putInt(loan.getItemId()).putLong(loan.getBorrowTime())
+                    .putLong(loan.getDueDay()).putLong(loan.getReturnDay()).putLong(loan.getFeePence()).flip();
+            while (record.hasRemaining()) {
+                pendingFile.write(record, pendingFile.size());
+            }
+            if (syncMillis == SYNC_EVERY_APPEND) {
+                // Make sure the loan is really on the disk before the return carries on
+                pendingFile.force(false);
+            } else {
+                unsynced = true;
+            }
+            pending.add(loan);
+
+            if (pending.size() >= SEGMENT_ROWS) {
+                writeSegments();
+            }
+        } finally {
+            APPEND_METRICS.recordSince(start);
+        }
+    }
+
+    /**
+     * Force the loans added since the last sync to disk. The force itself is
+     * done without holding the lock, so appends carry on meanwhile.
+     */
+    public void sync() throws IOException {
+        FileChannel file;
+        synchronized (this) {
+            if (!unsynced) {
+                return;
+            }
+            unsynced = false;
+            file = pendingFile;
+        }
+        try {
+            file.force(false);
+        } catch (ClosedChannelException e) {
+            // The pending file was replaced (the new one is forced before it takes over) or closed
+        } catch (IOException e) {
+            synchronized (this) {
+                unsynced = true;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Run sync() on the background thread, reporting (not throwing) problems
+     * so the next sync still runs
+     */
+    private void syncInBackground() {
+        try {
+            sync();
+        } catch (IOException e) {
+            System.out.println("Error: Could not write the loan archive to disk: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Pack all pending loans into segments now
+     */
+    public synchronized void flush() throws IOException {
+        if (!pending.isEmpty()) {
+            writeSegments();
+        }
+    }
+
+    /**
+     * Pack the pending loans and close the archive
+     */
+    @Override
+    public void close() throws IOException {
+        if (syncer != null) {
+            // Not shutdownNow(): interrupting a thread in the middle of force() closes the file
+            syncer.shutdown();
+            try {
+                syncer.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            if (pendingFile.isOpen()) {
+                flush();
+                pendingFile.close();
+            }
+        }
+    }
+
+    /**
+     * Pass every loan returned from "from" to "to" (both included) to action
+     */
+    public void scan(LocalDate from, LocalDate to, Consumer<ArchivedLoan> action) throws IOException {
+        scan(0, from.toEpochDay(), to.toEpochDay(), action);
+    }
+
+    /**
+     * Find the loans returned from "from" to "to" (both included)
+     */
+    public List<ArchivedLoan> findBetween(LocalDate from, LocalDate to) throws IOException {
+        List<ArchivedLoan> results = new ArrayList<>();
+        scan(from, to, results::add);
+        return results;
+    }
+
+    /**
+     * Find all the loans a member has ever returned
+     */
+    public List<ArchivedLoan> findByMember(int memberId) throws IOException {
+        return findByMember(memberId, LocalDate.MIN, LocalDate.MAX);
+    }
+
+    /**
+     * Find the loans a member returned from "from" to "to" (both included)
+     */
+    public List<ArchivedLoan> findByMember(int memberId, LocalDate from, LocalDate to) throws IOException {
+        if (memberId <= 0) {
+            throw new IllegalArgumentException("Membership ID must be positive");
+        }
+        List<ArchivedLoan> results = new ArrayList<>();
+        scan(memberId, from.toEpochDay(), to.toEpochDay(), results::add);
+        return results;
+    }
+
+    /**
+     * Get the number of segment files in the archive
+     */
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Get the number of loans in the archive
+     */
+    public synchronized long size() {
+        long size = pending.size();
+        for (SegmentInfo segment : segments) {
+            size += segment.rowCount;
+        }
+        return size;
+    }
+
+    /**
+     * Pass each loan for a member (or any member, if memberId is 0) returned
+     * between two days to action, oldest segment first
+     */
+    private void scan(int memberId, long fromDay, long toDay, Consumer<ArchivedLoan> action) throws IOException {
+        long start = System.nanoTime();
+        try {
+            // Take a copy of what to read, then read the (unchanging) segment files without the lock
+            List<SegmentInfo> toRead = new ArrayList<>();
+            List<ArchivedLoan> pendingCopy;
+            synchronized (this) {
+                for (SegmentInfo segment : segments) {
+                    if (segment.mightContain(memberId, fromDay, toDay)) {
+                        toRead.add(segment);
+                    }
+                }
+                pendingCopy = new ArrayList<>(pending);
+            }
+
+            for (SegmentInfo segment : toRead) {
+                scanSegment(segment, memberId, fromDay, toDay, action);
+            }
+            for (ArchivedLoan loan : pendingCopy) {
+                if ((memberId == 0 || loan.getMemberId() == memberId)
+                        && loan.getReturnDay() >= fromDay && loan.getReturnDay() <= toDay) {
+                    action.accept(loan);
+                }
+            }
+        } finally {
+            SCAN_METRICS.recordSince(start);
+        }
+    }
+
+    private static void scanSegment(SegmentInfo segment, int memberId, long fromDay, long toDay,
+                                    Consumer<ArchivedLoan> action) throws IOException {
+        try (FileChannel file = FileChannel.open(segment.file, StandardOpenOption.READ)) {
+            // Unpack the column we search on first, and stop if nothing matches
+            long[] memberIds = memberId == 0 ? null : readColumn(file, segment, MEMBER_ID);
+            if (memberIds != null && !contains(memberIds, memberId)) {
+                return;
+            }
+            long[] returnDays = readColumn(file, segment, RETURN_DAY);
+            boolean[] matches = new boolean[segment.rowCount];
+            boolean anyMatch = false;
+            for (int row = 0; row < segment.rowCount; row++) {
+                matches[row] = returnDays[row] >= fromDay && returnDays[row] <= toDay
+                        && (memberIds == null || memberIds[row] == memberId);
+                anyMatch |= matches[row];
+            }
+            if (!anyMatch) {
+                return;
+            }
+
+            if (memberIds == null) {
+                memberIds = readColumn(file, segment, MEMBER_ID);
+            }
+            long[] itemIds = readColumn(file, segment, ITEM_ID);
+            long[] borrowTimes = readColumn(file, segment, BORROW_TIME);
+            long[] dueDays = readColumn(file, segment, DUE_DAY);
+            long[] fees = readColumn(file, segment, FEE);
+            for (int row = 0; row < segment.rowCount; row++) {
+                if (matches[row]) {
+                    action.accept(new ArchivedLoan((int) memberIds[row], (int) itemIds[row], borrowTimes[row],
+                            dueDays[row], returnDays[row], fees[row]));
+                }
+            }
+        }
+    }
+
+    private static boolean contains(long[] values, long value) {
+        for (long v : values) {
+            if (v == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Pack the pending loans into one new segment per month, then empty the pending file
+     */
+    private void writeSegments() throws IOException {
+        // Group the loans by the month they were returned in (keeping their order)
+        TreeMap<String, List<ArchivedLoan>> byMonth = new TreeMap<>();
+        for (ArchivedLoan loan : pending) {
+            byMonth.computeIfAbsent(monthOf(loan), key -> new ArrayList<>()).add(loan);
+        }
+
+        for (String month : byMonth.keySet()) {
+            Path file = segmentFile(month, generation);
+            Files.createDirectories(file.getParent());
+
+            // Write to a temporary file and then rename it, so a segment is either complete or missing
+            Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+            writeAndForce(temporary, ByteBuffer.wrap(encodeSegment(byMonth.get(month))));
+            Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE);
+            segments.add(SegmentInfo.read(file));
+        }
+        segments.sort(Comparator.comparingLong((SegmentInfo segment) -> segment.minDay)
+                .thenComparingLong(segment -> segment.generation));
+
+        generation++;
+        pending.clear();
+        rewritePending();
+    }
+
+    /**
+     * Read back the pending loans after a restart
+     */
+    private void loadPending() throws IOException {
+        long size = pendingFile.size();
+        ByteBuffer contents = ByteBuffer.allocate((int) size);
+        while (contents.hasRemaining() && pendingFile.read(contents, contents.position()) > 0) {
+            // keep reading
+        }
+        contents.flip();
+        long pendingGeneration = contents.remaining() >= Long.BYTES ? contents.getLong() : generation;
+
+        // A half-written last loan is ignored
+        while (contents.remaining() >= PENDING_RECORD_BYTES) {
+            ArchivedLoan loan = new ArchivedLoan(contents.getInt(), contents.getInt(), contents.getLong(),
+                    contents.getLong(), contents.getLong(), contents.getLong());
+            // If the program stopped while packing these loans, skip the ones whose segment was written
+            if (pendingGeneration == generation || !Files.exists(segmentFile(monthOf(loan), pendingGeneration))) {
+                pending.add(loan);
+            }
+        }
+
+        // Only rewrite the file if it needs it: it's new, it is from an older generation,
+        // or it ends with a half-written loan (new loans have to go after the last whole one)
+        boolean upToDate = size >= Long.BYTES && pendingGeneration == generation
+                && (size - Long.BYTES) % PENDING_RECORD_BYTES == 0;
+        if (!upToDate) {
+            rewritePending();
+        }
+    }
+
+    /**
+     * Replace the pending file with the current generation and pending loans.
+     * The new file is written beside the old one and then renamed over it, so
+     * after a crash there is always either the whole old file or the whole new one.
+     */
+    private void rewritePending() throws IOException {
+        ByteBuffer contents = ByteBuffer.allocate(Long.BYTES + pending.size() * PENDING_RECORD_BYTES);
+        contents.putLong(generation);
+        for (ArchivedLoan loan : pending) {
+            contents.putInt(loan.getMemberId()).putInt(loan.getItemId()).putLong(loan.getBorrowTime())
+                    .putLong(loan.getDueDay()).putLong(loan.getReturnDay()).putLong(loan.getFeePence());
+        }
+        contents.flip();
+
+        Path file = directory.resolve(PENDING_FILE);
+        Path temporary = file.resolveSibling(PENDING_FILE + ".tmp");
+        writeAndForce(temporary, contents);
+        pendingFile.close();
+        Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE);
+        pendingFile = openPending();
+        unsynced = false;
+    }
+
+    private FileChannel openPending() throws IOException {
+        return FileChannel.open(directory.resolve(PENDING_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Write a file (replacing anything in it) and wait until it is really on the disk
+     */
+    private static void writeAndForce(Path file, ByteBuffer contents) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (contents.hasRemaining()) {
+                channel.write(contents);
+            }
+            channel.force(true);
+        }
+    }
+
+    /**
+     * The folder name for the month a loan was returned in, like "2026-10"
+     */
+    private static String monthOf(ArchivedLoan loan) {
+        return loan.getReturnDate().toString().substring(0, 7);
+    }
+
+    private Path segmentFile(String month, long segmentGeneration) {
+        return directory.resolve(month).resolve(String.format("%s%08d%s", SEGMENT_PREFIX, segmentGeneration, SEGMENT_SUFFIX));
+    }
+
+    /**
+     * Turn some loans into the bytes of a segment file
+     */
+    private static byte[] encodeSegment(List<ArchivedLoan> loans) throws IOException {
+        int rows = loans.size();
+        long minDay = Long.MAX_VALUE;
+        long maxDay = Long.MIN_VALUE;
+        int minMember = Integer.MAX_VALUE;
+        int maxMember = Integer.MIN_VALUE;
+        ColumnWriter[] columns = new ColumnWriter[COLUMN_COUNT];
+        for (int column = 0; column < COLUMN_COUNT; column++) {
+            columns[column] = new ColumnWriter();
+        }
+
+        for (ArchivedLoan loan : loans) {
+            minDay = Math.min(minDay, loan.getReturnDay());
+            maxDay = Math.max(maxDay, loan.getReturnDay());
+            minMember = Math.min(minMember, loan.getMemberId());
+            maxMember = Math.max(maxMember, loan.getMemberId());
+
+            columns[RETURN_DAY].add(loan.getReturnDay());
+            columns[MEMBER_ID].add(loan.getMemberId());
+            columns[ITEM_ID].add(loan.getItemId());
+            columns[BORROW_TIME].add(loan.getBorrowTime());
+            columns[DUE_DAY].add(loan.getDueDay());
+            columns[FEE].add(loan.getFeePence());
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(rows);
+        out.writeLong(minDay);
+        out.writeLong(maxDay);
+        out.writeInt(minMember);
+        out.writeInt(maxMember);
+        long[] memberFilter = SegmentInfo.buildMemberFilter(loans);
+        out.writeInt(memberFilter.length);
+        for (long bits : memberFilter) {
+            out.writeLong(bits);
+        }
+
+        // The lengths of all the columns come first, so one column can be read without the others
+        byte[][] compressed = new byte[COLUMN_COUNT][];
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            for (int column = 0; column < COLUMN_COUNT; column++) {
+                compressed[column] = columns[column].compress(deflater);
+                out.writeInt(compressed[column].length);
+            }
+        } finally {
+            deflater.end();
+        }
+        for (byte[] column : compressed) {
+            out.write(column);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Unpack one column of a segment file
+     */
+    private static long[] readColumn(FileChannel file, SegmentInfo segment, int column) throws IOException {
+        int rows = segment.rowCount;
+        ByteBuffer compressed = ByteBuffer.allocate(segment.columnLengths[column]);
+        long start = segment.columnOffsets[column];
+        while (compressed.hasRemaining()) {
+            if (file.read(compressed, start + compressed.position()) < 0) {
+                throw new IOException(segment.file + " is cut short");
+            }
+        }
+
+        // Undo the compression...
+        Inflater inflater = new Inflater();
+        ByteArrayOutputStream raw = new ByteArrayOutputStream(rows * 2);
+        try {
+            inflater.setInput(compressed.array());
+            byte[] chunk = new byte[8192];
+            while (!inflater.finished()) {
+                int count = inflater.inflate(chunk);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Segment column is cut short");
+                }
+                raw.write(chunk, 0, count);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Segment column is damaged", e);
+        } finally {
+            inflater.end();
+        }
+
+        // ...then the variable-length numbers, then the differences
+        byte[] packed = raw.toByteArray();
+        long[] values = new long[rows];
+        int position = 0;
+        long previous = 0;
+        for (int row = 0; row < rows; row++) {
+            long encoded = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = packed[position++];
+                encoded |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            long difference = (encoded >>> 1) ^ -(encoded & 1);
+            previous += difference;
+            values[row] = previous;
+        }
+        return values;
+    }
+
+    /**
+     * Builds up one column: each value is stored as its difference from the
+     * one before, zig-zag encoded (so small negative numbers stay small) and
+     * written 7 bits per byte, with the top bit meaning "more bytes follow"
+     */
+    private static class ColumnWriter {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private long previous;
+
+        void add(long value) {
+            long difference = value - previous;
+            previous = value;
+            long encoded = (difference << 1) ^ (difference >> 63);
+            while ((encoded & ~0x7FL) != 0) {
+                bytes.write((int) ((encoded & 0x7F) | 0x80));
+                encoded >>>= 7;
+            }
+            bytes.write((int) encoded);
+        }
+
+        byte[] compress(Deflater deflater) {
+            deflater.reset();
+            deflater.setInput(bytes.toByteArray());
+            deflater.finish();
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytes.size() / 2 + 64);
+            byte[] chunk = new byte[8192];
+            while (!deflater.finished()) {
+                int count = deflater.deflate(chunk);
+                compressed.write(chunk, 0, count);
+            }
+            return compressed.toByteArray();
+        }
+    }
+
+    /**
+     * What one segment file covers, from its header
+     */
+    private static class SegmentInfo {
+        static final int HEADER_BYTES = 4 + 4 + 4 + 8 + 8 + 4 + 4 + 4;
+
+        // Bits in the member filter per different member, and bits set per member.
+        // 10 and 3 make about 2 in 100 "maybe" answers wrong.
+        private static final int FILTER_BITS_PER_MEMBER = 10;
+        private static final int FILTER_HASHES = 3;
+
+        final Path file;
+        final long generation;
+        final int rowCount;
+        final long minDay;
+        final long maxDay;
+        final int minMember;
+        final int maxMember;
+        final long[] memberFilter;
+
+        // Where each column starts in the file, and its compressed length
+        final long[] columnOffsets = new long[COLUMN_COUNT];
+        final int[] columnLengths;
+
+        private SegmentInfo(Path file, long generation, int rowCount, long minDay, long maxDay,
+                            int minMember, int maxMember, long[] memberFilter, int[] columnLengths) {
+            this.file = file;
+            this.generation = generation;
+            this.rowCount = rowCount;
+            this.minDay = minDay;
+            this.maxDay = maxDay;
+            this.minMember = minMember;
+            this.maxMember = maxMember;
+            this.memberFilter = memberFilter;
+            this.columnLengths = columnLengths;
+            long offset = HEADER_BYTES + (long) memberFilter.length * Long.BYTES + COLUMN_COUNT * Integer.BYTES;
+            for (int column = 0; column < COLUMN_COUNT; column++) {
+                columnOffsets[column] = offset;
+                offset += columnLengths[column];
+            }
+        }
+
+        /**
+         * Read only the header of a segment file
+         */
+        static SegmentInfo read(Path file) throws IOException {
+            String name = file.getFileName().toString();
+            long generation = Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+                    name.length() - SEGMENT_SUFFIX.length()));
+            try (InputStream stream = Files.newInputStream(file);
+                 DataInputStream in = new DataInputStream(stream)) {
+                if (in.readInt() != MAGIC) {
+                    throw new IOException(file + " is not a loan archive segment");
+                }
+                int version = in.readInt();
+                if (version != VERSION) {
+                    throw new IOException(file + " has unsupported version " + version);
+                }
+                int rowCount = in.readInt();
+                long minDay = in.readLong();
+                long maxDay = in.readLong();
+                int minMember = in.readInt();
+                int maxMember = in.readInt();
+                long[] memberFilter = new long[in.readInt()];
+                for (int i = 0; i < memberFilter.length; i++) {
+                    memberFilter[i] = in.readLong();
+                }
+                int[] columnLengths = new int[COLUMN_COUNT];
+                for (int column = 0; column < COLUMN_COUNT; column++) {
+                    columnLengths[column] = in.readInt();
+                }
+                return new SegmentInfo(file, generation, rowCount, minDay, maxDay, minMember, maxMember,
+                        memberFilter, columnLengths);
+            }
+        }
+
+        /**
+         * Could this segment hold loans for the member (0 for any) returned between the two days?
+         */
+        boolean mightContain(int memberId, long fromDay, long toDay) {
+            return maxDay >= fromDay && minDay <= toDay
+                    && (memberId == 0 || (memberId >= minMember && memberId <= maxMember && mightHaveMember(memberId)));
+        }
+
+        /**
+         * Check the member filter: false means the member is definitely not in this segment
+         */
+        boolean mightHaveMember(int memberId) {
+            int bitCount = memberFilter.length * Long.SIZE;
+            long hash = memberId * 0x9E3779B97F4A7C15L;
+            for (int i = 0; i < FILTER_HASHES; i++) {
+                int bit = filterBit(hash, i, bitCount);
+                if ((memberFilter[bit >>> 6] & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Make the member filter for some loans
+         */
+        static long[] buildMemberFilter(List<ArchivedLoan> loans) {
+            int[] memberIds = new int[loans.size()];
+            for (int i = 0; i < memberIds.length; i++) {
+                memberIds[i] = loans.get(i).getMemberId();
+            }
+            long differentMembers = Arrays.stream(memberIds).distinct().count();
+
+            long[] filter = new long[(int) Math.max(1, (differentMembers * FILTER_BITS_PER_MEMBER + 63) / 64)];
+            int bitCount = filter.length * Long.SIZE;
+            for (int memberId : memberIds) {
+                long hash = memberId * 0x9E3779B97F4A7C15L;
+                for (int i = 0; i < FILTER_HASHES; i++) {
+                    int bit = filterBit(hash, i, bitCount);
+                    filter[bit >>> 6] |= 1L << bit;
+                }
+            }
+            return filter;
+        }
+
+        /**
+         * The i-th filter bit for a hashed member ID (two halves of the hash combined, as usual for Bloom filters)
+         */
+        private static int filterBit(long hash, int i, int bitCount) {
+            int first = (int) (hash >>> 32);
+            int second = (int) hash | 1;
+            return Math.floorMod(first + i * second, bitCount);
+        }
+    }
+}
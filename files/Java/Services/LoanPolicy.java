@@ -0,0 +1,74 @@
+package services;
+
+/**
+ * The borrowing rules that apply to one loan: how long it lasts, the late
+ * fee per day, the most a late fee can reach, and how many items the member
+ * may have out at once.
+ */
+public class LoanPolicy {
+    // Use these to switch the fee cap or loan limit off
+    public static final double NO_FEE_CAP = Double.POSITIVE_INFINITY;
+    public static final int NO_LOAN_LIMIT = Integer.MAX_VALUE;
+
+    /**
+     * The standard rules: 14 days, 50p per day late, no cap and no loan limit
+     */
+    public static final LoanPolicy DEFAULT = new LoanPolicy(14, 0.50, NO_FEE_CAP, NO_LOAN_LIMIT);
+
+    private final int loanPeriodDays;
+    private final double dailyFee;
+    private final double feeCap;
+    private final int maxLoans;
+
+    /**
+     * Create a policy
+     */
+    public LoanPolicy(int loanPeriodDays, double dailyFee, double feeCap, int maxLoans) {
+        if (loanPeriodDays <= 0) {
+            throw new IllegalArgumentException("Loan period must be at least one day");
+        }
+        if (dailyFee < 0 || feeCap < 0) {
+            throw new IllegalArgumentException("Fees cannot be negative");
+        }
+        if (maxLoans <= 0) {
+            throw new IllegalArgumentException("Loan limit must be positive");
+        }
+        this.loanPeriodDays = loanPeriodDays;
+        this.dailyFee = dailyFee;
+        this.feeCap = feeCap;
+        this.maxLoans = maxLoans;
+    }
+
+    public int getLoanPeriodDays() {
+        return loanPeriodDays;
+    }
+
+    public double getDailyFee() {
+        return dailyFee;
+    }
+
+    public double getFeeCap() {
+        return feeCap;
+    }
+
+    public int getMaxLoans() {
+        return maxLoans;
+    }
+
+    /**
+     * Work out the late fee for an item returned this many days late
+     */
+    public double feeFor(long daysLate) {
+        if (daysLate <= 0) {
+            return 0.0;
+        }
+        return Math.min(daysLate * dailyFee, feeCap);
+    }
+
+    @Override
+    public String toString() {
+        return loanPeriodDays + " days, " + String.format("%.2f", dailyFee) + " per day late"
+                + (feeCap == NO_FEE_CAP ? "" : " (max " + String.format("%.2f", feeCap) + ")")
+                + (maxLoans == NO_LOAN_LIMIT ? "" : ", up to " + maxLoans + " items");
+    }
+}
@@ -0,0 +1,240 @@
+package services;
+
+import models.Book;
+import models.LibraryItem;
+import models.Magazine;
+import models.Member;
+import models.SearchText;
+import models.Staff;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decides which LoanPolicy applies to a member borrowing an item.
+ *
+ * Rules can match on item type (book/magazine), category and member type
+ * (member/staff); any of these can be left as "any". When several rules
+ * match, the most specific one wins, and between equally specific rules
+ * the one added last wins.
+ *
+ * The rules are worked out once, when the engine is built, for every
+ * combination of item type, member type and category mentioned in a rule.
+ * The answers are stored in a flat table, so looking up a policy on each
+ * borrow is just a few array reads.
+ *
+ * Example:
+ *     LoanPolicyEngine engine = new LoanPolicyEngine.Builder(LoanPolicy.DEFAULT)
+ *             .rule(ItemType.MAGAZINE, null, null, new LoanPolicy(7, 0.25, 5.00, 10))
+ *             .rule(null, null, MemberType.STAFF, new LoanPolicy(28, 0.00, 0.00, 50))
+ *             .build();
+ */
+public class LoanPolicyEngine {
+
+    /**
+     * The kinds of item a rule can match
+     */
+    public enum ItemType { BOOK, MAGAZINE, OTHER }
+
+    /**
+     * The kinds of member a rule can match
+     */
+    public enum MemberType { MEMBER, STAFF }
+
+    // Work out each class's type once, instead of instanceof checks on every borrow
+    private static final ClassValue<ItemType> ITEM_TYPES = new ClassValue<ItemType>() {
+        @Override
+        protected ItemType computeValue(Class<?> type) {
+            if (Magazine.class.isAssignableFrom(type)) return ItemType.MAGAZINE;
+            if (Book.class.isAssignableFrom(type)) return ItemType.BOOK;
+            return ItemType.OTHER;
+        }
+    };
+    private static final ClassValue<MemberType> MEMBER_TYPES = new ClassValue<MemberType>() {
+        @Override
+        protected MemberType computeValue(Class<?> type) {
+            return Staff.class.isAssignableFrom(type) ? MemberType.STAFF : MemberType.MEMBER;
+        }
+    };
+
+    // Every distinct policy; the table stores positions in this array
+    private final LoanPolicy[] policies;
+
+    // The decision table: [item type][member type][category code] -> policy number
+    private final short[] table;
+    private final int categoryCount;
+
+    // Category search key (see SearchText) -> category code. Code 0 means "a category no rule mentions"
+    private final Map<String, Integer> categoryCodes;
+
+    private LoanPolicyEngine(LoanPolicy defaultPolicy, List<Rule> rules) {
+        // Give each category mentioned in a rule its own code, starting at 1
+        categoryCodes = new HashMap<>();
+        for (Rule rule : rules) {
+            if (rule.category != null && !categoryCodes.containsKey(rule.category)) {
+                categoryCodes.put(rule.category, categoryCodes.size() + 1);
+            }
+        }
+        categoryCount = categoryCodes.size() + 1;
+
+        // Collect the distinct policies
+        List<LoanPolicy> distinct = new ArrayList<>();
+        distinct.add(defaultPolicy);
+        for (Rule rule : rules) {
+            if (!distinct.contains(rule.policy)) {
+                distinct.add(rule.policy);
+            }
+        }
+        if (distinct.size() > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many different policies");
+        }
+        policies = distinct.toArray(new LoanPolicy[0]);
+
+        // Work out the answer for every cell of the table
+        String[] categoryByCode = new String[categoryCount];
+        for (Map.Entry<String, Integer> entry : categoryCodes.entrySet()) {
+            categoryByCode[entry.getValue()] = entry.getKey();
+        }
+        table = new short[ItemType.values().length * MemberType.values().length * categoryCount];
+        for (ItemType itemType : ItemType.values()) {
+            for (MemberType memberType : MemberType.values()) {
+                for (int code = 0; code < categoryCount; code++) {
+                    LoanPolicy best = bestMatch(defaultPolicy, rules, itemType, memberType, categoryByCode[code]);
+                    table[cell(itemType.ordinal(), memberType.ordinal(), code)] = (short) distinct.indexOf(best);
+                }
+            }
+        }
+    }
+
+    /**
+     * Create an engine that gives every loan the default policy
+     */
+    public static LoanPolicyEngine defaults() {
+        return new Builder(LoanPolicy.DEFAULT).build();
+    }
+
+    /**
+     * Get the policy for a member borrowing an item
+     */
+    public LoanPolicy policyFor(Member member, LibraryItem item) {
+        return policies[policyIdFor(member, item)];
+    }
+
+    /**
+     * Get the number of the policy for a member borrowing an item.
+     * Small enough to store with each loan; turn it back into a policy with getPolicy().
+     */
+    public int policyIdFor(Member member, LibraryItem item) {
+        int itemType = ITEM_TYPES.get(item.getClass()).ordinal();
+        int memberType = MEMBER_TYPES.get(member.getClass()).ordinal();
+        return table[cell(itemType, memberType, categoryCode(item.getCategoryKey()))];
+    }
+
+    /**
+     * Get a policy by the number returned from policyIdFor()
+     */
+    public LoanPolicy getPolicy(int policyId) {
+        return policies[policyId];
+    }
+
+    private int cell(int itemType, int memberType, int categoryCode) {
+        return (itemType * MemberType.values().length + memberType) * categoryCount + categoryCode;
+    }
+
+    /**
+     * Turn a category's search key (worked out once per item, see LibraryItem.getCategoryKey) into its code
+     */
+    private int categoryCode(String categoryKey) {
+        return categoryCodes.getOrDefault(categoryKey, 0);
+    }
+
+    /**
+     * Find the policy of the most specific rule matching one table cell
+     */
+    private static LoanPolicy bestMatch(LoanPolicy defaultPolicy, List<Rule> rules,
+                                        ItemType itemType, MemberType memberType, String category) {
+        LoanPolicy best = defaultPolicy;
+        int bestScore = -1;
+        for (Rule rule : rules) {
+            if (rule.matches(itemType, memberType, category) && rule.specificity() >= bestScore) {
+                best = rule.policy;
+                bestScore = rule.specificity();
+            }
+        }
+        return best;
+    }
+
+    private static String normalizeCategory(String category) {
+        return SearchText.normalize(category);
+    }
+
+    /**
+     * Collects rules and then builds the engine
+     */
+    public static class Builder {
+        private final LoanPolicy defaultPolicy;
+        private final List<Rule> rules = new ArrayList<>();
+
+        /**
+         * Start a builder; the default policy is used when no rule matches
+         */
+        public Builder(LoanPolicy defaultPolicy) {
+            if (defaultPolicy == null) {
+                throw new IllegalArgumentException("Default policy cannot be null");
+            }
+            this.defaultPolicy = defaultPolicy;
+        }
+
+        /**
+         * Add a rule. Pass null for itemType, category or memberType to match any.
+         */
+        public Builder rule(ItemType itemType, String category, MemberType memberType, LoanPolicy policy) {
+            if (policy == null) {
+                throw new IllegalArgumentException("Policy cannot be null");
+            }
+            if (category != null && category.trim().isEmpty()) {
+                throw new IllegalArgumentException("Category cannot be empty");
+            }
+            rules.add(new Rule(itemType, category == null ? null : normalizeCategory(category), memberType, policy));
+            return this;
+        }
+
+        /**
+         * Compile the rules into an engine
+         */
+        public LoanPolicyEngine build() {
+            return new LoanPolicyEngine(defaultPolicy, rules);
+        }
+    }
+
+    /**
+     * One rule: what it matches (null = anything) and the policy it gives
+     */
+    private static class Rule {
+        final ItemType itemType;
+        final String category;
+        final MemberType memberType;
+        final LoanPolicy policy;
+
+        Rule(ItemType itemType, String category, MemberType memberType, LoanPolicy policy) {
+            this.itemType = itemType;
+            this.category = category;
+            this.memberType = memberType;
+            this.policy = policy;
+        }
+
+        boolean matches(ItemType itemType, MemberType memberType, String category) {
+            return (this.itemType == null || this.itemType == itemType)
+                    && (this.memberType == null || this.memberType == memberType)
+                    && (this.category == null || this.category.equals(category));
+        }
+
+        /**
+         * How many things this rule pins down (more = more specific)
+         */
+        int specificity() {
+            return (itemType != null ? 1 : 0) + (category != null ? 1 : 0) + (memberType != null ? 1 : 0);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package services;
+
+import models.LibraryItem;
+import java.util.Arrays;
+
+/**
+ * A copy of the current loans, taken at a point in time, for reports.
+ *
+ * Like LoanTable, the loans are stored as columns of plain arrays (one
+ * row per loan), so a copy of millions of loans is quick to make and to
+ * read, and reports never have to touch the live loan table.
+ */
+public class LoanSnapshot {
+    private final long today;
+    private final LoanPolicyEngine policies;
+
+    private LibraryItem[] items = new LibraryItem[64];
+    private int[] memberIds = new int[64];
+    private int[] dueDays = new int[64];
+    private short[] policyIds = new short[64];
+    private int size;
+
+    /**
+     * Create an empty snapshot. today (days since 1970) is the day overdue
+     * loans and fees are worked out for, using the given borrowing rules.
+     */
+    public LoanSnapshot(long today, LoanPolicyEngine policies) {
+        if (policies == null) {
+            throw new IllegalArgumentException("Policy engine cannot be null");
+        }
+        this.today = today;
+        this.policies = policies;
+    }
+
+    /**
+     * Add one loan to the snapshot
+     */
+    public void add(LibraryItem item, int memberId, int dueDay, int policyId) {
+        if (size == items.length) {
+            int newCapacity = size * 2;
+            items = Arrays.copyOf(items, newCapacity);
+            memberIds = Arrays.copyOf(memberIds, newCapacity);
+            dueDays = Arrays.copyOf(dueDays, newCapacity);
+            policyIds = Arrays.copyOf(policyIds, newCapacity);
+        }
+        items[size] = item;
+        memberIds[size] = memberId;
+        dueDays[size] = dueDay;
+        policyIds[size] = (short) policyId;
+        size++;
+    }
+
+    /**
+     * Get the day the snapshot was taken (days since 1970)
+     */
+    public long getToday() {
+        return today;
+    }
+
+    /**
+     * Get the number of loans in the snapshot
+     */
+    public int size() {
+        return size;
+    }
+
+    public LibraryItem itemAt(int row) {
+        return items[row];
+    }
+
+    public int memberIdAt(int row) {
+        return memberIds[row];
+    }
+
+    public int dueDayAt(int row) {
+        return dueDays[row];
+    }
+
+    /**
+     * Get the late fee owed so far for a loan (0 if it isn't overdue)
+     */
+    public double feeAt(int row) {
+        long daysOverdue = today - dueDays[row];
+        return daysOverdue > 0 ? policies.getPolicy(policyIds[row]).feeFor(daysOverdue) : 0;
+    }
+}
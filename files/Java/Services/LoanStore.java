@@ -0,0 +1,95 @@
+package services;
+
+import models.LibraryItem;
+import models.Member;
+
+/**
+ * Where BorrowingService keeps the current loans.
+ *
+ * Every loan lives in a numbered slot, and the loans of each member are
+ * linked together so they can be walked without looking at anybody
+ * else's. LoanTable keeps the loans in arrays on the heap; OffHeapLoanTable
+ * keeps them outside it, for very large libraries.
+ *
+ * Implementations don't have to be thread-safe; BorrowingService guards
+ * its store with its own lock.
+ */
+public interface LoanStore {
+    // Used to mean "no slot"
+    int NO_SLOT = -1;
+
+    /**
+     * Record a new loan and return its slot.
+     * Throws an exception if the item is already on loan.
+     */
+    int add(Member member, LibraryItem item, long borrowTime, int dueDay, int policyId);
+
+    /**
+     * Remove the loan in a slot
+     */
+    void remove(int slot);
+
+    /**
+     * Find the slot of the loan for an item, or NO_SLOT if it isn't on loan
+     */
+    int findByItem(int itemId);
+
+    /**
+     * Get the first loan slot of a member, or NO_SLOT if they have no loans.
+     * Use nextOfSameMember() to walk through the rest.
+     */
+    int firstOfMember(int memberId);
+
+    /**
+     * Get the next loan slot of the same member, or NO_SLOT at the end
+     */
+    int nextOfSameMember(int slot);
+
+    /**
+     * Check if a slot holds the first loan in its member's list.
+     * Every member with loans has exactly one such slot.
+     */
+    boolean isFirstOfMember(int slot);
+
+    /**
+     * Get the number of loans a member has
+     */
+    int countOfMember(int memberId);
+
+    /**
+     * Get the total number of loans
+     */
+    int size();
+
+    /**
+     * Get the highest slot number that has ever been used, plus one.
+     * Every loan is in a slot below this (some slots below it may be free).
+     */
+    int slotLimit();
+
+    /**
+     * Check if a slot currently holds a loan
+     */
+    boolean isUsed(int slot);
+
+    // Column getters
+
+    int memberIdAt(int slot);
+
+    int itemIdAt(int slot);
+
+    long borrowTimeAt(int slot);
+
+    int dueDayAt(int slot);
+
+    int policyIdAt(int slot);
+
+    Member memberAt(int slot);
+
+    /**
+     * Get the item on loan in a slot. Stores that look items up by ID
+     * (OffHeapLoanTable) return null once the item has been taken out of the
+     * catalogue, so callers must be ready for that.
+     */
+    LibraryItem itemAt(int slot);
+}
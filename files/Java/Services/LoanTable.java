@@ -0,0 +1,282 @@
+package services;
+
+import models.LibraryItem;
+import models.Member;
+import java.util.Arrays;
+
+/**
+ * Stores all current loans as columns of plain arrays ("struct of arrays").
+ *
+ * Every loan lives in a numbered slot. Slot n's member ID is memberIds[n],
+ * its item ID is itemIds[n], when it was borrowed is borrowTimes[n] (in
+ * milliseconds since 1970), its due day is dueDays[n], its loan policy
+ * number is policyIds[n], and so on. No object is created per loan, so a
+ * loan costs a few dozen bytes instead of the map entries, inner HashMap
+ * and Date the old Map-of-Maps needed.
+ *
+ * Two indexes make lookups O(1):
+ * - by item: item ID -> the slot of its loan ("who has this item?")
+ * - by member: member ID -> the first slot of that member's loans. Each
+ *   member's loans are linked together through nextByMember/prevByMember.
+ *
+ * This class is not thread-safe; BorrowingService guards it with its own lock.
+ */
+public class LoanTable implements LoanStore {
+    // The loan columns
+    private int[] memberIds;
+    private int[] itemIds;
+    private long[] borrowTimes;
+    private int[] dueDays;
+    private short[] policyIds;
+    private Member[] members;
+    private LibraryItem[] items;
+
+    // Links between the loans of the same member (a doubly linked list per member).
+    // Free slots are chained together through nextByMember as well.
+    private int[] nextByMember;
+    private int[] prevByMember;
+
+    // The indexes
+    private final IntIntHashMap slotByItem;
+    private final IntIntHashMap firstSlotByMember;
+    private final IntIntHashMap loanCountByMember;
+
+    // Slots that are ready for reuse, and the first never-used slot
+    private int freeListHead = NO_SLOT;
+    private int nextUnusedSlot;
+    private int size;
+
+    /**
+     * Create an empty table with room for about expectedLoans loans
+     */
+    public LoanTable(int expectedLoans) {
+        int capacity = Math.max(16, expectedLoans);
+        memberIds = new int[capacity];
+        itemIds = new int[capacity];
+        borrowTimes = new long[capacity];
+        dueDays = new int[capacity];
+        policyIds = new short[capacity];
+        members = new Member[capacity];
+        items = new LibraryItem[capacity];
+        nextByMember = new int[capacity];
+        prevByMember = new int[capacity];
+
+        slotByItem = new IntIntHashMap(capacity, NO_SLOT);
+        firstSlotByMember = new IntIntHashMap(capacity, NO_SLOT);
+        loanCountByMember = new IntIntHashMap(capacity, 0);
+    }
+
+    /**
+     * Record a new loan and return its slot.
+     * Throws an exception if the item is already on loan.
+     */
+    @Override
+    public int add(Member member, LibraryItem item, long borrowTime, int dueDay, int policyId) {
+        int memberId = member.getMembershipId();
+        int itemId = item.getItemId();
+        if (slotByItem.containsKey(itemId)) {
+            throw new IllegalStateException("Item " + itemId + " is already on loan");
+        }
+
+        int slot = allocateSlot();
+        memberIds[slot] = memberId;
+        itemIds[slot] = itemId;
+        borrowTimes[slot] = borrowTime;
+        dueDays[slot] = dueDay;
+        policyIds[slot] = (short) policyId;
+        members[slot] = member;
+        items[slot] = item;
+
+        // Put the new loan at the front of the member's list
+        int oldFirst = firstSlotByMember.get(memberId);
+        nextByMember[slot] = oldFirst;
+        prevByMember[slot] = NO_SLOT;
+        if (oldFirst != NO_SLOT) {
+            prevByMember[oldFirst] = slot;
+        }
+        firstSlotByMember.put(memberId, slot);
+        loanCountByMember.put(memberId, loanCountByMember.get(memberId) + 1);
+
+        slotByItem.put(itemId, slot);
+        size++;
+        return slot;
+    }
+
+    /**
+     * Remove the loan in a slot
+     */
+    @Override
+    public void remove(int slot) {
+        int memberId = memberIds[slot];
+        if (memberId == 0) {
+            throw new IllegalArgumentException("Slot " + slot + " does not hold a loan");
+        }
+
+        // Unlink the loan from the member's list
+        int next = nextByMember[slot];
+        int prev = prevByMember[slot];
+        if (prev != NO_SLOT) {
+            nextByMember[prev] = next;
+        } else if (next != NO_SLOT) {
+            firstSlotByMember.put(memberId, next);
+        } else {
+            firstSlotByMember.remove(memberId);
+        }
+        if (next != NO_SLOT) {
+            prevByMember[next] = prev;
+        }
+
+        int count = loanCountByMember.get(memberId) - 1;
+        if (count == 0) {
+            loanCountByMember.remove(memberId);
+        } else {
+            loanCountByMember.put(memberId, count);
+        }
+
+        slotByItem.remove(itemIds[slot]);
+
+        // Clear the slot (so the objects can be garbage collected) and free it
+        memberIds[slot] = 0;
+        itemIds[slot] = 0;
+        borrowTimes[slot] = 0;
+        dueDays[slot] = 0;
+        policyIds[slot] = 0;
+        members[slot] = null;
+        items[slot] = null;
+        prevByMember[slot] = NO_SLOT;
+        nextByMember[slot] = freeListHead;
+        freeListHead = slot;
+        size--;
+    }
+
+    /**
+     * Find the slot of the loan for an item, or NO_SLOT if it isn't on loan
+     */
+    @Override
+    public int findByItem(int itemId) {
+        return slotByItem.get(itemId);
+    }
+
+    /**
+     * Get the first loan slot of a member, or NO_SLOT if they have no loans.
+     * Use nextOfSameMember() to walk through the rest.
+     */
+    @Override
+    public int firstOfMember(int memberId) {
+        return firstSlotByMember.get(memberId);
+    }
+
+    /**
+     * Get the next loan slot of the same member, or NO_SLOT at the end
+     */
+    @Override
+    public int nextOfSameMember(int slot) {
+        return nextByMember[slot];
+    }
+
+    /**
+     * Check if a slot holds the first loan in its member's list.
+     * Every member with loans has exactly one such slot.
+     */
+    @Override
+    public boolean isFirstOfMember(int slot) {
+        return memberIds[slot] != 0 && prevByMember[slot] == NO_SLOT;
+    }
+
+    /**
+     * Get the number of loans a member has
+     */
+    @Override
+    public int countOfMember(int memberId) {
+        return loanCountByMember.get(memberId);
+    }
+
+    /**
+     * Get the total number of loans
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get the highest slot number that has ever been used, plus one.
+     * Every loan is in a slot below this (some slots below it may be free).
+     */
+    @Override
+    public int slotLimit() {
+        return nextUnusedSlot;
+    }
+
+    /**
+     * Check if a slot currently holds a loan
+     */
+    @Override
+    public boolean isUsed(int slot) {
+        return memberIds[slot] != 0;
+    }
+
+    // Column getters
+
+    @Override
+    public int memberIdAt(int slot) {
+        return memberIds[slot];
+    }
+
+    @Override
+    public int itemIdAt(int slot) {
+        return itemIds[slot];
+    }
+
+    @Override
+    public long borrowTimeAt(int slot) {
+        return borrowTimes[slot];
+    }
+
+    @Override
+    public int dueDayAt(int slot) {
+        return dueDays[slot];
+    }
+
+    @Override
+    public int policyIdAt(int slot) {
+        return policyIds[slot];
+    }
+
+    @Override
+    public Member memberAt(int slot) {
+        return members[slot];
+    }
+
+    @Override
+    public LibraryItem itemAt(int slot) {
+        return items[slot];
+    }
+
+    /**
+     * Get a free slot, reusing a freed one if possible and growing the columns if needed
+     */
+    private int allocateSlot() {
+        if (freeListHead != NO_SLOT) {
+            int slot = freeListHead;
+            freeListHead = nextByMember[slot];
+            return slot;
+        }
+        if (nextUnusedSlot == memberIds.length) {
+            grow(memberIds.length * 2);
+        }
+        return nextUnusedSlot++;
+    }
+
+    private void grow(int newCapacity) {
+        memberIds = Arrays.copyOf(memberIds, newCapacity);
+        itemIds = Arrays.copyOf(itemIds, newCapacity);
+        borrowTimes = Arrays.copyOf(borrowTimes, newCapacity);
+        dueDays = Arrays.copyOf(dueDays, newCapacity);
+        policyIds = Arrays.copyOf(policyIds, newCapacity);
+        members = Arrays.copyOf(members, newCapacity);
+        items = Arrays.copyOf(items, newCapacity);
+        nextByMember = Arrays.copyOf(nextByMember, newCapacity);
+        prevByMember = Arrays.copyOf(prevByMember, newCapacity);
+    }
+}
@@ -0,0 +1,48 @@
+package services;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A clock that only moves when it is told to.
+ * Useful for testing due dates and late fees: borrow an item, advance the
+ * clock by 20 days, then return it.
+ */
+public class ManualClock implements LibraryClock {
+    private final AtomicLong currentTime;
+
+    /**
+     * Create a clock set to the given time (milliseconds since 1970)
+     */
+    public ManualClock(long startTimeMillis) {
+        this.currentTime = new AtomicLong(startTimeMillis);
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return currentTime.get();
+    }
+
+    /**
+     * Set the clock to a new time (milliseconds since 1970)
+     */
+    public void setTimeMillis(long timeMillis) {
+        currentTime.set(timeMillis);
+    }
+
+    /**
+     * Move the clock forward by some milliseconds
+     */
+    public void advanceMillis(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("The clock can only move forward");
+        }
+        currentTime.addAndGet(millis);
+    }
+
+    /**
+     * Move the clock forward by some whole days
+     */
+    public void advanceDays(long days) {
+        advanceMillis(days * MILLIS_PER_DAY);
+    }
+}
@@ -0,0 +1,106 @@
+package services;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Counts how many items each member has on loan, without any locks.
+ *
+ * The counts live in AtomicIntegerArrays ("pages") of 1024 members each,
+ * found through a two-level directory by membership ID, and are only ever
+ * changed with compare-and-set. Pages are only
+ * created when a member in that range borrows something, and since IDs
+ * are handed out in order, a few pages cover most libraries.
+ *
+ * tryAcquire() checks the limit and adds one in a single compare-and-set,
+ * so two kiosks checking out for the same member at the same moment can
+ * never take them past their limit.
+ */
+public class MemberLoanCounters {
+    private static final int PAGE_BITS = 10;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int DIRECTORY_BITS = 10;
+    private static final int DIRECTORY_SIZE = 1 << DIRECTORY_BITS;
+    private static final int TOP_SIZE = 1 << (31 - PAGE_BITS - DIRECTORY_BITS);
+
+    // top[a] -> directory, directory[b] -> page, page[c] -> count
+    private final AtomicReferenceArray<AtomicReferenceArray<AtomicIntegerArray>> top =
+            new AtomicReferenceArray<>(TOP_SIZE);
+
+    /**
+     * Add one loan for the member, but only if they have fewer than limit loans.
+     * Returns false (and changes nothing) if they are already at the limit.
+     */
+    public boolean tryAcquire(int membershipId, int limit) {
+        AtomicIntegerArray page = pageFor(membershipId, true);
+        int index = membershipId & (PAGE_SIZE - 1);
+        while (true) {
+            int current = page.get(index);
+            if (current >= limit) {
+                return false;
+            }
+            if (page.compareAndSet(index, current, current + 1)) {
+                return true;
+            }
+            // Another thread changed the count in between - read it again and retry
+        }
+    }
+
+    /**
+     * Take one loan away from the member's count.
+     * Throws an exception (and changes nothing) if they have no loans.
+     */
+    public void release(int membershipId) {
+        AtomicIntegerArray page = pageFor(membershipId, false);
+        int index = membershipId & (PAGE_SIZE - 1);
+        while (true) {
+            int current = page == null ? 0 : page.get(index);
+            if (current <= 0) {
+                throw new IllegalStateException("Member " + membershipId + " has no loans to release");
+            }
+            if (page.compareAndSet(index, current, current - 1)) {
+                return;
+            }
+            // Another thread changed the count in between - read it again and retry
+        }
+    }
+
+    /**
+     * Get the number of loans the member has
+     */
+    public int get(int membershipId) {
+        AtomicIntegerArray page = pageFor(membershipId, false);
+        return page == null ? 0 : page.get(membershipId & (PAGE_SIZE - 1));
+    }
+
+    /**
+     * Find the page that holds a member's count, creating it if asked to
+     */
+    private AtomicIntegerArray pageFor(int membershipId, boolean create) {
+        if (membershipId <= 0) {
+            throw new IllegalArgumentException("Membership ID must be positive");
+        }
+        int topIndex = membershipId >>> (PAGE_BITS + DIRECTORY_BITS);
+        int directoryIndex = (membershipId >>> PAGE_BITS) & (DIRECTORY_SIZE - 1);
+
+        AtomicReferenceArray<AtomicIntegerArray> directory = top.get(topIndex);
+        if (directory == null) {
+            if (!create) {
+                return null;
+            }
+            // If two threads race to create it, only one wins and both use the winner's
+            top.compareAndSet(topIndex, null, new AtomicReferenceArray<>(DIRECTORY_SIZE));
+            directory = top.get(topIndex);
+        }
+
+        AtomicIntegerArray page = directory.get(directoryIndex);
+        if (page == null) {
+            if (!create) {
+                return null;
+            }
+            directory.compareAndSet(directoryIndex, null, new AtomicIntegerArray(PAGE_SIZE));
+            page = directory.get(directoryIndex);
+        }
+        return page;
+    }
+}
@@ -0,0 +1,146 @@
+package services;
+
+import models.Member;
+import models.SearchText;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * An index of member names, so name searches don't have to scan every member.
+ *
+ * Each name's search key (see SearchText) is split into words ("Jane Smith" -> "jane", "smith")
+ * and the words are kept in sorted order. All words starting with a prefix
+ * sit next to each other, so finding them is one O(log n) lookup followed
+ * by a walk over just the k matches.
+ */
+public class MemberNameIndex {
+    // Every name word, in sorted order, with the members whose name contains it
+    private final TreeMap<String, List<Member>> words = new TreeMap<>();
+
+    // Anything that isn't a letter or digit ends a word, the same as SearchText.startsWithWord,
+    // so "Smith-Jones" has the words "smith" and "jones"
+    private static final Pattern WORD_BREAK = Pattern.compile("[^\\p{L}\\p{Nd}]+");
+
+    /**
+     * Add a member's name to the index
+     */
+    public void add(Member member) {
+        for (String word : wordsOf(member.getNameKey())) {
+            words.computeIfAbsent(word, w -> new ArrayList<>(1)).add(member);
+        }
+    }
+
+    /**
+     * Remove a member's name from the index
+     */
+    public void remove(Member member) {
+        for (String word : wordsOf(member.getNameKey())) {
+            List<Member> members = words.get(word);
+            if (members != null) {
+                members.remove(member);
+                if (members.isEmpty()) {
+                    words.remove(word);
+                }
+            }
+        }
+    }
+
+    /**
+     * Find members where every word of the search matches the start of some
+     * word in their name, e.g. "jo sm" finds "John Smith". Results are in ID order.
+     */
+    public List<Member> searchByWords(String search) {
+        Set<String> searchWords = wordsOf(SearchText.normalize(search));
+        if (searchWords.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        // Use the longest search word to find candidates, it usually matches the fewest names
+        String longest = "";
+        for (String word : searchWords) {
+            if (word.length() > longest.length()) {
+                longest = word;
+            }
+        }
+
+        // Then check the other words against each candidate
+        List<Member> results = new ArrayList<>();
+        for (Member candidate : membersWithWordPrefix(longest)) {
+            if (searchWords.size() == 1 || matchesAllWords(candidate, searchWords)) {
+                results.add(candidate);
+            }
+        }
+        results.sort(Comparator.comparingInt(Member::getMembershipId));
+        return results;
+    }
+
+    /**
+     * Find members whose full name starts with the given text (ignoring case)
+     */
+    public List<Member> searchByNamePrefix(String prefix) {
+        String lowerPrefix = SearchText.normalize(prefix);
+        List<Member> results = new ArrayList<>();
+        if (lowerPrefix.isEmpty()) {
+            return results;
+        }
+
+        // The first word of a matching name must start with the first word of the prefix
+        int end = 0;
+        while (end < lowerPrefix.length() && Character.isLetterOrDigit(lowerPrefix.charAt(end))) {
+            end++;
+        }
+        String firstWord = lowerPrefix.substring(0, end);
+        for (Member candidate : membersWithWordPrefix(firstWord)) {
+            if (candidate.getNameKey().startsWith(lowerPrefix)) {
+                results.add(candidate);
+            }
+        }
+        results.sort(Comparator.comparingInt(Member::getMembershipId));
+        return results;
+    }
+
+    /**
+     * Get every member that has a name word starting with the prefix (no duplicates)
+     */
+    private Set<Member> membersWithWordPrefix(String prefix) {
+        Set<Member> members = new LinkedHashSet<>();
+        // All words from prefix (inclusive) up to the next possible prefix (exclusive)
+        for (Map.Entry<String, List<Member>> entry : words.subMap(prefix, true, prefix + Character.MAX_VALUE, false).entrySet()) {
+            members.addAll(entry.getValue());
+        }
+        return members;
+    }
+
+    /**
+     * Check that every search word is the start of some word in the member's name
+     * (compared in place in the name's search key, so nothing is created per member)
+     */
+    private static boolean matchesAllWords(Member member, Set<String> searchWords) {
+        String nameKey = member.getNameKey();
+        for (String searchWord : searchWords) {
+            if (!SearchText.startsWithWord(nameKey, searchWord)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Split a search key (see SearchText) into its distinct words
+     */
+    private static Set<String> wordsOf(String key) {
+        Set<String> result = new LinkedHashSet<>();
+        for (String word : WORD_BREAK.split(key)) {
+            if (!word.isEmpty()) {
+                result.add(word);
+            }
+        }
+        return result;
+    }
+}
@@ -2,12 +2,17 @@ package services;
 
 import models.Member;
 import models.Staff;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.List;
 
 /**
  * This class manages all library members.
  * It handles registering, removing, and searching for members.
+ *
+ * All methods are synchronized on the service, so one MemberService can be
+ * shared between threads (ShardedLibraryService uses one per shard).
  */
 public class MemberService {
     // ArrayList to store all our members
@@ -16,54 +21,85 @@ public class MemberService {
     // I will start member IDs at 1001 and count up
     private int nextMembershipId = 1001;
 
+    // Index of name words, so searching by name doesn't scan every member
+    private MemberNameIndex nameIndex = new MemberNameIndex();
+
+    // Call counts and latencies for each operation
+    private static final LibraryMetrics.Operation REGISTER_METRICS = LibraryMetrics.operation("members.registerMember");
+    private static final LibraryMetrics.Operation REMOVE_METRICS = LibraryMetrics.operation("members.removeMemberById");
+    private static final LibraryMetrics.Operation FIND_METRICS = LibraryMetrics.operation("members.findMemberById");
+    private static final LibraryMetrics.Operation SEARCH_METRICS = LibraryMetrics.operation("members.searchMembersByName");
+
     /**
      * Register a new member with automatically generated ID
      */
-    public Member registerMember(String name, String contactInfo) {
-        // Make sure name and contact info aren't empty
-        if (name == null || name.trim().isEmpty()) {
-            throw new IllegalArgumentException("Member name cannot be empty");
-        }
-        if (contactInfo == null || contactInfo.trim().isEmpty()) {
-            throw new IllegalArgumentException("Contact info cannot be empty");
-        }
+    public synchronized Member registerMember(String name, String contactInfo) {
+        long start = System.nanoTime();
+        Member newMember;
+        try {
+            // Make sure name and contact info aren't empty
+            if (name == null || name.trim().isEmpty()) {
+                throw new IllegalArgumentException("Member name cannot be empty");
+            }
+            if (contactInfo == null || contactInfo.trim().isEmpty()) {
+                throw new IllegalArgumentException("Contact info cannot be empty");
+            }
 
-        // Create a new member with the next available ID
-        Member newMember = new Member(name, nextMembershipId++, contactInfo);
+            // Create a new member with the next available ID
+            newMember = new Member(name, nextMembershipId++, contactInfo);
 
-        // Add the member to our list
-        members.add(newMember);
+            // Add the member to our list
+            members.add(newMember);
+            nameIndex.add(newMember);
+        } finally {
+            REGISTER_METRICS.recordSince(start);
+        }
 
+        // Printed after the timing, so the metrics measure the registration and not the console
         System.out.println("Member registered successfully: " + name + " (ID: " + newMember.getMembershipId() + ")");
-
         return newMember;
     }
 
-    public void registerMember(Member member) {
-        // Make sure the member isn't null
-        if (member == null) {
-            throw new IllegalArgumentException("Member cannot be null");
-        }
+    /**
+     * Get a membership ID that no member has had yet, for members made outside
+     * this service (like Staff). Counting members doesn't work for this: once
+     * a member is removed, the count points at an ID that is still in use.
+     */
+    public synchronized int nextMembershipId() {
+        return nextMembershipId++;
+    }
 
-        // If the member has the default ID (0), assign a new one
-        if (member.getMembershipId() == 0) {
-            throw new IllegalArgumentException("Member must have a valid ID");
-        }
+    public synchronized void registerMember(Member member) {
+        long start = System.nanoTime();
+        try {
+            // Make sure the member isn't null
+            if (member == null) {
+                throw new IllegalArgumentException("Member cannot be null");
+            }
 
-        // Check if a member with this ID already exists
-        for (Member existingMember : members) {
-            if (existingMember.getMembershipId() == member.getMembershipId()) {
-                throw new IllegalArgumentException("Member with ID " + member.getMembershipId() + " already exists");
+            // If the member has the default ID (0), assign a new one
+            if (member.getMembershipId() == 0) {
+                throw new IllegalArgumentException("Member must have a valid ID");
             }
-        }
 
-        // Make sure nextMembershipId stays ahead of any manually assigned IDs
-        if (member.getMembershipId() >= nextMembershipId) {
-            nextMembershipId = member.getMembershipId() + 1;
-        }
+            // Check if a member with this ID already exists
+            for (Member existingMember : members) {
+                if (existingMember.getMembershipId() == member.getMembershipId()) {
+                    throw new IllegalArgumentException("Member with ID " + member.getMembershipId() + " already exists");
+                }
+            }
 
-        // Add the member to our list
-        members.add(member);
+            // Make sure nextMembershipId stays ahead of any manually assigned IDs
+            if (member.getMembershipId() >= nextMembershipId) {
+                nextMembershipId = member.getMembershipId() + 1;
+            }
+
+            // Add the member to our list
+            members.add(member);
+            nameIndex.add(member);
+        } finally {
+            REGISTER_METRICS.recordSince(start);
+        }
         System.out.println("Member registered successfully: " + member.getName());
     }
 
@@ -71,20 +107,29 @@ public class MemberService {
     /**
      * Remove a member by their ID
      */
-    public void removeMemberById(int membershipId) {
-        // Find the member with this ID
+    public synchronized void removeMemberById(int membershipId) {
+        long start = System.nanoTime();
         Member memberToRemove = null;
+        try {
+            // Find the member with this ID
+
+            for (Member member : members) {
+                if (member.getMembershipId() == membershipId) {
+                    memberToRemove = member;
+                    break;
+                }
+            }
 
-        for (Member member : members) {
-            if (member.getMembershipId() == membershipId) {
-                memberToRemove = member;
-                break;
+            // Remove the member if found
+            if (memberToRemove != null) {
+                members.remove(memberToRemove);
+                nameIndex.remove(memberToRemove);
             }
+        } finally {
+            REMOVE_METRICS.recordSince(start);
         }
 
-        // Remove the member if found
         if (memberToRemove != null) {
-            members.remove(memberToRemove);
             System.out.println("Member removed: " + memberToRemove.getName());
         } else {
             System.out.println("Member with ID " + membershipId + " not found.");
@@ -95,78 +140,119 @@ public class MemberService {
     /**
      * Display all members, distinguishing between regular members and staff
      */
-    public void listMembers() {
+    public synchronized void listMembers() {
         // Check if there are any members
         if (members.isEmpty()) {
             System.out.println("No members registered.");
             return;
         }
 
+        // Build the list as text and print it in one go
+        StringBuilder text = new StringBuilder(64 + members.size() * 80);
+
         // Print a header
-        System.out.println("\n----- LIBRARY MEMBERS -----");
-
-        // Display each member
-        for (Member member : members) {
-            // Check if this member is a Staff member
-            if (member instanceof Staff) {
-                // Cast to Staff to access staff-specific methods
-                Staff staffMember = (Staff) member;
-                System.out.println("STAFF: " + member.getName() + " | ID: " + member.getMembershipId() +
-                        " | Contact: " + member.getContactInfo() + " | Role: " + staffMember.getStaffRole());
-            } else {
-                // Regular member
-                member.displayMemberInfo();
+        text.append("\n----- LIBRARY MEMBERS -----\n");
+
+        // Add each member
+        try {
+            for (Member member : members) {
+                // Check if this member is a Staff member
+                if (member instanceof Staff) {
+                    // Cast to Staff to access staff-specific methods
+                    Staff staffMember = (Staff) member;
+                    text.append("STAFF: ").append(member.getName()).append(" | ID: ").append(member.getMembershipId())
+                            .append(" | Contact: ").append(member.getContactInfo())
+                            .append(" | Role: ").append(staffMember.getStaffRole()).append('\n');
+                } else {
+                    // Regular member
+                    member.renderTo(text);
+                }
             }
+        } catch (IOException e) {
+            // Can't happen - a StringBuilder never throws
+            throw new UncheckedIOException(e);
         }
 
         // Print a footer
-        System.out.println("---------------------------\n");
+        text.append("---------------------------\n\n");
+        System.out.print(text);
     }
 
     /**
      * Find a member by their ID
      */
-    public Member findMemberById(int membershipId) {
-        // Check each member for a matching ID
-        for (Member member : members) {
-            if (member.getMembershipId() == membershipId) {
-                return member;
+    public synchronized Member findMemberById(int membershipId) {
+        long start = System.nanoTime();
+        LibraryEvents.MemberLookupEvent event = new LibraryEvents.MemberLookupEvent();
+        event.begin();
+        event.memberId = membershipId;
+        try {
+            // Check each member for a matching ID
+            for (Member member : members) {
+                if (member.getMembershipId() == membershipId) {
+                    event.found = true;
+                    return member;
+                }
             }
-        }
 
-        // Return null if no matching member is found
-        return null;
+            // Return null if no matching member is found
+            return null;
+        } finally {
+            FIND_METRICS.recordSince(start);
+            event.commit();
+        }
     }
 
     /**
-     * Search for members by name
+     * Search for members by name.
+     * Each word of the search must match the start of a word in the member's
+     * name, so "jo" finds "John Doe" and "jane sm" finds "Jane Smith".
      */
-    public List<Member> searchMembersByName(String name) {
-        // Make sure the search term isn't empty
-        if (name == null || name.trim().isEmpty()) {
-            throw new IllegalArgumentException("Search name cannot be empty");
-        }
+    public synchronized List<Member> searchMembersByName(String name) {
+        long start = System.nanoTime();
+        LibraryEvents.SearchEvent event = new LibraryEvents.SearchEvent();
+        event.begin();
+        event.searchType = "memberName";
+        // Only the length: recordings are shared, and the names people search for are personal data
+        event.termLength = name == null ? 0 : name.length();
+        try {
+            // Make sure the search term isn't empty
+            if (name == null || name.trim().isEmpty()) {
+                throw new IllegalArgumentException("Search name cannot be empty");
+            }
 
-        // Create a list to hold the results
-        List<Member> results = new ArrayList<>();
+            // Look the words up in the name index instead of checking every member
+            List<Member> results = nameIndex.searchByWords(name);
 
-        // Convert the search term to lowercase for case-insensitive search
-        String searchTerm = name.toLowerCase().trim();
+            event.resultCount = results.size();
+            return results;
+        } finally {
+            SEARCH_METRICS.recordSince(start);
+            event.commit();
+        }
+    }
 
-        // Check each member to see if their name contains the search term
-        for (Member member : members) {
-            if (member.getName().toLowerCase().contains(searchTerm)) {
-                results.add(member);
+    /**
+     * Search for members whose full name starts with the given text (ignoring case)
+     */
+    public synchronized List<Member> searchMembersByNamePrefix(String prefix) {
+        long start = System.nanoTime();
+        try {
+            // Make sure the prefix isn't empty
+            if (prefix == null || prefix.trim().isEmpty()) {
+                throw new IllegalArgumentException("Search name cannot be empty");
             }
-        }
 
-        return results;
+            return nameIndex.searchByNamePrefix(prefix);
+        } finally {
+            SEARCH_METRICS.recordSince(start);
+        }
     }
 
     /**
      * Get the number of members
      */
-    public int getMemberCount() {
+    public synchronized int getMemberCount() {
         return members.size();
     }
 
@@ -174,7 +260,7 @@ public class MemberService {
      * Get a copy of all members
      * We return a copy so the original list can't be modified
      */
-    public ArrayList<Member> getAllMembers() {
+    public synchronized ArrayList<Member> getAllMembers() {
         return new ArrayList<>(members);
     }
 }
\ No newline at end of file
@@ -0,0 +1,21 @@
+package services;
+
+import java.io.IOException;
+
+/**
+ * Somewhere finished notices are sent, for example an outbox file.
+ * The pipeline calls write() from a single thread, so sinks don't need to be thread-safe.
+ */
+public interface NoticeSink {
+
+    /**
+     * Send or store one notice
+     */
+    void write(OverdueNotice notice) throws IOException;
+
+    /**
+     * Called once after the last notice (flush and close files here)
+     */
+    default void close() throws IOException {
+    }
+}
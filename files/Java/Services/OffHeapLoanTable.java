@@ -0,0 +1,315 @@
+package services;
+
+import models.LibraryItem;
+import models.Member;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntFunction;
+
+/**
+ * Stores all current loans outside the Java heap, in direct ByteBuffers.
+ *
+ * With tens of millions of loans, even LoanTable's plain arrays (and the
+ * Member and LibraryItem references it keeps) make the heap big and every
+ * full garbage collection slow. Here nothing the garbage collector has to
+ * look at grows with the number of loans: the memory is allocated once per
+ * page and the collector only sees one small ByteBuffer object per page.
+ *
+ * An item can only be on loan once, so its item ID is its slot. Each item
+ * has a 32 byte record (the member holding it, due day, borrow time, loan
+ * policy and the links to the member's other loans), and each member has
+ * an 8 byte record (their first loan and how many they have). Both are
+ * found by ID in pages of PAGE_SIZE records that are created the first
+ * time an ID in their range is used, so IDs handed out in order take up
+ * only as many pages as there are items and members.
+ *
+ * The fields are read and written through VarHandles. Changes are still
+ * made under BorrowingService's lock, but the holder of an item is written
+ * last with release ordering and read with acquire ordering, so holderOf()
+ * and isOnLoan() can be called from any thread without the lock and always
+ * see a finished loan record.
+ *
+ * Only one Member reference is kept per member with loans (not one per
+ * loan), so memberAt() is a plain map lookup and still works after the
+ * member is removed from MemberService. Items are not kept at all: itemAt()
+ * looks them up by ID with the function given to the constructor, and
+ * returns null for an item that has been taken out of the catalogue.
+ */
+public class OffHeapLoanTable implements LoanStore {
+    private static final int PAGE_BITS = 16;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PAGE_COUNT = 1 << (31 - PAGE_BITS);
+
+    // The item record: who holds it (0 = nobody), due day, borrow time, policy and member links
+    private static final int ITEM_BYTES = 32;
+    private static final int HOLDER = 0;
+    private static final int DUE_DAY = 4;
+    private static final int BORROW_TIME = 8;
+    private static final int POLICY_ID = 16;
+    private static final int NEXT_BY_MEMBER = 20;
+    private static final int PREV_BY_MEMBER = 24;
+
+    // The member record: their first loan's slot plus one (0 = no loans) and their loan count
+    private static final int MEMBER_BYTES = 8;
+    private static final int FIRST_SLOT = 0;
+    private static final int LOAN_COUNT = 4;
+
+    // Atomic access to the ints and longs inside the buffers
+    private static final VarHandle INT = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+    private static final VarHandle LONG = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private final AtomicReferenceArray<ByteBuffer> itemPages = new AtomicReferenceArray<>(PAGE_COUNT);
+    private final AtomicReferenceArray<ByteBuffer> memberPages = new AtomicReferenceArray<>(PAGE_COUNT);
+
+    // Every member who has loans here, by membership ID
+    private final Map<Integer, Member> members = new HashMap<>();
+
+    // How to find the items for the IDs stored here
+    private final IntFunction<LibraryItem> items;
+
+    private int size;
+    private int slotLimit;
+    private volatile long offHeapBytes;
+
+    /**
+     * Create an empty table. itemAt() uses the given function to turn item IDs
+     * back into items (for example LibraryCatalogue::findItemById); it should
+     * be quick, as it is called for every loan a listing or scan looks at, and
+     * safe to call from the background threads that run overdue scans and reports.
+     */
+    public OffHeapLoanTable(IntFunction<LibraryItem> items) {
+        if (items == null) {
+            throw new IllegalArgumentException("Item lookup cannot be null");
+        }
+        this.items = items;
+    }
+
+    @Override
+    public int add(Member member, LibraryItem item, long borrowTime, int dueDay, int policyId) {
+        int memberId = member.getMembershipId();
+        int slot = item.getItemId();
+        if (memberId <= 0 || slot <= 0) {
+            throw new IllegalArgumentException("Member and item IDs must be positive");
+        }
+        ByteBuffer page = itemPage(slot, true);
+        int at = itemOffset(slot);
+        if ((int) INT.get(page, at + HOLDER) != 0) {
+            throw new IllegalStateException("Item " + slot + " is already on loan");
+        }
+
+        // Put the new loan at the front of the member's list
+        ByteBuffer memberPage = memberPage(memberId, true);
+        int memberAt = memberOffset(memberId);
+        int oldFirst = (int) INT.get(memberPage, memberAt + FIRST_SLOT) - 1;
+        INT.set(page, at + DUE_DAY, dueDay);
+        LONG.set(page, at + BORROW_TIME, borrowTime);
+        INT.set(page, at + POLICY_ID, policyId);
+        INT.set(page, at + NEXT_BY_MEMBER, oldFirst);
+        INT.set(page, at + PREV_BY_MEMBER, NO_SLOT);
+        if (oldFirst != NO_SLOT) {
+            setItemInt(oldFirst, PREV_BY_MEMBER, slot);
+        }
+        INT.set(memberPage, memberAt + FIRST_SLOT, slot + 1);
+        INT.set(memberPage, memberAt + LOAN_COUNT, (int) INT.get(memberPage, memberAt + LOAN_COUNT) + 1);
+        members.put(memberId, member);
+
+        // Written last, so a reader that sees the holder also sees the rest of the record
+        INT.setRelease(page, at + HOLDER, memberId);
+        size++;
+        slotLimit = Math.max(slotLimit, slot + 1);
+        return slot;
+    }
+
+    @Override
+    public void remove(int slot) {
+        int memberId = memberIdAt(slot);
+        if (memberId == 0) {
+            throw new IllegalArgumentException("Slot " + slot + " does not hold a loan");
+        }
+        ByteBuffer page = itemPage(slot, false);
+        int at = itemOffset(slot);
+
+        // Mark the item as no longer on loan first, so lock-free readers stop seeing it
+        INT.setRelease(page, at + HOLDER, 0);
+
+        // Unlink the loan from the member's list
+        int next = (int) INT.get(page, at + NEXT_BY_MEMBER);
+        int prev = (int) INT.get(page, at + PREV_BY_MEMBER);
+        ByteBuffer memberPage = memberPage(memberId, false);
+        int memberAt = memberOffset(memberId);
+        if (prev != NO_SLOT) {
+            setItemInt(prev, NEXT_BY_MEMBER, next);
+        } else {
+            INT.set(memberPage, memberAt + FIRST_SLOT, next + 1);
+        }
+        if (next != NO_SLOT) {
+            setItemInt(next, PREV_BY_MEMBER, prev);
+        }
+        int count = (int) INT.get(memberPage, memberAt + LOAN_COUNT) - 1;
+        INT.set(memberPage, memberAt + LOAN_COUNT, count);
+        if (count == 0) {
+            members.remove(memberId);
+        }
+
+        INT.set(page, at + DUE_DAY, 0);
+        LONG.set(page, at + BORROW_TIME, 0L);
+        INT.set(page, at + POLICY_ID, 0);
+        size--;
+    }
+
+    @Override
+    public int findByItem(int itemId) {
+        return isOnLoan(itemId) ? itemId : NO_SLOT;
+    }
+
+    @Override
+    public int firstOfMember(int memberId) {
+        ByteBuffer page = memberPage(memberId, false);
+        return page == null ? NO_SLOT : (int) INT.get(page, memberOffset(memberId) + FIRST_SLOT) - 1;
+    }
+
+    @Override
+    public int nextOfSameMember(int slot) {
+        return itemInt(slot, NEXT_BY_MEMBER, NO_SLOT);
+    }
+
+    @Override
+    public boolean isFirstOfMember(int slot) {
+        return isUsed(slot) && itemInt(slot, PREV_BY_MEMBER, NO_SLOT) == NO_SLOT;
+    }
+
+    @Override
+    public int countOfMember(int memberId) {
+        ByteBuffer page = memberPage(memberId, false);
+        return page == null ? 0 : (int) INT.get(page, memberOffset(memberId) + LOAN_COUNT);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int slotLimit() {
+        return slotLimit;
+    }
+
+    @Override
+    public boolean isUsed(int slot) {
+        return slot > 0 && holderOf(slot) != 0;
+    }
+
+    /**
+     * Get the membership ID of the member who has an item, or 0 if it isn't
+     * on loan. Safe to call from any thread without the lock.
+     */
+    public int holderOf(int itemId) {
+        ByteBuffer page = itemPage(itemId, false);
+        return page == null ? 0 : (int) INT.getAcquire(page, itemOffset(itemId) + HOLDER);
+    }
+
+    /**
+     * Check if an item is on loan. Safe to call from any thread without the lock.
+     */
+    public boolean isOnLoan(int itemId) {
+        return holderOf(itemId) != 0;
+    }
+
+    /**
+     * Get how much memory outside the heap the table has taken, in bytes
+     */
+    public long getOffHeapBytes() {
+        return offHeapBytes;
+    }
+
+    // Column getters
+
+    @Override
+    public int memberIdAt(int slot) {
+        return holderOf(slot);
+    }
+
+    @Override
+    public int itemIdAt(int slot) {
+        return isUsed(slot) ? slot : 0;
+    }
+
+    @Override
+    public long borrowTimeAt(int slot) {
+        ByteBuffer page = itemPage(slot, false);
+        return page == null ? 0 : (long) LONG.get(page, itemOffset(slot) + BORROW_TIME);
+    }
+
+    @Override
+    public int dueDayAt(int slot) {
+        return itemInt(slot, DUE_DAY, 0);
+    }
+
+    @Override
+    public int policyIdAt(int slot) {
+        return itemInt(slot, POLICY_ID, 0);
+    }
+
+    @Override
+    public Member memberAt(int slot) {
+        int memberId = memberIdAt(slot);
+        return memberId == 0 ? null : members.get(memberId);
+    }
+
+    /**
+     * Get the item on loan in a slot, or null if the catalogue no longer has it
+     */
+    @Override
+    public LibraryItem itemAt(int slot) {
+        return isUsed(slot) ? items.apply(slot) : null;
+    }
+
+    private int itemInt(int slot, int field, int missing) {
+        ByteBuffer page = itemPage(slot, false);
+        return page == null ? missing : (int) INT.get(page, itemOffset(slot) + field);
+    }
+
+    private void setItemInt(int slot, int field, int value) {
+        INT.set(itemPage(slot, false), itemOffset(slot) + field, value);
+    }
+
+    private static int itemOffset(int itemId) {
+        return (itemId & (PAGE_SIZE - 1)) * ITEM_BYTES;
+    }
+
+    private static int memberOffset(int memberId) {
+        return (memberId & (PAGE_SIZE - 1)) * MEMBER_BYTES;
+    }
+
+    private ByteBuffer itemPage(int itemId, boolean create) {
+        return page(itemPages, itemId, ITEM_BYTES, create);
+    }
+
+    private ByteBuffer memberPage(int memberId, boolean create) {
+        return page(memberPages, memberId, MEMBER_BYTES, create);
+    }
+
+    /**
+     * Find the page that holds an ID's record, creating it if asked to
+     * (only done under BorrowingService's lock)
+     */
+    private ByteBuffer page(AtomicReferenceArray<ByteBuffer> pages, int id, int recordBytes, boolean create) {
+        if (id < 0) {
+            return null;
+        }
+        int index = id >>> PAGE_BITS;
+        ByteBuffer page = pages.get(index);
+        if (page == null && create) {
+            // Direct buffers start out filled with zeros: no holders and no loans
+            page = ByteBuffer.allocateDirect(PAGE_SIZE * recordBytes).order(ByteOrder.nativeOrder());
+            pages.set(index, page);
+            offHeapBytes += page.capacity();
+        }
+        return page;
+    }
+}
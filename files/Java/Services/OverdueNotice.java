@@ -0,0 +1,37 @@
+package services;
+
+/**
+ * A reminder ready to be sent to one member
+ */
+public class OverdueNotice {
+    private final int membershipId;
+    private final String contactInfo;
+    private final String subject;
+    private final String body;
+
+    public OverdueNotice(int membershipId, String contactInfo, String subject, String body) {
+        this.membershipId = membershipId;
+        this.contactInfo = contactInfo;
+        this.subject = subject;
+        this.body = body;
+    }
+
+    public int getMembershipId() {
+        return membershipId;
+    }
+
+    /**
+     * Where to send the notice (the member's email or phone)
+     */
+    public String getContactInfo() {
+        return contactInfo;
+    }
+
+    public String getSubject() {
+        return subject;
+    }
+
+    public String getBody() {
+        return body;
+    }
+}
@@ -0,0 +1,291 @@
+package services;
+
+import models.Member;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Builds reminder notices for loans that are due soon or overdue, in the background.
+ *
+ * The work is split into stages, each running on its own thread and passing
+ * its results to the next through a small queue:
+ *
+ *     select due loans -> group by member -> render notices -> write to the sink
+ *
+ * The selector only holds a BorrowingService's lock while it copies one batch
+ * of loans, so checkouts carry on while the notices are built. The queues have
+ * a fixed size: if the sink is slow, the queues fill up and the earlier stages
+ * wait ("backpressure") instead of piling millions of notices up in memory.
+ *
+ * Example:
+ *     OverdueNoticePipeline pipeline = new OverdueNoticePipeline(
+ *             new FileOutboxSink("outbox.txt"), 2, 2, borrowingService);
+ *     pipeline.start().thenAccept(summary -> System.out.println(summary));
+ */
+public class OverdueNoticePipeline {
+    // How many loan table slots the selector looks at each time it takes the lock
+    private static final int SLOTS_PER_BATCH = 4096;
+    private static final int QUEUE_SIZE = 256;
+
+    // Markers put on a queue to tell the next stage there is no more work
+    private static final List<DueLoan> NO_MORE_LOANS = Collections.emptyList();
+    private static final OverdueNotice NO_MORE_NOTICES = new OverdueNotice(0, "", "", "");
+
+    private final NoticeSink sink;
+    private final int daysAhead;
+    private final int renderThreads;
+    private final BorrowingService[] sources;
+
+    // Queues between the stages
+    private final BlockingQueue<List<DueLoan>> selected = new ArrayBlockingQueue<>(QUEUE_SIZE);
+    private final BlockingQueue<List<DueLoan>> grouped = new ArrayBlockingQueue<>(QUEUE_SIZE);
+    private final BlockingQueue<OverdueNotice> rendered = new ArrayBlockingQueue<>(QUEUE_SIZE);
+
+    private final AtomicLong loansSelected = new AtomicLong();
+    private final AtomicLong noticesWritten = new AtomicLong();
+    private final List<Thread> threads = new ArrayList<>();
+    private final CompletableFuture<Summary> result = new CompletableFuture<>();
+    private long today;
+    private long startNanos;
+    private boolean started;
+
+    /**
+     * Create a pipeline.
+     *
+     * @param sink where finished notices go (closed when the pipeline ends)
+     * @param daysAhead also remind about loans due within this many days (0 = overdue or due today only)
+     * @param renderThreads how many threads build notices
+     * @param sources the borrowing services whose loans to check (e.g. every shard)
+     */
+    public OverdueNoticePipeline(NoticeSink sink, int daysAhead, int renderThreads, BorrowingService... sources) {
+        if (sink == null) {
+            throw new IllegalArgumentException("Sink cannot be null");
+        }
+        if (daysAhead < 0) {
+            throw new IllegalArgumentException("Days ahead cannot be negative");
+        }
+        if (renderThreads <= 0) {
+            throw new IllegalArgumentException("Need at least one render thread");
+        }
+        if (sources.length == 0) {
+            throw new IllegalArgumentException("Need at least one borrowing service");
+        }
+        this.sink = sink;
+        this.daysAhead = daysAhead;
+        this.renderThreads = renderThreads;
+        this.sources = sources.clone();
+    }
+
+    /**
+     * Start the pipeline on background threads. The returned future completes
+     * when every notice has been written and the sink has been closed.
+     * A pipeline can only be started once.
+     */
+    public synchronized CompletableFuture<Summary> start() {
+        if (started) {
+            throw new IllegalStateException("Pipeline has already been started");
+        }
+        started = true;
+        startNanos = System.nanoTime();
+        today = sources[0].getClock().today();
+
+        threads.add(newThread("select", this::selectDueLoans));
+        threads.add(newThread("group", this::groupByMember));
+        for (int i = 1; i <= renderThreads; i++) {
+            threads.add(newThread("render-" + i, this::renderNotices));
+        }
+        threads.add(newThread("write", this::writeNotices));
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        return result;
+    }
+
+    /**
+     * Run the pipeline and wait for it to finish
+     */
+    public Summary run() throws IOException, InterruptedException {
+        try {
+            return start().get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IllegalStateException("Overdue notice pipeline failed", e.getCause());
+        }
+    }
+
+    /**
+     * Stop the pipeline early. Notices already written stay written.
+     */
+    public void cancel() {
+        fail(new InterruptedException("Pipeline was cancelled"));
+    }
+
+    // Stage 1: copy due loans out of each borrowing service, one batch at a time
+    private void selectDueLoans() throws InterruptedException {
+        long lastDueDay = today + daysAhead;
+        for (BorrowingService source : sources) {
+            int slot = 0;
+            while (slot != -1) {
+                List<DueLoan> batch = new ArrayList<>();
+                slot = source.collectDueLoans(slot, SLOTS_PER_BATCH, lastDueDay, batch);
+                if (!batch.isEmpty()) {
+                    loansSelected.addAndGet(batch.size());
+                    selected.put(batch);
+                }
+            }
+        }
+        selected.put(NO_MORE_LOANS);
+    }
+
+    // Stage 2: split each batch into one list per member.
+    // collectDueLoans() keeps each member's loans next to each other.
+    private void groupByMember() throws InterruptedException {
+        List<DueLoan> batch;
+        while ((batch = selected.take()) != NO_MORE_LOANS) {
+            int groupStart = 0;
+            for (int i = 1; i <= batch.size(); i++) {
+                if (i == batch.size() || batch.get(i).getMember() != batch.get(groupStart).getMember()) {
+                    grouped.put(new ArrayList<>(batch.subList(groupStart, i)));
+                    groupStart = i;
+                }
+            }
+        }
+        // Tell every renderer to stop
+        for (int i = 0; i < renderThreads; i++) {
+            grouped.put(NO_MORE_LOANS);
+        }
+    }
+
+    // Stage 3: turn each member's loans into a notice
+    private void renderNotices() throws InterruptedException {
+        List<DueLoan> loans;
+        while ((loans = grouped.take()) != NO_MORE_LOANS) {
+            rendered.put(render(loans));
+        }
+        rendered.put(NO_MORE_NOTICES);
+    }
+
+    // Stage 4: write the notices, from a single thread so sinks don't need locking
+    private void writeNotices() throws InterruptedException, IOException {
+        try {
+            int renderersLeft = renderThreads;
+            while (renderersLeft > 0) {
+                OverdueNotice notice = rendered.take();
+                if (notice == NO_MORE_NOTICES) {
+                    renderersLeft--;
+                } else {
+                    sink.write(notice);
+                    noticesWritten.incrementAndGet();
+                }
+            }
+        } finally {
+            sink.close();
+        }
+        result.complete(new Summary(loansSelected.get(), noticesWritten.get(),
+                (System.nanoTime() - startNanos) / 1_000_000));
+    }
+
+    /**
+     * Build the notice for one member's due loans
+     */
+    private OverdueNotice render(List<DueLoan> loans) {
+        Member member = loans.get(0).getMember();
+        boolean anyOverdue = false;
+        StringBuilder body = new StringBuilder();
+        body.append("Dear ").append(member.getName()).append(",\n\n");
+
+        for (DueLoan loan : loans) {
+            body.append("- ").append(loan.getItem().getTitle())
+                .append(" (item ").append(loan.getItem().getItemId()).append("): ");
+            if (loan.getDaysOverdue() > 0) {
+                anyOverdue = true;
+                body.append(loan.getDaysOverdue()).append(" days overdue, late fee so far £")
+                    .append(String.format("%.2f", loan.getFeeSoFar()));
+            } else if (loan.getDaysOverdue() == 0) {
+                body.append("due today");
+            } else {
+                body.append("due on ").append(LocalDate.ofEpochDay(loan.getDueDay()));
+            }
+            body.append('\n');
+        }
+        body.append("\nPlease return or renew these items.");
+
+        String subject = anyOverdue ? "Overdue library items" : "Library items due soon";
+        return new OverdueNotice(member.getMembershipId(), member.getContactInfo(), subject, body.toString());
+    }
+
+    /**
+     * A piece of work that may throw, run by one stage thread
+     */
+    private interface Stage {
+        void run() throws Exception;
+    }
+
+    private Thread newThread(String name, Stage stage) {
+        Thread thread = new Thread(() -> {
+            try {
+                stage.run();
+            } catch (Throwable e) {
+                fail(e);
+            }
+        }, "overdue-notices-" + name);
+        // Don't keep the program running just for reminders
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    /**
+     * Stop every stage after a failure, so none is left waiting on a queue forever
+     */
+    private void fail(Throwable error) {
+        if (result.completeExceptionally(error)) {
+            synchronized (this) {
+                for (Thread thread : threads) {
+                    thread.interrupt();
+                }
+            }
+        }
+    }
+
+    /**
+     * What one run of the pipeline did
+     */
+    public static class Summary {
+        private final long loansSelected;
+        private final long noticesWritten;
+        private final long elapsedMillis;
+
+        public Summary(long loansSelected, long noticesWritten, long elapsedMillis) {
+            this.loansSelected = loansSelected;
+            this.noticesWritten = noticesWritten;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        public long getLoansSelected() {
+            return loansSelected;
+        }
+
+        public long getNoticesWritten() {
+            return noticesWritten;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        @Override
+        public String toString() {
+            return noticesWritten + " notices for " + loansSelected + " loans in " + elapsedMillis + " ms";
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package services;
+
+import models.LibraryItem;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Keeps items sorted by publication date, so "everything published between
+ * these two dates" can be answered without looking at every item.
+ *
+ * Items are kept in blocks of up to 512, each holding a sorted array of
+ * keys (publication day and item ID packed into one long) next to an array
+ * of the items. Finding where a date range starts is a binary search over
+ * the blocks and then inside one block, after which the matching items are
+ * simply read in order: O(log n + k) for k results.
+ *
+ * Adding or removing an item only shifts entries inside one block, so the
+ * index stays cheap to maintain even with millions of items (like the
+ * leaves of a B-tree).
+ *
+ * This class is not thread-safe, like LibraryCatalogue which uses it.
+ */
+public class PublicationDateIndex {
+    private static final int BLOCK_SIZE = 512;
+
+    // The blocks in key order. A block is never empty.
+    private final ArrayList<Block> blocks = new ArrayList<>();
+    private int size;
+
+    /**
+     * Add an item to the index
+     */
+    public void add(LibraryItem item) {
+        long key = keyOf(item.getPublicationDay(), item.getItemId());
+        if (blocks.isEmpty()) {
+            blocks.add(new Block());
+        }
+
+        int blockIndex = blockFor(key);
+        Block block = blocks.get(blockIndex);
+        if (block.size == BLOCK_SIZE) {
+            // Split a full block into two half-full ones, then insert into the right half
+            Block upperHalf = block.splitOff();
+            blocks.add(blockIndex + 1, upperHalf);
+            if (key > block.lastKey()) {
+                block = upperHalf;
+            }
+        }
+        block.insert(key, item);
+        size++;
+    }
+
+    /**
+     * Remove an item from the index. Returns false if it wasn't there.
+     */
+    public boolean remove(LibraryItem item) {
+        if (blocks.isEmpty()) {
+            return false;
+        }
+        long key = keyOf(item.getPublicationDay(), item.getItemId());
+        int blockIndex = blockFor(key);
+        Block block = blocks.get(blockIndex);
+        int position = block.lowerBound(key);
+        if (position == block.size || block.keys[position] != key) {
+            return false;
+        }
+
+        block.removeAt(position);
+        if (block.size == 0) {
+            blocks.remove(blockIndex);
+        }
+        size--;
+        return true;
+    }
+
+    /**
+     * Find the items published from fromDay to toDay (both included, as days
+     * since 1970 - see LocalDate.toEpochDay), oldest first
+     */
+    public List<LibraryItem> findBetween(long fromDay, long toDay) {
+        List<LibraryItem> results = new ArrayList<>();
+        forEachBetween(fromDay, toDay, results::add);
+        return results;
+    }
+
+    /**
+     * Pass each item published from fromDay to toDay (both included) to action, oldest first
+     */
+    public void forEachBetween(long fromDay, long toDay, Consumer<LibraryItem> action) {
+        if (blocks.isEmpty() || fromDay > toDay) {
+            return;
+        }
+        long fromKey = keyOf(fromDay, 0);
+        long toKey = keyOf(toDay, -1);
+
+        for (int blockIndex = blockFor(fromKey); blockIndex < blocks.size(); blockIndex++) {
+            Block block = blocks.get(blockIndex);
+            for (int position = block.lowerBound(fromKey); position < block.size; position++) {
+                if (block.keys[position] > toKey) {
+                    return;
+                }
+                action.accept(block.items[position]);
+            }
+        }
+    }
+
+    /**
+     * Count the items published from fromDay to toDay (both included).
+     * Whole blocks in the middle of the range are counted without looking inside them.
+     */
+    public int countBetween(long fromDay, long toDay) {
+        if (blocks.isEmpty() || fromDay > toDay) {
+            return 0;
+        }
+        long fromKey = keyOf(fromDay, 0);
+        long toKey = keyOf(toDay, -1);
+
+        int count = 0;
+        for (int blockIndex = blockFor(fromKey); blockIndex < blocks.size(); blockIndex++) {
+            Block block = blocks.get(blockIndex);
+            if (block.keys[0] > toKey) {
+                break;
+            }
+            int first = block.keys[0] >= fromKey ? 0 : block.lowerBound(fromKey);
+            int end = block.lastKey() <= toKey ? block.size : block.lowerBound(toKey + 1);
+            count += end - first;
+        }
+        return count;
+    }
+
+    /**
+     * Get the number of items in the index
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Pack a day and an item ID into one key that sorts by day, then by item ID.
+     * Days beyond the int range (far past any real publication) are treated as the int limits.
+     */
+    private static long keyOf(long day, int itemId) {
+        long clampedDay = Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, day));
+        return (clampedDay << 32) | (itemId & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Find the first block whose last key is at least key (or the last block)
+     */
+    private int blockFor(long key) {
+        int low = 0;
+        int high = blocks.size() - 1;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (blocks.get(middle).lastKey() < key) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * One block: up to BLOCK_SIZE sorted keys with their items
+     */
+    private static class Block {
+        final long[] keys = new long[BLOCK_SIZE];
+        final LibraryItem[] items = new LibraryItem[BLOCK_SIZE];
+        int size;
+
+        long lastKey() {
+            return keys[size - 1];
+        }
+
+        /**
+         * The position of the first key that is at least key
+         */
+        int lowerBound(long key) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (keys[middle] < key) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        void insert(long key, LibraryItem item) {
+            int position = lowerBound(key);
+            System.arraycopy(keys, position, keys, position + 1, size - position);
+            System.arraycopy(items, position, items, position + 1, size - position);
+            keys[position] = key;
+            items[position] = item;
+            size++;
+        }
+
+        void removeAt(int position) {
+            System.arraycopy(keys, position + 1, keys, position, size - position - 1);
+            System.arraycopy(items, position + 1, items, position, size - position - 1);
+            size--;
+            items[size] = null;
+        }
+
+        /**
+         * Move the upper half of this block into a new block and return it
+         */
+        Block splitOff() {
+            Block upper = new Block();
+            int half = size / 2;
+            upper.size = size - half;
+            System.arraycopy(keys, half, upper.keys, 0, upper.size);
+            System.arraycopy(items, half, upper.items, 0, upper.size);
+            Arrays.fill(items, half, size, null);
+            size = half;
+            return upper;
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package services;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * A small bounded cache for search results.
+ *
+ * Entries are kept in least-recently-used order, but a new entry is only
+ * admitted when it has been asked for more often than the entry it would
+ * push out (a TinyLFU-style admission check). This stops one-off searches
+ * from flushing the popular ones out of the cache.
+ */
+public class QueryCache<K, V> {
+    // The cached entries, in access order (eldest = least recently used)
+    private final LinkedHashMap<K, V> entries;
+    private final int maxSize;
+
+    // Approximate access counts for every key we have seen, cached or not
+    private final FrequencySketch sketch;
+
+    // Statistics
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long rejections;
+    private long invalidations;
+
+    /**
+     * Create a cache that holds at most maxSize entries
+     */
+    public QueryCache(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Cache size must be positive");
+        }
+        this.maxSize = maxSize;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+        this.sketch = new FrequencySketch(maxSize);
+    }
+
+    /**
+     * Look up a cached value, or return null if it is not cached
+     */
+    public synchronized V get(K key) {
+        // Every lookup counts towards the key's popularity
+        sketch.increment(key);
+
+        V value = entries.get(key);
+        if (value != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return value;
+    }
+
+    /**
+     * Offer a value to the cache. When the cache is full the value is only
+     * stored if its key is more popular than the least recently used entry.
+     */
+    public synchronized void put(K key, V value) {
+        if (entries.containsKey(key) || entries.size() < maxSize) {
+            entries.put(key, value);
+            return;
+        }
+
+        // The cache is full, so compare against the entry that would be evicted
+        Map.Entry<K, V> victim = entries.entrySet().iterator().next();
+        if (sketch.frequency(key) > sketch.frequency(victim.getKey())) {
+            entries.remove(victim.getKey());
+            evictions++;
+            entries.put(key, value);
+        } else {
+            rejections++;
+        }
+    }
+
+    /**
+     * Remove every entry whose key matches the given test
+     */
+    public synchronized void invalidateIf(Predicate<K> test) {
+        Iterator<K> keys = entries.keySet().iterator();
+        while (keys.hasNext()) {
+            if (test.test(keys.next())) {
+                keys.remove();
+                invalidations++;
+            }
+        }
+    }
+
+    /**
+     * Remove everything from the cache (the frequency history is kept)
+     */
+    public synchronized void clear() {
+        invalidations += entries.size();
+        entries.clear();
+    }
+
+    /**
+     * Get the number of cached entries
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Get a snapshot of the cache statistics
+     */
+    public synchronized Stats getStats() {
+        return new Stats(hits, misses, evictions, rejections, invalidations, entries.size());
+    }
+
+    /**
+     * An immutable snapshot of the cache statistics
+     */
+    public static class Stats {
+        private final long hits;
+        private final long misses;
+        private final long evictions;
+        private final long rejections;
+        private final long invalidations;
+        private final int size;
+
+        Stats(long hits, long misses, long evictions, long rejections, long invalidations, int size) {
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.rejections = rejections;
+            this.invalidations = invalidations;
+            this.size = size;
+        }
+
+        public long getHits() {
+            return hits;
+        }
+
+        public long getMisses() {
+            return misses;
+        }
+
+        public long getEvictions() {
+            return evictions;
+        }
+
+        /**
+         * Number of values that were not admitted because they were less popular than the victim
+         */
+        public long getRejections() {
+            return rejections;
+        }
+
+        public long getInvalidations() {
+            return invalidations;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        /**
+         * Fraction of lookups that were answered from the cache
+         */
+        public double getHitRate() {
+            long total = hits + misses;
+            return total == 0 ? 0.0 : (double) hits / total;
+        }
+
+        @Override
+        public String toString() {
+            return "hits=" + hits + " misses=" + misses + " hitRate=" + String.format("%.2f", getHitRate())
+                    + " evictions=" + evictions + " rejections=" + rejections
+                    + " invalidations=" + invalidations + " size=" + size;
+        }
+    }
+
+    /**
+     * A count-min sketch with small saturating counters.
+     * It estimates how often each key was requested using a fixed amount of memory.
+     * All counters are halved periodically so old popularity fades away.
+     */
+    private static class FrequencySketch {
+        private static final int DEPTH = 4;
+        private static final int MAX_COUNT = 15;
+        private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+
+        private final byte[][] counters;
+        private final int mask;
+        private final int resetThreshold;
+        private int additions;
+
+        FrequencySketch(int maxSize) {
+            // Use a power of two width so we can mask instead of using %
+            int width = Integer.highestOneBit(Math.max(16, maxSize * 4) - 1) << 1;
+            counters = new byte[DEPTH][width];
+            mask = width - 1;
+            resetThreshold = maxSize * 10;
+        }
+
+        void increment(Object key) {
+            int hash = spread(key.hashCode());
+            boolean added = false;
+            for (int row = 0; row < DEPTH; row++) {
+                int index = indexOf(hash, row);
+                if (counters[row][index] < MAX_COUNT) {
+                    counters[row][index]++;
+                    added = true;
+                }
+            }
+
+            // Age the counts once enough samples have been collected
+            if (added && ++additions >= resetThreshold) {
+                reset();
+            }
+        }
+
+        int frequency(Object key) {
+            int hash = spread(key.hashCode());
+            int min = MAX_COUNT;
+            for (int row = 0; row < DEPTH; row++) {
+                min = Math.min(min, counters[row][indexOf(hash, row)]);
+            }
+            return min;
+        }
+
+        private void reset() {
+            for (byte[] row : counters) {
+                for (int i = 0; i < row.length; i++) {
+                    row[i] = (byte) (row[i] >>> 1);
+                }
+            }
+            additions /= 2;
+        }
+
+        private int indexOf(int hash, int row) {
+            int h = (hash ^ SEEDS[row]) * SEEDS[(row + 1) % DEPTH];
+            return (h ^ (h >>> 16)) & mask;
+        }
+
+        private static int spread(int hash) {
+            hash ^= hash >>> 16;
+            hash *= 0x45D9F3B;
+            return hash ^ (hash >>> 16);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package services;
+
+import models.LibraryItem;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * How LibraryCatalogue will answer a CatalogueQuery: which index gives the
+ * candidate items, about how many candidates that is, and which conditions
+ * are then checked on each candidate.
+ */
+public class QueryPlan {
+
+    /**
+     * Something that can list the candidate items for a query
+     */
+    interface CandidateSource {
+        void forEach(Consumer<LibraryItem> action);
+    }
+
+    private final String indexName;
+    private final int estimatedCandidates;
+    private final List<String> coveredConditions;
+    private final List<String> remainingConditions;
+    private final CandidateSource candidates;
+
+    QueryPlan(String indexName, int estimatedCandidates, List<String> coveredConditions,
+              List<String> remainingConditions, CandidateSource candidates) {
+        this.indexName = indexName;
+        this.estimatedCandidates = estimatedCandidates;
+        this.coveredConditions = coveredConditions;
+        this.remainingConditions = remainingConditions;
+        this.candidates = candidates;
+    }
+
+    /**
+     * Get the name of the index used (or "full scan")
+     */
+    public String getIndexName() {
+        return indexName;
+    }
+
+    /**
+     * Get about how many items the index gives, before the other conditions are checked
+     */
+    public int getEstimatedCandidates() {
+        return estimatedCandidates;
+    }
+
+    /**
+     * Get the conditions the index already takes care of
+     */
+    public List<String> getCoveredConditions() {
+        return coveredConditions;
+    }
+
+    /**
+     * Get the conditions that are checked on each candidate
+     */
+    public List<String> getRemainingConditions() {
+        return remainingConditions;
+    }
+
+    /**
+     * Pass each candidate item to action
+     */
+    void forEachCandidate(Consumer<LibraryItem> action) {
+        candidates.forEach(action);
+    }
+
+    @Override
+    public String toString() {
+        return "Use " + indexName + " (about " + estimatedCandidates + " candidates)"
+                + (remainingConditions.isEmpty() ? "" : ", then check " + String.join(", ", remainingConditions));
+    }
+}
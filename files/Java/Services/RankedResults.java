@@ -0,0 +1,49 @@
+package services;
+
+import models.LibraryItem;
+import java.util.List;
+
+/**
+ * The best page of a ranked search, plus how many items matched in total
+ */
+public class RankedResults {
+    private final List<LibraryItem> items;
+    private final int matchCount;
+    private final boolean matchCountExact;
+
+    RankedResults(List<LibraryItem> items, int matchCount, boolean matchCountExact) {
+        this.items = items;
+        this.matchCount = matchCount;
+        this.matchCountExact = matchCountExact;
+    }
+
+    /**
+     * Get the best matches, best first
+     */
+    public List<LibraryItem> getItems() {
+        return items;
+    }
+
+    /**
+     * Get the number of items that matched. If the search stopped early
+     * (see isMatchCountExact) this is only how many it had found by then.
+     */
+    public int getMatchCount() {
+        return matchCount;
+    }
+
+    /**
+     * Check if getMatchCount() is the real total. It isn't when the search
+     * stopped early because the weaker matches could not make the page.
+     */
+    public boolean isMatchCountExact() {
+        return matchCountExact;
+    }
+
+    /**
+     * Check if nothing matched
+     */
+    public boolean isEmpty() {
+        return items.isEmpty();
+    }
+}
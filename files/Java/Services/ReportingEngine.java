@@ -0,0 +1,188 @@
+package services;
+
+import models.LibraryItem;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Makes a LibraryReport (items, availability, overdue loans and fees per
+ * category) in one pass over the items and loans, using every core.
+ *
+ * The items and loans are treated as one long list, which is split in
+ * half again and again (fork/join) until the pieces are LEAF_SIZE long.
+ * Each piece is added up by one worker thread into its own totals, with
+ * no sharing and no locks, and the totals of two halves are combined when
+ * both are done. With millions of items the work spreads evenly over the
+ * cores, and only the (few) per-category totals are ever combined.
+ *
+ * The report can be made from the live services (the items and loans are
+ * copied first, see BorrowingService.snapshotLoans) or from a snapshot.
+ */
+public class ReportingEngine {
+    // The number of items or loans one worker adds up on its own
+    private static final int LEAF_SIZE = 16 * 1024;
+
+    private final ForkJoinPool pool;
+
+    private static final LibraryMetrics.Operation REPORT_METRICS = LibraryMetrics.operation("reporting.report");
+
+    /**
+     * Create an engine that uses the shared fork/join pool (one thread per core)
+     */
+    public ReportingEngine() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Create an engine that runs on the given pool
+     */
+    public ReportingEngine(ForkJoinPool pool) {
+        if (pool == null) {
+            throw new IllegalArgumentException("Pool cannot be null");
+        }
+        this.pool = pool;
+    }
+
+    /**
+     * Make a report from the live catalogue and the loans of one or more borrowing services
+     */
+    public LibraryReport report(LibraryCatalogue catalogue, BorrowingService... borrowingServices) {
+        if (catalogue == null) {
+            throw new IllegalArgumentException("Catalogue cannot be null");
+        }
+        LoanSnapshot[] loans = new LoanSnapshot[borrowingServices.length];
+        for (int i = 0; i < borrowingServices.length; i++) {
+            loans[i] = borrowingServices[i].snapshotLoans();
+        }
+        return report(catalogue.getAllItems(), loans);
+    }
+
+    /**
+     * Make a report from a list of items and snapshots of the loans.
+     * The overdue loans and fees are worked out for the day of the first snapshot.
+     */
+    public LibraryReport report(List<LibraryItem> items, LoanSnapshot... loans) {
+        long start = System.nanoTime();
+        try {
+            if (items == null) {
+                throw new IllegalArgumentException("Items cannot be null");
+            }
+            long total = items.size();
+            for (LoanSnapshot snapshot : loans) {
+                total += snapshot.size();
+            }
+            if (total > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Too many items and loans for one report");
+            }
+
+            // One row per category search key, the same grouping as the catalogue's category
+            // index, so "Science" and " science" go in one row
+            Map<String, LibraryReport.CategoryTotals> totals =
+                    pool.invoke(new ReportTask(items, loans, 0, (int) total));
+            List<String> keys = new ArrayList<>(totals.keySet());
+            keys.sort(null);
+            List<LibraryReport.CategoryTotals> rows = new ArrayList<>(keys.size());
+            for (String key : keys) {
+                rows.add(totals.get(key));
+            }
+
+            long day = loans.length == 0 ? LibraryClock.SYSTEM.today() : loans[0].getToday();
+            return new LibraryReport(rows, day, (System.nanoTime() - start) / 1_000_000);
+        } finally {
+            REPORT_METRICS.recordSince(start);
+        }
+    }
+
+    /**
+     * Adds up the rows from "from" to "to" of the items followed by all the loans
+     */
+    private static class ReportTask extends RecursiveTask<Map<String, LibraryReport.CategoryTotals>> {
+        // Tasks are never serialized, but RecursiveTask is Serializable
+        private static final long serialVersionUID = 1L;
+
+        private final List<LibraryItem> items;
+        private final LoanSnapshot[] loans;
+        private final int from;
+        private final int to;
+
+        ReportTask(List<LibraryItem> items, LoanSnapshot[] loans, int from, int to) {
+            this.items = items;
+            this.loans = loans;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Map<String, LibraryReport.CategoryTotals> compute() {
+            if (to - from <= LEAF_SIZE) {
+                return addUp();
+            }
+            // Hand one half to another worker, do the other half here, then combine
+            int middle = (from + to) >>> 1;
+            ReportTask left = new ReportTask(items, loans, from, middle);
+            left.fork();
+            Map<String, LibraryReport.CategoryTotals> right = new ReportTask(items, loans, middle, to).compute();
+            Map<String, LibraryReport.CategoryTotals> combined = left.join();
+            for (Map.Entry<String, LibraryReport.CategoryTotals> category : right.entrySet()) {
+                LibraryReport.CategoryTotals existing = combined.putIfAbsent(category.getKey(), category.getValue());
+                if (existing != null) {
+                    existing.add(category.getValue());
+                }
+            }
+            return combined;
+        }
+
+        /**
+         * Add up this task's rows into its own totals
+         */
+        private Map<String, LibraryReport.CategoryTotals> addUp() {
+            Map<String, LibraryReport.CategoryTotals> totals = new HashMap<>();
+
+            // The items come first...
+            int itemEnd = Math.min(to, items.size());
+            for (int row = from; row < itemEnd; row++) {
+                LibraryItem item = items.get(row);
+                LibraryReport.CategoryTotals category = totalsFor(totals, item);
+                category.itemCount++;
+                if (item.isAvailable()) {
+                    category.availableCount++;
+                }
+            }
+
+            // ...then the loans of each snapshot in turn
+            int offset = items.size();
+            for (LoanSnapshot snapshot : loans) {
+                int first = Math.max(from, offset) - offset;
+                int end = Math.min(to, offset + snapshot.size()) - offset;
+                for (int row = first; row < end; row++) {
+                    LibraryReport.CategoryTotals category = totalsFor(totals, snapshot.itemAt(row));
+                    category.onLoanCount++;
+                    if (snapshot.dueDayAt(row) < snapshot.getToday()) {
+                        category.overdueCount++;
+                        category.feesOwedPence += Math.round(snapshot.feeAt(row) * 100);
+                    }
+                }
+                offset += snapshot.size();
+            }
+            return totals;
+        }
+
+        /**
+         * Get the totals for an item's category, keyed by its search key (see LibraryItem.getCategoryKey)
+         */
+        private static LibraryReport.CategoryTotals totalsFor(Map<String, LibraryReport.CategoryTotals> totals,
+                                                              LibraryItem item) {
+            String key = item.getCategoryKey();
+            LibraryReport.CategoryTotals categoryTotals = totals.get(key);
+            if (categoryTotals == null) {
+                categoryTotals = new LibraryReport.CategoryTotals(item.getCategory().trim());
+                totals.put(key, categoryTotals);
+            }
+            return categoryTotals;
+        }
+    }
+}
@@ -0,0 +1,314 @@
+package services;
+
+import models.LibraryItem;
+import models.Member;
+import models.Staff;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Splits members and their loans into several independent shards.
+ *
+ * A member always lives in the shard picked by shardFor(membershipId), and
+ * their loans are kept in that same shard. Each shard has its own
+ * MemberService and BorrowingService (and so its own lock), so checkouts
+ * for members in different shards never wait for each other.
+ *
+ * Items are shared by all shards. An item is claimed with
+ * LibraryItem.tryCheckOut(), so it can only be on loan in one shard at a time,
+ * and all shards count their borrows in one CirculationStats, so the borrow
+ * counts and trending lists cover every item whichever shard lent it out.
+ *
+ * Shards never refer to each other, and shardFor() only depends on the ID and
+ * the shard count, so a shard could later be moved into its own process.
+ */
+public class ShardedLibraryService {
+    private final Shard[] shards;
+
+    // Borrow counts and trending items for all shards together
+    private final CirculationStats circulation;
+
+    // Membership IDs are handed out here so they are unique across all shards
+    private final AtomicInteger nextMembershipId = new AtomicInteger(1001);
+
+    /**
+     * Create a service with the given number of empty shards
+     */
+    public ShardedLibraryService(int shardCount) {
+        this(shardCount, LibraryClock.SYSTEM);
+    }
+
+    /**
+     * Create a service with the given number of empty shards, all using one clock
+     */
+    public ShardedLibraryService(int shardCount, LibraryClock clock) {
+        this(shardCount, clock, LoanPolicyEngine.defaults());
+    }
+
+    /**
+     * Create a service with the given number of empty shards, all using one clock and one set of rules
+     */
+    public ShardedLibraryService(int shardCount, LibraryClock clock, LoanPolicyEngine policies) {
+        if (shardCount <= 0) {
+            throw new IllegalArgumentException("Shard count must be positive");
+        }
+        circulation = new CirculationStats(clock);
+        shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard(i, clock, policies, circulation);
+        }
+    }
+
+    /**
+     * Work out which shard a membership ID belongs to
+     */
+    public static int shardFor(int membershipId, int shardCount) {
+        // Mix the bits first so consecutive IDs spread evenly over the shards
+        int hash = membershipId * 0x9E3779B9;
+        hash ^= hash >>> 16;
+        return Math.floorMod(hash, shardCount);
+    }
+
+    /**
+     * Get the number of shards
+     */
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    /**
+     * Get the borrow counts and trending items (shared by all shards)
+     */
+    public CirculationStats getCirculationStats() {
+        return circulation;
+    }
+
+    /**
+     * Get one shard by its number
+     */
+    public Shard getShard(int index) {
+        return shards[index];
+    }
+
+    /**
+     * Get the shard that holds a member and their loans
+     */
+    public Shard shardOf(int membershipId) {
+        return shards[shardFor(membershipId, shards.length)];
+    }
+
+    // ===== MEMBERS =====
+
+    /**
+     * Register a new member with an automatically generated ID
+     */
+    public Member registerMember(String name, String contactInfo) {
+        Member member = new Member(name, nextMembershipId.getAndIncrement(), contactInfo);
+        shardOf(member.getMembershipId()).getMemberService().registerMember(member);
+        return member;
+    }
+
+    /**
+     * Register a member (or staff member) that already has an ID
+     */
+    public void registerMember(Member member) {
+        if (member == null) {
+            throw new IllegalArgumentException("Member cannot be null");
+        }
+        shardOf(member.getMembershipId()).getMemberService().registerMember(member);
+
+        // Make sure generated IDs stay ahead of any manually assigned IDs
+        nextMembershipId.accumulateAndGet(member.getMembershipId() + 1, Math::max);
+    }
+
+    /**
+     * Remove a member by their ID
+     */
+    public void removeMemberById(int membershipId) {
+        shardOf(membershipId).getMemberService().removeMemberById(membershipId);
+    }
+
+    /**
+     * Find a member by their ID (only the member's own shard is searched)
+     */
+    public Member findMemberById(int membershipId) {
+        return shardOf(membershipId).getMemberService().findMemberById(membershipId);
+    }
+
+    /**
+     * Search all shards for members by name, results in ID order
+     */
+    public List<Member> searchMembersByName(String name) {
+        List<Member> results = new ArrayList<>();
+        for (Shard shard : shards) {
+            results.addAll(shard.getMemberService().searchMembersByName(name));
+        }
+        results.sort(Comparator.comparingInt(Member::getMembershipId));
+        return results;
+    }
+
+    /**
+     * Get every member from every shard, in ID order
+     */
+    public ArrayList<Member> getAllMembers() {
+        ArrayList<Member> all = new ArrayList<>();
+        for (Shard shard : shards) {
+            all.addAll(shard.getMemberService().getAllMembers());
+        }
+        all.sort(Comparator.comparingInt(Member::getMembershipId));
+        return all;
+    }
+
+    /**
+     * Get the total number of members in all shards
+     */
+    public int getMemberCount() {
+        int count = 0;
+        for (Shard shard : shards) {
+            count += shard.getMemberService().getMemberCount();
+        }
+        return count;
+    }
+
+    /**
+     * Display all members from every shard as one list
+     */
+    public void listMembers() {
+        List<Member> all = getAllMembers();
+        if (all.isEmpty()) {
+            System.out.println("No members registered.");
+            return;
+        }
+
+        // Build the list as text and print it in one go
+        StringBuilder text = new StringBuilder(64 + all.size() * 80);
+        text.append("\n----- LIBRARY MEMBERS -----\n");
+        try {
+            for (Member member : all) {
+                if (member instanceof Staff) {
+                    Staff staffMember = (Staff) member;
+                    text.append("STAFF: ").append(member.getName()).append(" | ID: ").append(member.getMembershipId())
+                            .append(" | Contact: ").append(member.getContactInfo())
+                            .append(" | Role: ").append(staffMember.getStaffRole()).append('\n');
+                } else {
+                    member.renderTo(text);
+                }
+            }
+        } catch (IOException e) {
+            // Can't happen - a StringBuilder never throws
+            throw new UncheckedIOException(e);
+        }
+        text.append("---------------------------\n\n");
+        System.out.print(text);
+    }
+
+    // ===== BORROWING =====
+
+    /**
+     * Let a member borrow an item (handled by the member's shard).
+     * Returns true if the item was lent to them.
+     */
+    public boolean borrowItem(Member member, LibraryItem item) {
+        return loansFor(member).borrowItem(member, item);
+    }
+
+    /**
+     * Process a member returning an item (handled by the member's shard).
+     * Returns true if the member had the item and it has now been returned.
+     */
+    public boolean returnItem(Member member, LibraryItem item) {
+        return loansFor(member).returnItem(member, item);
+    }
+
+    /**
+     * Process the return of an item without knowing who borrowed it.
+     * Items are not partitioned, so each shard is asked in turn.
+     * Returns true if the item was on loan and has now been returned.
+     */
+    public boolean returnItem(LibraryItem item) {
+        if (item == null) {
+            throw new IllegalArgumentException("Item cannot be null");
+        }
+        Member borrower = getBorrower(item);
+        if (borrower == null) {
+            System.out.println("'" + item.getTitle() + "' is not currently on loan.");
+            return false;
+        }
+        return returnItem(borrower, item);
+    }
+
+    /**
+     * Get the member who currently has an item (from whichever shard holds the loan)
+     */
+    public Member getBorrower(LibraryItem item) {
+        for (Shard shard : shards) {
+            Member borrower = shard.getBorrowingService().getBorrower(item);
+            if (borrower != null) {
+                return borrower;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Display all items borrowed by a member
+     */
+    public void displayBorrowedItems(Member member) {
+        loansFor(member).displayBorrowedItems(member);
+    }
+
+    /**
+     * Get all items borrowed by a member, with their due days (days since 1970)
+     */
+    public Map<LibraryItem, Long> getBorrowedItems(Member member) {
+        return loansFor(member).getBorrowedItems(member);
+    }
+
+    /**
+     * Check if a member has borrowed a specific item
+     */
+    public boolean hasBorrowedItem(Member member, LibraryItem item) {
+        return loansFor(member).hasBorrowedItem(member, item);
+    }
+
+    /**
+     * Get the borrowing service of the member's shard
+     */
+    private BorrowingService loansFor(Member member) {
+        if (member == null) {
+            throw new IllegalArgumentException("Member cannot be null");
+        }
+        return shardOf(member.getMembershipId()).getBorrowingService();
+    }
+
+    /**
+     * One shard: the members it owns and their loans
+     */
+    public static class Shard {
+        private final int index;
+        private final MemberService memberService = new MemberService();
+        private final BorrowingService borrowingService;
+
+        Shard(int index, LibraryClock clock, LoanPolicyEngine policies, CirculationStats circulation) {
+            this.index = index;
+            this.borrowingService = new BorrowingService(clock, policies, new LoanTable(64), circulation);
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public MemberService getMemberService() {
+            return memberService;
+        }
+
+        public BorrowingService getBorrowingService() {
+            return borrowingService;
+        }
+    }
+}
@@ -0,0 +1,407 @@
+package services;
+
+import models.Book;
+import models.LibraryItem;
+import models.Magazine;
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Who holds each item, kept in a memory-mapped file so several worker
+ * processes on the same computer can lend out the same items without a
+ * database. Give each process's BorrowingService the same file (see
+ * BorrowingService.setSharedState) and an item can only be on loan to one
+ * member at a time, whichever process lent it out.
+ *
+ * The file is a 64 byte header (magic number, format version and the
+ * number of item IDs it has room for) followed by a 24 byte record per
+ * item ID:
+ * - the loan word: the holder's membership ID in the top 32 bits and the
+ *   due day in the bottom 32 (0 means the item is not on loan)
+ * - the borrow time, in milliseconds since 1970
+ * - the fingerprint of the item the ID belongs to (see fingerprintOf),
+ *   or 0 if it has never been lent out
+ *
+ * Item IDs are handed out in the order a process creates its items, so the
+ * processes only agree on what an ID means if they all add the same items
+ * in the same order. The first claim of an ID writes the item's fingerprint
+ * (its type, title, author, publication day and ISBN or issue number) into
+ * its record, and every later claim checks it: a process whose items don't
+ * line up with the others gets an error instead of lending out the wrong
+ * item. Copies of the same edition can't be told apart this way. (open()
+ * checks the header, so a file written in the older format without
+ * fingerprints is refused.)
+ *
+ * Every process maps the file into its memory, and the operating system
+ * shows them all the same pages. Items are claimed and given back with a
+ * compare-and-set on the loan word (through a VarHandle), so two processes
+ * can never both claim the same item, and the holder and due day always
+ * change together in one step.
+ *
+ * Because every change is a single 8 byte write to the shared pages, a
+ * worker that crashes at any moment leaves each item either on loan or
+ * free, never half-changed, and the other workers carry on from there.
+ * (The borrow time is written just after the claim, so a crash in between
+ * leaves a loan with an out of date borrow time.) force() also writes the
+ * pages to disk, which keeps the loans if the whole computer goes down;
+ * close() does this too.
+ */
+public class SharedLoanState implements Closeable {
+    // "LOAN". The file is only ever shared on one computer, so it uses that computer's byte order.
+    private static final int MAGIC = 0x4C4F414E;
+    private static final int VERSION = 2;
+    private static final int HEADER_BYTES = 64;
+    private static final int MAGIC_AT = 0;
+    private static final int VERSION_AT = 4;
+    private static final int CAPACITY_AT = 8;
+
+    private static final int RECORD_BYTES = 24;
+    private static final int LOAN_WORD = 0;
+    private static final int BORROW_TIME = 8;
+    private static final int FINGERPRINT = 16;
+
+    // The most item IDs one mapping can hold
+    public static final int MAX_CAPACITY = (Integer.MAX_VALUE - HEADER_BYTES) / RECORD_BYTES;
+
+    private static final VarHandle INT = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+    private static final VarHandle LONG = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private final Path file;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+
+    private SharedLoanState(Path file, FileChannel channel, MappedByteBuffer buffer, int capacity) {
+        this.file = file;
+        this.channel = channel;
+        this.buffer = buffer;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Open a state file, creating it with room for item IDs below capacity
+     * if it doesn't exist yet. Every process must use the same capacity.
+     */
+    public static SharedLoanState open(Path file, int capacity) throws IOException {
+        if (capacity <= 0 || capacity > MAX_CAPACITY) {
+            throw new IllegalArgumentException("Capacity must be between 1 and " + MAX_CAPACITY);
+        }
+        long size = HEADER_BYTES + (long) capacity * RECORD_BYTES;
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            MappedByteBuffer buffer;
+            // Only one process sets up or checks the header at a time
+            FileLock lock = channel.lock();
+            try {
+                boolean isNew = readMagic(channel) != MAGIC;
+                if (isNew && channel.size() > 0) {
+                    if (!isUnfinished(channel, capacity)) {
+                        throw new IOException(file + " is not a loan state file");
+                    }
+                    // A process crashed while creating the file (the magic number is written
+                    // last), so no loans were ever made in it - start again from empty
+                    channel.truncate(0);
+                }
+                if (channel.size() < size) {
+                    // Grows the file; the new part reads as zeros, which means "not on loan"
+                    channel.write(ByteBuffer.allocate(1), size - 1);
+                }
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                buffer.order(ByteOrder.nativeOrder());
+
+                if (isNew) {
+                    INT.set(buffer, VERSION_AT, VERSION);
+                    INT.set(buffer, CAPACITY_AT, capacity);
+                    buffer.force();
+                    INT.setVolatile(buffer, MAGIC_AT, MAGIC);
+                    buffer.force();
+                } else {
+                    int version = (int) INT.get(buffer, VERSION_AT);
+                    int fileCapacity = (int) INT.get(buffer, CAPACITY_AT);
+                    if (version != VERSION) {
+                        throw new IOException(file + " has state file version " + version
+                                + ", expected " + VERSION);
+                    }
+                    if (fileCapacity != capacity) {
+                        throw new IOException(file + " has room for " + fileCapacity
+                                + " items, but " + capacity + " were asked for");
+                    }
+                }
+            } finally {
+                lock.release();
+            }
+            return new SharedLoanState(file, channel, buffer, capacity);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Lend an item to a member, unless somebody (in any process) already has it.
+     * Returns true if the member now holds the item.
+     * Throws an exception if the file has no record for the item, or if its
+     * record belongs to a different item in another process.
+     */
+    public boolean tryClaim(LibraryItem item, int memberId, long dueDay, long borrowTime) {
+        if (memberId <= 0) {
+            throw new IllegalArgumentException("Membership ID must be positive");
+        }
+        int itemId = item.getItemId();
+        int at = offsetOf(itemId);
+
+        // The first claim of an ID says which item it is; later ones must be the same item
+        long fingerprint = fingerprintOf(item);
+        if (!LONG.compareAndSet(buffer, at + FINGERPRINT, 0L, fingerprint)
+                && (long) LONG.getVolatile(buffer, at + FINGERPRINT) != fingerprint) {
+            throw new IllegalArgumentException("Item ID " + itemId + " ('" + item.getTitle() + "') is a different"
+                    + " item in " + file + " - every process must add the same items in the same order");
+        }
+
+        long loan = ((long) memberId << 32) | (dueDay & 0xFFFFFFFFL);
+        if (!LONG.compareAndSet(buffer, at + LOAN_WORD, 0L, loan)) {
+            return false;
+        }
+        LONG.setRelease(buffer, at + BORROW_TIME, borrowTime);
+        return true;
+    }
+
+    /**
+     * Give back an item the member holds. Returns the loan that ended, or
+     * null (changing nothing) if the member doesn't hold the item.
+     */
+    public Holding release(int itemId, int memberId) {
+        if (!fits(itemId)) {
+            return null;
+        }
+        int at = offsetOf(itemId);
+        while (true) {
+            long loan = (long) LONG.getVolatile(buffer, at + LOAN_WORD);
+            if (loan == 0 || holderOf(loan) != memberId) {
+                return null;
+            }
+            // Read the borrow time before the item is freed (and someone else could claim it)
+            long borrowTime = (long) LONG.getAcquire(buffer, at + BORROW_TIME);
+            if (LONG.compareAndSet(buffer, at + LOAN_WORD, loan, 0L)) {
+                return new Holding(memberId, dueDayOf(loan), borrowTime);
+            }
+            // Another process changed the loan in between - read it again
+        }
+    }
+
+    /**
+     * Get who holds an item and when it is due, or null if it isn't on loan
+     */
+    public Holding holdingOf(int itemId) {
+        if (!fits(itemId)) {
+            return null;
+        }
+        int at = offsetOf(itemId);
+        long loan = (long) LONG.getVolatile(buffer, at + LOAN_WORD);
+        if (loan == 0) {
+            return null;
+        }
+        return new Holding(holderOf(loan), dueDayOf(loan), (long) LONG.getAcquire(buffer, at + BORROW_TIME));
+    }
+
+    /**
+     * Check if an item is on loan in any process
+     */
+    public boolean isOnLoan(int itemId) {
+        return fits(itemId) && (long) LONG.getVolatile(buffer, offsetOf(itemId) + LOAN_WORD) != 0;
+    }
+
+    /**
+     * Count the items on loan (looks at every record)
+     */
+    public int countLoans() {
+        int count = 0;
+        for (int itemId = 0; itemId < capacity; itemId++) {
+            if ((long) LONG.getVolatile(buffer, HEADER_BYTES + itemId * RECORD_BYTES + LOAN_WORD) != 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Get the number of item IDs the file has room for (IDs 0 to capacity - 1)
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Write the current state to disk
+     */
+    public void force() {
+        buffer.force();
+    }
+
+    /**
+     * Write the state to disk and close the file. The mapping itself is
+     * released once the garbage collector frees this object.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            force();
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Read the magic number at the start of the file (0 if the file is too short)
+     */
+    private static int readMagic(FileChannel channel) throws IOException {
+        ByteBuffer magic = ByteBuffer.allocate(Integer.BYTES).order(ByteOrder.nativeOrder());
+        while (magic.hasRemaining() && channel.read(magic, MAGIC_AT + magic.position()) > 0) {
+            // Keep reading until all four bytes are in
+        }
+        return magic.hasRemaining() ? 0 : magic.getInt(0);
+    }
+
+    /**
+     * Check if a file without the magic number is one that open() started
+     * creating and never finished: it is either no longer than the header or
+     * exactly the size it was being given, and every byte is 0 apart from the
+     * version and capacity in the header. Any other file is left alone, so
+     * pointing a process at the wrong file can't wipe it.
+     */
+    private static boolean isUnfinished(FileChannel channel, int capacity) throws IOException {
+        long size = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.nativeOrder());
+        while (header.hasRemaining() && channel.read(header, header.position()) > 0) {
+            // Keep reading until the whole header (or file) is in
+        }
+        int version = header.getInt(VERSION_AT);
+        int fileCapacity = header.getInt(CAPACITY_AT);
+        if (version != 0 && version != VERSION) {
+            return false;
+        }
+        for (int i = 0; i < HEADER_BYTES; i += Integer.BYTES) {
+            if (i != VERSION_AT && i != CAPACITY_AT && header.getInt(i) != 0) {
+                return false;
+            }
+        }
+        if (size > HEADER_BYTES) {
+            long expected = HEADER_BYTES + (long) (fileCapacity > 0 ? fileCapacity : capacity) * RECORD_BYTES;
+            if (size != expected) {
+                return false;
+            }
+        }
+
+        // No loans can have been made before the magic number was written
+        ByteBuffer chunk = ByteBuffer.allocate(1 << 16);
+        for (long at = HEADER_BYTES; at < size; at += chunk.limit()) {
+            chunk.clear();
+            if (channel.read(chunk, at) <= 0) {
+                return false;
+            }
+            chunk.flip();
+            while (chunk.hasRemaining()) {
+                if (chunk.get() != 0) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Work out an item's fingerprint from the details that are the same in
+     * every process (unlike its item ID): its type, title, author and
+     * publication day, plus the ISBN of a book or the issue number of a
+     * magazine. Never 0, which means "no item" in the file.
+     *
+     * Two copies of the same edition have the same fingerprint, so a process
+     * that adds copies in a different order than the others is not caught.
+     */
+    public static long fingerprintOf(LibraryItem item) {
+        String details = item.getClass().getName() + "|" + item.getTitleKey() + "|" + item.getAuthorKey()
+                + "|" + item.getPublicationDay();
+        if (item instanceof Book) {
+            details += "|" + ((Book) item).getISBN();
+        } else if (item instanceof Magazine) {
+            details += "|" + ((Magazine) item).getIssueNumber();
+        }
+
+        // 64 bit FNV-1a hash of the characters
+        long hash = 0xCBF29CE484222325L;
+        for (int i = 0; i < details.length(); i++) {
+            hash = (hash ^ details.charAt(i)) * 0x100000001B3L;
+        }
+        return hash == 0 ? 1 : hash;
+    }
+
+    /**
+     * Check if the file has a record for an item ID (items outside it can't be lent out)
+     */
+    public boolean fits(int itemId) {
+        return itemId >= 0 && itemId < capacity;
+    }
+
+    private int offsetOf(int itemId) {
+        if (!fits(itemId)) {
+            throw new IllegalArgumentException("Item ID " + itemId + " is outside the state file (capacity "
+                    + capacity + ")");
+        }
+        return HEADER_BYTES + itemId * RECORD_BYTES;
+    }
+
+    private static int holderOf(long loan) {
+        return (int) (loan >>> 32);
+    }
+
+    private static long dueDayOf(long loan) {
+        return (int) loan;
+    }
+
+    /**
+     * One item's loan, as stored in the state file
+     */
+    public static class Holding {
+        private final int memberId;
+        private final long dueDay;
+        private final long borrowTime;
+
+        Holding(int memberId, long dueDay, long borrowTime) {
+            this.memberId = memberId;
+            this.dueDay = dueDay;
+            this.borrowTime = borrowTime;
+        }
+
+        public int getMemberId() {
+            return memberId;
+        }
+
+        /**
+         * Get the day the item is due back (days since 1970)
+         */
+        public long getDueDay() {
+            return dueDay;
+        }
+
+        /**
+         * Get when the item was borrowed, in milliseconds since 1970
+         */
+        public long getBorrowTime() {
+            return borrowTime;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package services;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Keeps only the best k of all the values offered to it.
+ *
+ * The values are held in a heap with the worst one on top, so a new value
+ * only has to be compared with that one: if it isn't better, it is dropped
+ * straight away, otherwise it replaces the worst. Picking the best k of n
+ * values costs O(n log k) time and O(k) memory, instead of sorting all n.
+ *
+ * This class is not thread-safe.
+ */
+public class TopK<T> {
+    private final int k;
+    private final Comparator<? super T> order;
+    private final PriorityQueue<T> heap;
+
+    /**
+     * Create a collector for the best k values. order sorts the best values first.
+     */
+    public TopK(int k, Comparator<? super T> order) {
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be at least 1");
+        }
+        this.k = k;
+        this.order = order;
+        // Reversed, so the worst of the values kept is at the top of the heap
+        this.heap = new PriorityQueue<>(k, order.reversed());
+    }
+
+    /**
+     * Offer a value. Returns true if it is (for now) one of the best k.
+     */
+    public boolean offer(T value) {
+        if (heap.size() < k) {
+            heap.add(value);
+            return true;
+        }
+        if (order.compare(value, heap.peek()) >= 0) {
+            return false;
+        }
+        heap.poll();
+        heap.add(value);
+        return true;
+    }
+
+    /**
+     * Check if k values have been kept already, so new values must beat the worst of them
+     */
+    public boolean isFull() {
+        return heap.size() == k;
+    }
+
+    /**
+     * Get the worst of the values kept, or null if there are none
+     */
+    public T worst() {
+        return heap.peek();
+    }
+
+    /**
+     * Get the number of values kept (at most k)
+     */
+    public int size() {
+        return heap.size();
+    }
+
+    /**
+     * Get the values kept, best first
+     */
+    public List<T> toSortedList() {
+        List<T> sorted = new ArrayList<>(heap);
+        sorted.sort(order);
+        return sorted;
+    }
+}
@@ -0,0 +1,441 @@
+package tools;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+
+import models.*;
+import services.*;
+
+/**
+ * Hammers BorrowingService from many threads at once and checks that it
+ * never gets into an impossible state.
+ *
+ * Every thread borrows, returns and checks a small "hot" set of items, so
+ * threads collide all the time. The work is done in short rounds; between
+ * rounds all threads stop, and the checker looks at two things:
+ *
+ * 1. The state right now: no item is held by two members, isAvailable()
+ *    agrees with the loan records, and every member's loan count matches
+ *    the loans they really have (nothing lost or counted twice).
+ *
+ * 2. The history of the round: every call's start time, end time and
+ *    answer is recorded. For each item, the checker searches for an order
+ *    of the calls that respects their timing and would give exactly those
+ *    answers if they had happened one at a time ("linearizability").
+ *    If no such order exists, two calls really did interfere.
+ *
+ * It prints the failing history and exits with status 1 if a check fails,
+ * so it can be run from a build script.
+ *
+ * Usage: java tools.BorrowingStressTest [--threads 8] [--items 4] [--members 6]
+ *            [--ops-per-round 8] [--seconds 10] [--limit 0] [--seed 1]
+ *
+ * --limit n gives every member a loan limit of n, so the loan counters are
+ * checked too. A borrow may then also be refused because of the limit, so
+ * failed borrows are not checked against the item history.
+ */
+public class BorrowingStressTest {
+    // The checker tracks linearized calls in a 64-bit mask, so a round can't have more calls than this
+    private static final int MAX_OPERATIONS_PER_ROUND = 64;
+    private static final int NOBODY = -1;
+    // Returned by the model when a call's answer can't happen in the current state
+    private static final int IMPOSSIBLE = -2;
+
+    // The kinds of call a thread can make
+    private static final int BORROW = 0;
+    private static final int RETURN = 1;
+    private static final int RETURN_BY_ITEM = 2;
+    private static final int HAS_BORROWED = 3;
+    private static final String[] OPERATION_NAMES = {"borrow", "return", "return by item", "has borrowed"};
+
+    private final int threadCount;
+    private final int operationsPerRound;
+    private final long deadlineNanos;
+    private final int loanLimit;
+    private final long seed;
+
+    private final BorrowingService service;
+    private final Member[] members;
+    private final LibraryItem[] items;
+
+    // Who held each item at the end of the last round (the starting point for the next check)
+    private final int[] holderAtRoundStart;
+
+    // Each thread's calls in the current round
+    private final List<List<Operation>> histories = new ArrayList<>();
+
+    private final CyclicBarrier barrier;
+    private volatile boolean stop;
+    private volatile String failure;
+    private long rounds;
+    private long operations;
+
+    public BorrowingStressTest(int threadCount, int itemCount, int memberCount, int operationsPerRound,
+                               long seconds, int loanLimit, long seed) {
+        if (threadCount * operationsPerRound > MAX_OPERATIONS_PER_ROUND) {
+            throw new IllegalArgumentException("threads x ops-per-round must be at most " + MAX_OPERATIONS_PER_ROUND);
+        }
+        this.threadCount = threadCount;
+        this.operationsPerRound = operationsPerRound;
+        this.deadlineNanos = System.nanoTime() + seconds * 1_000_000_000L;
+        this.loanLimit = loanLimit;
+        this.seed = seed;
+
+        LoanPolicy policy = loanLimit > 0
+                ? new LoanPolicy(14, 0.50, LoanPolicy.NO_FEE_CAP, loanLimit)
+                : LoanPolicy.DEFAULT;
+        service = new BorrowingService(LibraryClock.SYSTEM, new LoanPolicyEngine.Builder(policy).build());
+
+        members = new Member[memberCount];
+        for (int i = 0; i < memberCount; i++) {
+            members[i] = new Member("Member " + i, 1001 + i, "member" + i + "@email.com");
+        }
+        items = new LibraryItem[itemCount];
+        for (int i = 0; i < itemCount; i++) {
+            items[i] = new Book("Hot Item " + i, "Author", "ISBN-" + i, new Date(), "Fiction");
+        }
+        holderAtRoundStart = new int[itemCount];
+        Arrays.fill(holderAtRoundStart, NOBODY);
+
+        for (int i = 0; i < threadCount; i++) {
+            histories.add(new ArrayList<>());
+        }
+        // The barrier action runs once all threads have stopped, so the service is quiet while it checks
+        barrier = new CyclicBarrier(threadCount, this::checkRound);
+    }
+
+    /**
+     * Run until the time is up or a check fails. Returns null if everything
+     * passed, or a description of the first failure.
+     */
+    public String run() throws InterruptedException {
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < threadCount; i++) {
+            int threadNumber = i;
+            threads.add(new Thread(() -> work(threadNumber), "stress-" + i));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return failure;
+    }
+
+    private void work(int threadNumber) {
+        Random random = new Random(seed * 31 + threadNumber);
+        List<Operation> history = histories.get(threadNumber);
+        try {
+            while (!stop) {
+                for (int n = 0; n < operationsPerRound; n++) {
+                    history.add(callService(random));
+                }
+                barrier.await();
+            }
+        } catch (InterruptedException | BrokenBarrierException e) {
+            stop = true;
+        }
+    }
+
+    /**
+     * Make one random call and record when it started, when it ended and what it answered
+     */
+    private Operation callService(Random random) {
+        int type = random.nextInt(4);
+        int member = random.nextInt(members.length);
+        int item = random.nextInt(items.length);
+
+        long invoked = System.nanoTime();
+        boolean result;
+        switch (type) {
+            case BORROW:
+                result = service.borrowItem(members[member], items[item]);
+                break;
+            case RETURN:
+                result = service.returnItem(members[member], items[item]);
+                break;
+            case RETURN_BY_ITEM:
+                result = service.returnItem(items[item]);
+                break;
+            default:
+                result = service.hasBorrowedItem(members[member], items[item]);
+                break;
+        }
+        long responded = System.nanoTime();
+        return new Operation(type, member, item, result, invoked, responded);
+    }
+
+    /**
+     * Check the state and the history of the round that just finished
+     */
+    private void checkRound() {
+        rounds++;
+        for (List<Operation> history : histories) {
+            operations += history.size();
+        }
+        String problem = checkState();
+
+        // Check each item's history on its own (calls on different items don't affect each other)
+        if (problem == null) {
+            Map<Integer, List<Operation>> byItem = new HashMap<>();
+            for (List<Operation> history : histories) {
+                for (Operation operation : history) {
+                    byItem.computeIfAbsent(operation.item, key -> new ArrayList<>()).add(operation);
+                }
+            }
+            for (Map.Entry<Integer, List<Operation>> entry : byItem.entrySet()) {
+                int item = entry.getKey();
+                int endHolder = holderOf(item);
+                if (!new ItemHistory(entry.getValue(), holderAtRoundStart[item], endHolder).isLinearizable()) {
+                    problem = "No valid order of calls on item " + item + " (started with "
+                            + holderName(holderAtRoundStart[item]) + ", ended with " + holderName(endHolder) + "):\n"
+                            + describe(entry.getValue());
+                    break;
+                }
+            }
+        }
+
+        if (problem != null) {
+            failure = "Round " + rounds + ": " + problem;
+            stop = true;
+        } else {
+            for (int item = 0; item < items.length; item++) {
+                holderAtRoundStart[item] = holderOf(item);
+            }
+        }
+        for (List<Operation> history : histories) {
+            history.clear();
+        }
+        if (System.nanoTime() > deadlineNanos) {
+            stop = true;
+        }
+    }
+
+    /**
+     * Check the invariants while no calls are running. Returns null if they hold.
+     */
+    private String checkState() {
+        int[] loansPerMember = new int[members.length];
+        for (int item = 0; item < items.length; item++) {
+            int holder = holderOf(item);
+
+            // An item is never held by two members
+            int holders = 0;
+            for (int member = 0; member < members.length; member++) {
+                if (service.hasBorrowedItem(members[member], items[item])) {
+                    holders++;
+                    if (member != holder) {
+                        return "Item " + item + " is on loan to " + holderName(holder)
+                                + " but hasBorrowedItem says member " + member + " has it";
+                    }
+                }
+            }
+            if (holders > 1) {
+                return "Item " + item + " is held by " + holders + " members";
+            }
+
+            // isAvailable() agrees with the loan records
+            if (items[item].isAvailable() != (holder == NOBODY)) {
+                return "Item " + item + " isAvailable()=" + items[item].isAvailable()
+                        + " but it is on loan to " + holderName(holder);
+            }
+            if (holder != NOBODY) {
+                loansPerMember[holder]++;
+            }
+        }
+
+        // No loans lost or counted twice
+        for (int member = 0; member < members.length; member++) {
+            int counted = service.getLoanCount(members[member]);
+            if (counted != loansPerMember[member]) {
+                return "Member " + member + " has " + loansPerMember[member] + " loans but is counted as having " + counted;
+            }
+            if (loanLimit > 0 && counted > loanLimit) {
+                return "Member " + member + " has " + counted + " loans, over the limit of " + loanLimit;
+            }
+        }
+        return null;
+    }
+
+    private int holderOf(int item) {
+        Member borrower = service.getBorrower(items[item]);
+        return borrower == null ? NOBODY : borrower.getMembershipId() - 1001;
+    }
+
+    private static String holderName(int holder) {
+        return holder == NOBODY ? "nobody" : "member " + holder;
+    }
+
+    private static String describe(List<Operation> history) {
+        List<Operation> sorted = new ArrayList<>(history);
+        sorted.sort(Comparator.comparingLong(operation -> operation.invoked));
+        long first = sorted.get(0).invoked;
+        StringBuilder text = new StringBuilder();
+        for (Operation operation : sorted) {
+            text.append(String.format("  [%8d .. %8d ns] %-14s member %d -> %b%n",
+                    operation.invoked - first, operation.responded - first,
+                    OPERATION_NAMES[operation.type], operation.member, operation.result));
+        }
+        return text.toString();
+    }
+
+    /**
+     * One recorded call
+     */
+    private static class Operation {
+        final int type;
+        final int member;
+        final int item;
+        final boolean result;
+        final long invoked;
+        final long responded;
+
+        Operation(int type, int member, int item, boolean result, long invoked, long responded) {
+            this.type = type;
+            this.member = member;
+            this.item = item;
+            this.result = result;
+            this.invoked = invoked;
+            this.responded = responded;
+        }
+    }
+
+    /**
+     * The calls made on one item in one round, and the search for a valid order of them.
+     *
+     * The search tries, at each step, every call that could have happened next
+     * (one that started before any remaining call finished), and remembers
+     * which (calls done, holder) combinations it has already tried so it
+     * never explores the same situation twice.
+     */
+    private class ItemHistory {
+        private final Operation[] calls;
+        private final int startHolder;
+        private final int endHolder;
+        private final long allDone;
+        private final Map<Long, BitSet> tried = new HashMap<>();
+
+        ItemHistory(List<Operation> history, int startHolder, int endHolder) {
+            calls = history.toArray(new Operation[0]);
+            this.startHolder = startHolder;
+            this.endHolder = endHolder;
+            allDone = calls.length == 64 ? -1L : (1L << calls.length) - 1;
+        }
+
+        boolean isLinearizable() {
+            return search(0L, startHolder);
+        }
+
+        private boolean search(long done, int holder) {
+            if (done == allDone) {
+                return holder == endHolder;
+            }
+            BitSet holdersTried = tried.computeIfAbsent(done, key -> new BitSet());
+            if (holdersTried.get(holder + 1)) {
+                return false;
+            }
+            holdersTried.set(holder + 1);
+
+            // A call can only go next if it started before every remaining call finished
+            long earliestEnd = Long.MAX_VALUE;
+            for (int i = 0; i < calls.length; i++) {
+                if ((done & (1L << i)) == 0) {
+                    earliestEnd = Math.min(earliestEnd, calls[i].responded);
+                }
+            }
+            for (int i = 0; i < calls.length; i++) {
+                if ((done & (1L << i)) != 0 || calls[i].invoked > earliestEnd) {
+                    continue;
+                }
+                int next = apply(calls[i], holder);
+                if (next != IMPOSSIBLE && search(done | (1L << i), next)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Work out who holds the item after a call, if the call's answer is
+         * possible with this holder; otherwise IMPOSSIBLE
+         */
+        private int apply(Operation call, int holder) {
+            switch (call.type) {
+                case BORROW:
+                    if (call.result) {
+                        return holder == NOBODY ? call.member : IMPOSSIBLE;
+                    }
+                    // With a loan limit, a borrow can be refused even when the item is free
+                    return holder != NOBODY || loanLimit > 0 ? holder : IMPOSSIBLE;
+                case RETURN:
+                    if (call.result) {
+                        return holder == call.member ? NOBODY : IMPOSSIBLE;
+                    }
+                    return holder != call.member ? holder : IMPOSSIBLE;
+                case RETURN_BY_ITEM:
+                    if (call.result) {
+                        return holder != NOBODY ? NOBODY : IMPOSSIBLE;
+                    }
+                    return holder == NOBODY ? holder : IMPOSSIBLE;
+                default:
+                    return call.result == (holder == call.member) ? holder : IMPOSSIBLE;
+            }
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int threads = 8;
+        int items = 4;
+        int members = 6;
+        int operationsPerRound = 8;
+        long seconds = 10;
+        int limit = 0;
+        long seed = 1;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--threads": threads = Integer.parseInt(args[i + 1]); break;
+                case "--items": items = Integer.parseInt(args[i + 1]); break;
+                case "--members": members = Integer.parseInt(args[i + 1]); break;
+                case "--ops-per-round": operationsPerRound = Integer.parseInt(args[i + 1]); break;
+                case "--seconds": seconds = Long.parseLong(args[i + 1]); break;
+                case "--limit": limit = Integer.parseInt(args[i + 1]); break;
+                case "--seed": seed = Long.parseLong(args[i + 1]); break;
+                default:
+                    System.out.println("Unknown option: " + args[i]);
+                    System.exit(2);
+            }
+        }
+
+        BorrowingStressTest test = new BorrowingStressTest(threads, items, members, operationsPerRound,
+                seconds, limit, seed);
+
+        // The service prints a message for every call; throw that away
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        String failure;
+        try {
+            failure = test.run();
+        } finally {
+            System.setOut(console);
+        }
+
+        System.out.println(test.rounds + " rounds, " + test.operations + " calls checked");
+        if (failure != null) {
+            System.out.println("FAILED - " + failure);
+            System.exit(1);
+        }
+        System.out.println("PASSED");
+    }
+}
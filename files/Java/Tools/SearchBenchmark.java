@@ -0,0 +1,172 @@
+package tools;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import models.*;
+
+/**
+ * Measures what a full scan of the records costs, the old way (making a
+ * lowercase copy of every title, category or name for every search) and
+ * the new way (comparing the search keys the records already hold, see
+ * SearchText).
+ *
+ * For each kind of search it prints the time per scan, the bytes the scan
+ * allocated and how many garbage collections ran while it did.
+ *
+ * Usage: java tools.SearchBenchmark [records] [scans]
+ */
+public class SearchBenchmark {
+    private static final String[] WORDS = {
+        "the", "great", "gatsby", "ocean", "garden", "history", "of", "science", "river", "night",
+        "Café", "society", "winter", "light", "Stone", "city", "road", "silent", "dream", "empire"
+    };
+    private static final String[] CATEGORIES = {
+        "Fiction", "Science", "History", "Poetry", "Travel", "Cookery", "Biography", "Art"
+    };
+
+    // Keeps the JIT from throwing the scans away
+    private static long sink;
+
+    public static void main(String[] args) {
+        int records = args.length > 0 ? Integer.parseInt(args[0]) : 500_000;
+        int scans = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+        Random random = new Random(42);
+        List<LibraryItem> items = new ArrayList<>(records);
+        List<Member> members = new ArrayList<>(records);
+        for (int i = 0; i < records; i++) {
+            items.add(new Book(phrase(random, 3), phrase(random, 2), "ISBN-" + i, new Date(0),
+                    CATEGORIES[random.nextInt(CATEGORIES.length)]));
+            members.add(new Member(phrase(random, 2), i + 1, "member" + i + "@example.com"));
+        }
+        System.out.println(records + " items and members, " + scans + " scans each");
+        System.out.printf("%-22s %12s %16s %8s %10s%n", "Search", "ms/scan", "bytes/scan", "GCs", "GC ms");
+
+        String title = "Gatsby";
+        String category = "science";
+        String name = "Gar";
+
+        run("title (lowercase)", scans, () -> {
+            String term = title.toLowerCase();
+            long found = 0;
+            for (LibraryItem item : items) {
+                if (item.getTitle().toLowerCase().contains(term)) found++;
+            }
+            return found;
+        });
+        run("title (search key)", scans, () -> {
+            String term = SearchText.normalize(title);
+            long found = 0;
+            for (LibraryItem item : items) {
+                if (SearchText.contains(item.getTitleKey(), term)) found++;
+            }
+            return found;
+        });
+        run("category (lowercase)", scans, () -> {
+            String term = category.toLowerCase();
+            long found = 0;
+            for (LibraryItem item : items) {
+                if (item.getCategory().toLowerCase().equals(term)) found++;
+            }
+            return found;
+        });
+        run("category (search key)", scans, () -> {
+            String term = SearchText.normalize(category);
+            long found = 0;
+            for (LibraryItem item : items) {
+                if (item.getCategoryKey().equals(term)) found++;
+            }
+            return found;
+        });
+        run("name word (lowercase)", scans, () -> {
+            String term = name.toLowerCase();
+            long found = 0;
+            for (Member member : members) {
+                for (String word : member.getName().toLowerCase().split(" ")) {
+                    if (word.startsWith(term)) {
+                        found++;
+                        break;
+                    }
+                }
+            }
+            return found;
+        });
+        run("name word (search key)", scans, () -> {
+            String term = SearchText.normalize(name);
+            long found = 0;
+            for (Member member : members) {
+                if (SearchText.startsWithWord(member.getNameKey(), term)) found++;
+            }
+            return found;
+        });
+        System.out.println("(" + sink + ")");
+    }
+
+    /**
+     * Warm a scan up, then time it and count what it allocated and collected
+     */
+    private static void run(String label, int scans, Scan scan) {
+        for (int i = 0; i < Math.max(3, scans / 4); i++) {
+            sink += scan.run();
+        }
+
+        long gcCountBefore = gcCount();
+        long gcTimeBefore = gcTime();
+        long allocatedBefore = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < scans; i++) {
+            sink += scan.run();
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = allocatedBytes() - allocatedBefore;
+
+        System.out.printf("%-22s %12.2f %16s %8d %10d%n", label, elapsed / 1e6 / scans,
+                allocated < 0 ? "n/a" : String.valueOf(allocated / scans),
+                gcCount() - gcCountBefore, gcTime() - gcTimeBefore);
+    }
+
+    private static String phrase(Random random, int words) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            if (i > 0) text.append(' ');
+            text.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return text.toString();
+    }
+
+    /**
+     * Get the bytes this thread has allocated so far, or -1 if the JVM can't tell
+     */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, collector.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long gcTime() {
+        long time = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            time += Math.max(0, collector.getCollectionTime());
+        }
+        return time;
+    }
+
+    private interface Scan {
+        long run();
+    }
+}
@@ -0,0 +1,404 @@
+package tools;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Random;
+import java.util.function.Consumer;
+
+import models.*;
+import services.*;
+
+/**
+ * Makes up a realistic library - items, members, staff - and a day-by-day
+ * stream of borrows, returns and searches, for load testing.
+ *
+ * Everything comes from a seeded random number generator, so the same seed
+ * always gives exactly the same library and the same operations.
+ * Item popularity follows a Zipf curve (a few bestsellers, a long tail),
+ * and categories follow rough real-world proportions.
+ *
+ * The data can go straight into the services (populate), or be written as
+ * a command file for ui.BatchDriver (writeDataset, generateOperations or
+ * writeCommandFile).
+ *
+ * Usage: java tools.WorkloadGenerator out.txt [--seed 42] [--items 1000000]
+ *            [--members 100000] [--days 30] [--ops-per-day 100000]
+ */
+public class WorkloadGenerator {
+
+    // Words used to make up titles and names
+    private static final String[] ADJECTIVES = {
+            "Silent", "Golden", "Hidden", "Last", "Broken", "Secret", "Lost", "Bright", "Dark", "Wild",
+            "Quiet", "Forgotten", "Burning", "Frozen", "Distant", "Little", "Endless", "Crimson", "Hollow", "Shining"
+    };
+    private static final String[] NOUNS = {
+            "River", "Garden", "Kingdom", "Shadow", "Letter", "Island", "House", "Storm", "Mountain", "Journey",
+            "Promise", "Winter", "Mirror", "Forest", "Harbour", "Orchard", "Voyage", "Lantern", "Empire", "Tide"
+    };
+    private static final String[] FIRST_NAMES = {
+            "John", "Jane", "Alice", "Mohammed", "Olivia", "Amelia", "Oliver", "Isla", "George", "Ava",
+            "Noah", "Emily", "Harry", "Sophia", "Jack", "Grace", "Leo", "Chloe", "Arthur", "Freya",
+            "Oscar", "Priya", "Chen", "Fatima", "Lucas", "Mia", "Ethan", "Zara", "Samuel", "Ruby"
+    };
+    private static final String[] LAST_NAMES = {
+            "Smith", "Jones", "Taylor", "Brown", "Williams", "Wilson", "Johnson", "Davies", "Patel", "Robinson",
+            "Wright", "Thompson", "Evans", "Walker", "White", "Roberts", "Green", "Hall", "Wood", "Khan",
+            "Clarke", "Lewis", "Hughes", "Edwards", "Wang", "Okafor", "Murphy", "Ahmed", "Hill", "Moore"
+    };
+    private static final String[] STAFF_ROLES = {"Librarian", "Assistant", "Archivist", "Manager"};
+
+    // Categories and how common they are (weights, not percentages)
+    private static final String[] BOOK_CATEGORIES = {
+            "Fiction", "Children", "Mystery", "History", "Romance", "Science Fiction", "Fantasy",
+            "Biography", "Science", "Technology", "Travel", "Cookery", "Poetry"
+    };
+    private static final int[] BOOK_CATEGORY_WEIGHTS = {28, 10, 10, 7, 8, 7, 7, 6, 6, 3, 3, 3, 2};
+    private static final String[] MAGAZINE_CATEGORIES = {
+            "News", "Science", "Technology", "Lifestyle", "Sports", "Fashion"
+    };
+    private static final int[] MAGAZINE_CATEGORY_WEIGHTS = {30, 15, 15, 15, 15, 10};
+    private static final String[] PUBLISHERS = {
+            "Penguin", "HarperCollins", "Macmillan", "Hachette", "Bloomsbury", "Faber", "Time USA, LLC"
+    };
+
+    // About 1 in 7 items is a magazine, and 1 in 50 members is staff
+    private static final double MAGAZINE_SHARE = 0.15;
+    private static final double STAFF_SHARE = 0.02;
+
+    // The mix of operations in the stream
+    private static final double BORROW_SHARE = 0.35;
+    private static final double RETURN_SHARE = 0.30;
+    private static final double TITLE_SEARCH_SHARE = 0.25;
+    private static final double CATEGORY_SEARCH_SHARE = 0.05;
+
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("MM/dd/yyyy");
+    private static final LocalDate FIRST_PUBLICATION = LocalDate.of(1950, 1, 1);
+    private static final LocalDate LAST_PUBLICATION = LocalDate.of(2025, 12, 31);
+
+    private static final int FIRST_MEMBER_ID = 1001;
+    private static final int NOT_ON_LOAN = -1;
+
+    private final long seed;
+    private final int itemCount;
+    private final int memberCount;
+
+    // The IDs the services gave each generated item and member.
+    // Until populate() runs, these are the IDs a fresh program would hand out.
+    private final int[] itemIds;
+    private final int[] memberIds;
+
+    /**
+     * Create a generator. The same seed and sizes always give the same workload.
+     */
+    public WorkloadGenerator(long seed, int itemCount, int memberCount) {
+        if (itemCount <= 0 || memberCount <= 0) {
+            throw new IllegalArgumentException("Need at least one item and one member");
+        }
+        this.seed = seed;
+        this.itemCount = itemCount;
+        this.memberCount = memberCount;
+
+        itemIds = new int[itemCount];
+        memberIds = new int[memberCount];
+        for (int i = 0; i < itemCount; i++) {
+            itemIds[i] = i + 1;
+        }
+        for (int i = 0; i < memberCount; i++) {
+            memberIds[i] = FIRST_MEMBER_ID + i;
+        }
+    }
+
+    /**
+     * Make item number index (0 to itemCount-1). The same index always gives the same item.
+     */
+    public LibraryItem generateItem(int index) {
+        Random random = randomFor(1, index);
+        String date = randomPublicationDate(random);
+        // Midnight in the computer's own time zone, like the menus and BatchDriver
+        // (LibraryItem works out the publication day in that zone too)
+        Date publicationDate = Date.from(LocalDate.parse(date, DATE_FORMAT)
+                .atStartOfDay(ZoneId.systemDefault()).toInstant());
+        if (random.nextDouble() < MAGAZINE_SHARE) {
+            return new Magazine(title(index), pick(random, PUBLISHERS), 1 + random.nextInt(500), publicationDate,
+                    pickWeighted(random, MAGAZINE_CATEGORIES, MAGAZINE_CATEGORY_WEIGHTS));
+        }
+        return new Book(title(index), fullName(random), isbn(random), publicationDate,
+                pickWeighted(random, BOOK_CATEGORIES, BOOK_CATEGORY_WEIGHTS));
+    }
+
+    /**
+     * Make member number index (0 to memberCount-1), with the ID a fresh MemberService would give it
+     */
+    public Member generateMember(int index) {
+        Random random = randomFor(2, index);
+        String name = fullName(random);
+        String contactInfo = name.toLowerCase().replace(' ', '.') + index + "@email.com";
+        if (random.nextDouble() < STAFF_SHARE) {
+            return new Staff(name, memberIds[index], contactInfo, pick(random, STAFF_ROLES));
+        }
+        return new Member(name, memberIds[index], contactInfo);
+    }
+
+    /**
+     * Add every generated item and member straight into the services
+     */
+    public void populate(LibraryCatalogue catalogue, MemberService memberService) {
+        for (int i = 0; i < itemCount; i++) {
+            LibraryItem item = generateItem(i);
+            catalogue.addItem(item);
+            itemIds[i] = item.getItemId();
+        }
+        for (int i = 0; i < memberCount; i++) {
+            Member member = generateMember(i);
+            if (member instanceof Staff) {
+                // Staff get the next unused ID, the same way the menus do it
+                member = new Staff(member.getName(), memberService.nextMembershipId(),
+                        member.getContactInfo(), ((Staff) member).getStaffRole());
+                memberService.registerMember(member);
+            } else {
+                member = memberService.registerMember(member.getName(), member.getContactInfo());
+            }
+            memberIds[i] = member.getMembershipId();
+        }
+    }
+
+    /**
+     * Write the items and members as BatchDriver "add" and "register" commands
+     */
+    public void writeDataset(Consumer<String> out) {
+        for (int i = 0; i < itemCount; i++) {
+            Random random = randomFor(1, i);
+            String date = randomPublicationDate(random);
+            if (random.nextDouble() < MAGAZINE_SHARE) {
+                out.accept("add magazine|" + title(i) + "|" + pick(random, PUBLISHERS) + "|" + (1 + random.nextInt(500))
+                        + "|" + date + "|" + pickWeighted(random, MAGAZINE_CATEGORIES, MAGAZINE_CATEGORY_WEIGHTS));
+            } else {
+                // Same order of random calls as generateItem, so both give the same item
+                String author = fullName(random);
+                String isbn = isbn(random);
+                out.accept("add book|" + title(i) + "|" + author + "|" + isbn + "|" + date
+                        + "|" + pickWeighted(random, BOOK_CATEGORIES, BOOK_CATEGORY_WEIGHTS));
+            }
+        }
+        for (int i = 0; i < memberCount; i++) {
+            Member member = generateMember(i);
+            if (member instanceof Staff) {
+                out.accept("register staff|" + member.getName() + "|" + member.getContactInfo()
+                        + "|" + ((Staff) member).getStaffRole());
+            } else {
+                out.accept("register|" + member.getName() + "|" + member.getContactInfo());
+            }
+        }
+    }
+
+    /**
+     * Make a day-by-day stream of operations as BatchDriver commands.
+     * Each day starts with "advance|1" (except the first), so loans become
+     * due and overdue when replayed on a ManualClock. Returns are only made
+     * for items the stream itself lent out.
+     */
+    public void generateOperations(int days, int operationsPerDay, Consumer<String> out) {
+        Random random = randomFor(3, 0);
+        ZipfSampler itemPopularity = new ZipfSampler(itemCount, 1.0);
+        ZipfSampler memberActivity = new ZipfSampler(memberCount, 0.7);
+
+        // Shuffle popularity ranks, so the most popular items aren't simply the first ones added
+        int[] itemByRank = shuffledIndexes(itemCount, random);
+        int[] memberByRank = shuffledIndexes(memberCount, random);
+
+        // Who has each item, and a list of items on loan (for picking something to return)
+        int[] holder = new int[itemCount];
+        Arrays.fill(holder, NOT_ON_LOAN);
+        int[] onLoan = new int[Math.min(itemCount, 1 << 16)];
+        int[] positionOnLoan = new int[itemCount];
+        int loanCount = 0;
+
+        for (int day = 0; day < days; day++) {
+            if (day > 0) {
+                out.accept("advance|1");
+            }
+            out.accept("# day " + (day + 1));
+
+            for (int n = 0; n < operationsPerDay; n++) {
+                double kind = random.nextDouble();
+
+                if (kind < BORROW_SHARE || (kind < BORROW_SHARE + RETURN_SHARE && loanCount == 0)) {
+                    int member = memberByRank[memberActivity.next(random)];
+                    // People ask for popular items; try a few times to find one that's in
+                    int item = itemByRank[itemPopularity.next(random)];
+                    for (int attempt = 0; attempt < 3 && holder[item] != NOT_ON_LOAN; attempt++) {
+                        item = itemByRank[itemPopularity.next(random)];
+                    }
+                    out.accept("borrow|" + memberIds[member] + "|" + itemIds[item]);
+                    if (holder[item] == NOT_ON_LOAN) {
+                        holder[item] = member;
+                        if (loanCount == onLoan.length) {
+                            onLoan = Arrays.copyOf(onLoan, Math.min(itemCount, onLoan.length * 2));
+                        }
+                        positionOnLoan[item] = loanCount;
+                        onLoan[loanCount++] = item;
+                    }
+                } else if (kind < BORROW_SHARE + RETURN_SHARE) {
+                    // Return a random item that is out, then fill its place in the list with the last one
+                    int position = random.nextInt(loanCount);
+                    int item = onLoan[position];
+                    out.accept("return|" + memberIds[holder[item]] + "|" + itemIds[item]);
+                    holder[item] = NOT_ON_LOAN;
+                    int last = onLoan[--loanCount];
+                    onLoan[position] = last;
+                    positionOnLoan[last] = position;
+                } else if (kind < BORROW_SHARE + RETURN_SHARE + TITLE_SEARCH_SHARE) {
+                    // Search for one word of a popular title
+                    String[] words = title(itemByRank[itemPopularity.next(random)]).split(" ");
+                    out.accept("search title|" + words[1 + random.nextInt(words.length - 1)].toLowerCase());
+                } else if (kind < BORROW_SHARE + RETURN_SHARE + TITLE_SEARCH_SHARE + CATEGORY_SEARCH_SHARE) {
+                    out.accept("search category|" + pickWeighted(random, BOOK_CATEGORIES, BOOK_CATEGORY_WEIGHTS));
+                } else {
+                    // Look a member up by (the start of) their surname
+                    String surname = pick(random, LAST_NAMES);
+                    out.accept("search member|" + surname.substring(0, 2 + random.nextInt(surname.length() - 1)));
+                }
+            }
+        }
+    }
+
+    /**
+     * Write the items, members and operations to a BatchDriver command file
+     */
+    public void writeCommandFile(String fileName, int days, int operationsPerDay) throws IOException {
+        try (Writer writer = new BufferedWriter(new FileWriter(fileName), 1 << 16)) {
+            Consumer<String> out = line -> {
+                try {
+                    writer.write(line);
+                    writer.write('\n');
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            };
+            out.accept("# Generated by WorkloadGenerator: seed " + seed + ", " + itemCount + " items, "
+                    + memberCount + " members, " + days + " days of " + operationsPerDay + " operations");
+            writeDataset(out);
+            generateOperations(days, operationsPerDay, out);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * A random number generator for one thing (e.g. item 42), so each thing
+     * comes out the same no matter what was generated before it
+     */
+    private Random randomFor(int stream, int index) {
+        return new Random(seed * 0x9E3779B97F4A7C15L + stream * 0x632BE59BD9B4E019L + index);
+    }
+
+    /**
+     * The title of item number index. Titles repeat now and then, like real "Collected Poems".
+     */
+    private String title(int index) {
+        Random random = randomFor(4, index);
+        String adjective = pick(random, ADJECTIVES);
+        String noun = pick(random, NOUNS);
+        switch (random.nextInt(4)) {
+            case 0:
+                return "The " + adjective + " " + noun;
+            case 1:
+                return "The " + noun + " of the " + pick(random, NOUNS);
+            case 2:
+                return "A " + adjective + " " + noun + " in " + pick(random, LAST_NAMES) + "ville";
+            default:
+                return "The " + adjective + " " + noun + " " + (2 + random.nextInt(9));
+        }
+    }
+
+    private static String fullName(Random random) {
+        return pick(random, FIRST_NAMES) + " " + pick(random, LAST_NAMES);
+    }
+
+    private static String isbn(Random random) {
+        return "978-" + (1000000000L + (long) (random.nextDouble() * 8999999999L));
+    }
+
+    /**
+     * A publication date, with recent years more likely (libraries buy new books)
+     */
+    private static String randomPublicationDate(Random random) {
+        long first = FIRST_PUBLICATION.toEpochDay();
+        long span = LAST_PUBLICATION.toEpochDay() - first;
+        // Squaring a random fraction pushes it towards 0; subtract from the end to favour recent dates
+        double fraction = random.nextDouble();
+        long day = LAST_PUBLICATION.toEpochDay() - (long) (fraction * fraction * span);
+        return LocalDate.ofEpochDay(day).format(DATE_FORMAT);
+    }
+
+    private static String pick(Random random, String[] choices) {
+        return choices[random.nextInt(choices.length)];
+    }
+
+    private static String pickWeighted(Random random, String[] choices, int[] weights) {
+        int total = 0;
+        for (int weight : weights) {
+            total += weight;
+        }
+        int target = random.nextInt(total);
+        for (int i = 0; i < choices.length; i++) {
+            target -= weights[i];
+            if (target < 0) {
+                return choices[i];
+            }
+        }
+        return choices[choices.length - 1];
+    }
+
+    private static int[] shuffledIndexes(int n, Random random) {
+        int[] indexes = new int[n];
+        for (int i = 0; i < n; i++) {
+            indexes[i] = i;
+        }
+        for (int i = n - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int swap = indexes[i];
+            indexes[i] = indexes[j];
+            indexes[j] = swap;
+        }
+        return indexes;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.out.println("Usage: java tools.WorkloadGenerator <output file> [--seed n] [--items n]"
+                    + " [--members n] [--days n] [--ops-per-day n]");
+            return;
+        }
+
+        long seed = 42;
+        int items = 1_000_000;
+        int members = 100_000;
+        int days = 30;
+        int operationsPerDay = 100_000;
+        for (int i = 1; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--seed": seed = Long.parseLong(args[i + 1]); break;
+                case "--items": items = Integer.parseInt(args[i + 1]); break;
+                case "--members": members = Integer.parseInt(args[i + 1]); break;
+                case "--days": days = Integer.parseInt(args[i + 1]); break;
+                case "--ops-per-day": operationsPerDay = Integer.parseInt(args[i + 1]); break;
+                default:
+                    System.out.println("Unknown option: " + args[i]);
+                    return;
+            }
+        }
+
+        long start = System.nanoTime();
+        new WorkloadGenerator(seed, items, members).writeCommandFile(args[0], days, operationsPerDay);
+        System.out.printf("Wrote %s in %.1f s%n", args[0], (System.nanoTime() - start) / 1e9);
+    }
+}
@@ -0,0 +1,59 @@
+package tools;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Picks numbers from 0 to n-1 with a Zipf ("long tail") distribution:
+ * number 0 is picked most often, number 1 about half as often, and so on.
+ * Real libraries look like this - a few titles are borrowed all the time
+ * and most are hardly ever touched.
+ *
+ * The chances are added up once into a table, and each pick is a binary
+ * search in that table.
+ */
+public class ZipfSampler {
+    // cumulative[i] = chance of picking a number from 0 to i
+    private final double[] cumulative;
+
+    /**
+     * Create a sampler over n numbers. A bigger exponent makes the popular
+     * numbers even more popular (1.0 is the classic Zipf curve).
+     */
+    public ZipfSampler(int n, double exponent) {
+        if (n <= 0) {
+            throw new IllegalArgumentException("Need at least one number to pick from");
+        }
+        if (exponent < 0) {
+            throw new IllegalArgumentException("Exponent cannot be negative");
+        }
+        cumulative = new double[n];
+        double total = 0;
+        for (int i = 0; i < n; i++) {
+            total += 1.0 / Math.pow(i + 1, exponent);
+            cumulative[i] = total;
+        }
+        for (int i = 0; i < n; i++) {
+            cumulative[i] /= total;
+        }
+    }
+
+    /**
+     * Pick the next number
+     */
+    public int next(Random random) {
+        int index = Arrays.binarySearch(cumulative, random.nextDouble());
+        // binarySearch returns -(insertion point) - 1 when the exact value isn't found
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return Math.min(index, cumulative.length - 1);
+    }
+
+    /**
+     * Get how many numbers this sampler picks from
+     */
+    public int size() {
+        return cumulative.length;
+    }
+}
@@ -0,0 +1,325 @@
+package ui;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.nio.file.Paths;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import models.*;
+import services.*;
+
+/**
+ * Runs library commands from a file or stream instead of from the menus,
+ * as fast as the services can handle them. Useful for replaying a day's
+ * activity as a load test.
+ *
+ * Each line is one command, with its fields separated by "|".
+ * Blank lines and lines starting with # are skipped.
+ *
+ *     add book|Title|Author|ISBN|MM/DD/YYYY|Category
+ *     add magazine|Title|Publisher|Issue number|MM/DD/YYYY|Category
+ *     register|Name|Contact info
+ *     register staff|Name|Contact info|Role
+ *     borrow|Member ID|Item ID
+ *     return|Member ID|Item ID
+ *     return|Item ID
+ *     search title|Text
+ *     search category|Text
+ *     search member|Text
+ *     advance|Days               (moves a ManualClock on; the default driver uses one)
+ *
+ * When it finishes, it prints how many times each command ran, how many
+ * failed or were refused, and how long they took.
+ *
+ * Several drivers can run at once (in different processes) against the
+ * same items with --state-file: they then agree on who holds each item
+ * through that file (see SharedLoanState). Each one should run the same
+ * "add" commands first, so the items get the same IDs in every process;
+ * a borrow of an item whose ID means a different title or edition
+ * elsewhere fails (copies of the same edition can't be told apart).
+ *
+ * With --archive, every finished loan is also kept in a LoanArchive in
+ * that folder (forced to disk in the background, see LoanArchive).
+ *
+ * Usage: java ui.BatchDriver commands.txt [--echo] [--state-file loans.state] [--archive folder]
+ *        (use - instead of a file name to read from standard input)
+ */
+public class BatchDriver {
+
+    // These are the service objects that do the actual work
+    private final LibraryCatalogue catalogue;
+    private final MemberService memberService;
+    private final BorrowingService borrowingService;
+
+    // How many item IDs a --state-file has room for
+    private static final int STATE_FILE_ITEMS = 1 << 22;
+
+    // The same date format the menus use
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat("MM/dd/yyyy");
+
+    // Latencies and failures for each kind of command, in the order first seen
+    private final Map<String, CommandStats> stats = new LinkedHashMap<>();
+
+    // Show what the services print (off by default - printing is much slower than the services)
+    private boolean echo;
+    private long lineNumber;
+    private long totalNanos;
+
+    /**
+     * Create a driver with empty services. Time starts at the real time and
+     * only moves on when an "advance" command is run.
+     */
+    public BatchDriver() {
+        this(new LibraryCatalogue(), new MemberService(),
+                new BorrowingService(new ManualClock(System.currentTimeMillis())));
+    }
+
+    /**
+     * Create a driver that runs commands against the given services
+     */
+    public BatchDriver(LibraryCatalogue catalogue, MemberService memberService, BorrowingService borrowingService) {
+        this.catalogue = catalogue;
+        this.memberService = memberService;
+        this.borrowingService = borrowingService;
+    }
+
+    /**
+     * Choose whether to show what the services print while commands run
+     */
+    public void setEcho(boolean echo) {
+        this.echo = echo;
+    }
+
+    /**
+     * Run every command read from a stream
+     */
+    public void run(Reader input) throws IOException {
+        PrintStream console = System.out;
+        if (!echo) {
+            // The services print as they go; throw that away so we measure the services, not the terminal
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        }
+        long start = System.nanoTime();
+        try {
+            BufferedReader reader = new BufferedReader(input);
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                String errorMessage = execute(line);
+                if (errorMessage != null && echo) {
+                    System.out.println("Error on line " + lineNumber + ": " + errorMessage);
+                }
+            }
+        } finally {
+            totalNanos += System.nanoTime() - start;
+            System.setOut(console);
+        }
+    }
+
+    /**
+     * Run one command line. Returns null if it worked, or a message if it failed or was refused.
+     */
+    public String execute(String line) {
+        String trimmed = line.trim();
+        if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+            return null;
+        }
+        String[] fields = trimmed.split("\\|", -1);
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = fields[i].trim();
+        }
+        String command = fields[0].toLowerCase();
+
+        long start = System.nanoTime();
+        String errorMessage = null;
+        boolean refused = false;
+        try {
+            refused = !runCommand(command, fields);
+        } catch (Exception e) {
+            errorMessage = e.getMessage();
+        }
+        long nanos = System.nanoTime() - start;
+
+        CommandStats commandStats = stats.computeIfAbsent(command, name -> new CommandStats());
+        commandStats.latency.record(nanos);
+        if (errorMessage != null) {
+            commandStats.errors++;
+        } else if (refused) {
+            commandStats.refused++;
+            errorMessage = fields[0] + " was refused";
+        }
+        return errorMessage;
+    }
+
+    /**
+     * Run one command. Returns false if the library said no (for example a
+     * borrow of an item that is already on loan), true otherwise.
+     */
+    private boolean runCommand(String command, String[] fields) throws ParseException {
+        switch (command) {
+            case "add book":
+                checkFieldCount(fields, 6);
+                catalogue.addItem(new Book(fields[1], fields[2], fields[3], dateFormat.parse(fields[4]), fields[5]));
+                break;
+            case "add magazine":
+                checkFieldCount(fields, 6);
+                catalogue.addItem(new Magazine(fields[1], fields[2], Integer.parseInt(fields[3]),
+                        dateFormat.parse(fields[4]), fields[5]));
+                break;
+            case "register":
+                checkFieldCount(fields, 3);
+                memberService.registerMember(fields[1], fields[2]);
+                break;
+            case "register staff":
+                checkFieldCount(fields, 4);
+                // Staff get the next unused ID, the same way the menus do it
+                int membershipId = memberService.nextMembershipId();
+                memberService.registerMember(new Staff(fields[1], membershipId, fields[2], fields[3]));
+                break;
+            case "borrow":
+                checkFieldCount(fields, 3);
+                return borrowingService.borrowItem(findMember(fields[1]), findItem(fields[2]));
+            case "return":
+                if (fields.length == 2) {
+                    return borrowingService.returnItem(findItem(fields[1]));
+                }
+                checkFieldCount(fields, 3);
+                return borrowingService.returnItem(findMember(fields[1]), findItem(fields[2]));
+            case "search title":
+                checkFieldCount(fields, 2);
+                catalogue.searchByTitle(fields[1]);
+                break;
+            case "search category":
+                checkFieldCount(fields, 2);
+                catalogue.searchByCategory(fields[1]);
+                break;
+            case "search member":
+                checkFieldCount(fields, 2);
+                memberService.searchMembersByName(fields[1]);
+                break;
+            case "advance":
+                checkFieldCount(fields, 2);
+                if (!(borrowingService.getClock() instanceof ManualClock)) {
+                    throw new IllegalArgumentException("advance only works with a ManualClock");
+                }
+                ((ManualClock) borrowingService.getClock()).advanceDays(Integer.parseInt(fields[1]));
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown command: " + fields[0]);
+        }
+        return true;
+    }
+
+    private static void checkFieldCount(String[] fields, int expected) {
+        if (fields.length != expected) {
+            throw new IllegalArgumentException(fields[0] + " needs " + (expected - 1) + " fields");
+        }
+    }
+
+    private Member findMember(String id) {
+        Member member = memberService.findMemberById(Integer.parseInt(id));
+        if (member == null) {
+            throw new IllegalArgumentException("No member with ID " + id);
+        }
+        return member;
+    }
+
+    private LibraryItem findItem(String id) {
+        LibraryItem item = catalogue.findItemById(Integer.parseInt(id));
+        if (item == null) {
+            throw new IllegalArgumentException("No item with ID " + id);
+        }
+        return item;
+    }
+
+    /**
+     * Format the counts and latencies of every command run so far as a table
+     */
+    public String formatReport() {
+        StringBuilder text = new StringBuilder();
+        text.append(String.format("%-16s %10s %8s %8s %10s %10s %10s %10s%n",
+                "command", "count", "errors", "refused", "mean(us)", "p50(us)", "p99(us)", "max(us)"));
+        long commands = 0;
+        long errors = 0;
+        long refused = 0;
+        for (Map.Entry<String, CommandStats> entry : stats.entrySet()) {
+            LatencyHistogram latency = entry.getValue().latency;
+            text.append(String.format("%-16s %10d %8d %8d %10.1f %10.1f %10.1f %10.1f%n",
+                    entry.getKey(), latency.getCount(), entry.getValue().errors, entry.getValue().refused,
+                    latency.getMean() / 1000.0, latency.getPercentile(50) / 1000.0,
+                    latency.getPercentile(99) / 1000.0, latency.getMax() / 1000.0));
+            commands += latency.getCount();
+            errors += entry.getValue().errors;
+            refused += entry.getValue().refused;
+        }
+
+        double seconds = totalNanos / 1e9;
+        text.append(String.format("Total: %d commands (%d errors, %d refused) in %.3f s",
+                commands, errors, refused, seconds));
+        if (seconds > 0) {
+            text.append(String.format(", %.0f commands/s", commands / seconds));
+        }
+        text.append(String.format("%n"));
+        return text.toString();
+    }
+
+    /**
+     * The latency and failure counts of one kind of command. Errors are
+     * commands that couldn't run (bad input, unknown IDs); refused ones ran
+     * but the library said no (limit reached, not available, not borrowed).
+     */
+    private static class CommandStats {
+        final LatencyHistogram latency = new LatencyHistogram();
+        long errors;
+        long refused;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.out.println("Usage: java ui.BatchDriver <command file or -> [--echo] [--state-file <file>]"
+                    + " [--archive <folder>]");
+            return;
+        }
+
+        BatchDriver driver = new BatchDriver();
+        SharedLoanState sharedState = null;
+        LoanArchive archive = null;
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("--echo")) {
+                driver.setEcho(true);
+            } else if (args[i].equals("--state-file") && i + 1 < args.length) {
+                sharedState = SharedLoanState.open(Paths.get(args[++i]), STATE_FILE_ITEMS);
+                driver.borrowingService.setSharedState(sharedState, driver.memberService::findMemberById);
+            } else if (args[i].equals("--archive") && i + 1 < args.length) {
+                archive = new LoanArchive(Paths.get(args[++i]));
+                driver.borrowingService.setArchive(archive);
+            }
+        }
+
+        try (Reader input = args[0].equals("-")
+                ? new InputStreamReader(System.in)
+                : new FileReader(args[0])) {
+            driver.run(input);
+        } finally {
+            try {
+                if (archive != null) {
+                    archive.close();
+                }
+            } finally {
+                if (sharedState != null) {
+                    sharedState.close();
+                }
+            }
+        }
+        System.out.print(driver.formatReport());
+    }
+}
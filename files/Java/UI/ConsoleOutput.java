@@ -0,0 +1,66 @@
+package ui;
+
+import java.io.BufferedOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+
+/**
+ * Helpers for fast console output.
+ *
+ * The normal System.out sends every println straight to the terminal, which
+ * is slow when printing thousands of lines. bufferedConsole() gives a
+ * System.out that collects output in a large buffer and writes it to the
+ * terminal's file channel in big pieces instead.
+ *
+ * Because buffered output isn't shown straight away, input must be read
+ * through flushBeforeRead(), which shows anything still waiting (like a
+ * "Enter your choice:" prompt) just before the program waits for the user.
+ */
+public class ConsoleOutput {
+    // Big enough for a screenful of listings in one write
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Create a buffered replacement for System.out, writing to the real standard output
+     */
+    public static PrintStream bufferedConsole() {
+        FileOutputStream standardOut = new FileOutputStream(FileDescriptor.out);
+        return new PrintStream(new BufferedOutputStream(Channels.newOutputStream(standardOut.getChannel()), BUFFER_SIZE),
+                false, Charset.defaultCharset());
+    }
+
+    /**
+     * Wrap an input stream (like System.in) so that System.out is flushed
+     * every time the program is about to wait for input
+     */
+    public static InputStream flushBeforeRead(InputStream in) {
+        return new InputStream() {
+            @Override
+            public int read() throws IOException {
+                System.out.flush();
+                return in.read();
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                System.out.flush();
+                return in.read(buffer, offset, length);
+            }
+
+            @Override
+            public int available() throws IOException {
+                return in.available();
+            }
+
+            @Override
+            public void close() throws IOException {
+                in.close();
+            }
+        };
+    }
+}
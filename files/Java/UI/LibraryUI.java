@@ -1,11 +1,16 @@
 package ui;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
 import java.util.Scanner;
 import java.util.Date;
 import java.util.List;
 import java.util.ArrayList;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.time.LocalDate;
+import java.time.ZoneId;
 
 import models.*;
 import services.*;
@@ -16,16 +21,74 @@ import services.*;
  */
 public class LibraryUI {
 
-    private Scanner scanner = new Scanner(System.in);
+    // Reading input first shows any output still waiting in the console buffer
+    private Scanner scanner = new Scanner(ConsoleOutput.flushBeforeRead(System.in));
+
+    // Listings are built up here and printed in one go (reused to save creating new ones)
+    private final StringBuilder output = new StringBuilder(4096);
 
     // These are the service objects that do the actual work
     private LibraryCatalogue catalogue = new LibraryCatalogue();
     private MemberService memberService = new MemberService();
-    private BorrowingService borrowingService = new BorrowingService();
+    private BorrowingService borrowingService = createBorrowingService();
+    private ReportingEngine reportingEngine = new ReportingEngine();
 
     // A date formatter to make entering dates easier
     private static final SimpleDateFormat DATE_FORMAT = new SimpleDateFormat("MM/dd/yyyy");
 
+    // A title search only shows this many of the best matches
+    private static final int SEARCH_PAGE_SIZE = 20;
+
+    // How many trending items are shown, and how often the trending lists are updated
+    private static final int TRENDING_SHOWN = 10;
+    private static final long TRENDING_REFRESH_MILLIS = 60 * 1000;
+
+    /**
+     * Create the borrowing service. Run with -Dlibrary.loans.offHeap=true to keep
+     * the loans outside the Java heap (for libraries with millions of loans).
+     */
+    private BorrowingService createBorrowingService() {
+        if (!Boolean.getBoolean("library.loans.offHeap")) {
+            return new BorrowingService();
+        }
+        return new BorrowingService(LibraryClock.SYSTEM, LoanPolicyEngine.defaults(),
+                new OffHeapLoanTable(catalogue::findItemById));
+    }
+
+    /**
+     * Keep every finished loan in a LoanArchive when run with
+     * -Dlibrary.archive.dir=<folder>. New loans are forced to disk every
+     * -Dlibrary.archive.syncMillis milliseconds (0 forces each return before it finishes).
+     */
+    private void openArchive() {
+        String folder = System.getProperty("library.archive.dir");
+        if (folder == null) {
+            return;
+        }
+        try {
+            long syncMillis = Long.getLong("library.archive.syncMillis", LoanArchive.DEFAULT_SYNC_MILLIS);
+            borrowingService.setArchive(new LoanArchive(Paths.get(folder), syncMillis));
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("Error: Could not open the loan archive: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Pack and close the loan archive, if there is one
+     */
+    private void closeArchive() {
+        LoanArchive archive = borrowingService.getArchive();
+        if (archive == null) {
+            return;
+        }
+        borrowingService.setArchive(null);
+        try {
+            archive.close();
+        } catch (IOException e) {
+            System.out.println("Error: Could not close the loan archive: " + e.getMessage());
+        }
+    }
+
     /**
      * Start the UI running - this is the main method that gets called from Main
      */
@@ -33,6 +96,13 @@ public class LibraryUI {
         // Add some sample data to test the system
         initializeLibraryData();
 
+        // Rank title searches by how often items are borrowed,
+        // and keep the trending lists up to date in the background
+        CirculationStats circulation = borrowingService.getCirculationStats();
+        catalogue.setPopularity(item -> circulation.getBorrowCount(item.getItemId()));
+        circulation.startRefreshing(TRENDING_REFRESH_MILLIS);
+        openArchive();
+
         // This is the main program loop - it keeps running until the user chooses to exit
         while (true) {
             // Display the main menu options
@@ -63,6 +133,7 @@ public class LibraryUI {
                         searchMenu();
                         break;
                     case 7: // Exit
+                        closeArchive();
                         System.out.println("Thank you for using the Library Management System. Goodbye!");
                         return; // Exit the program
                 }
@@ -103,14 +174,16 @@ public class LibraryUI {
             System.out.println("2. Add Magazine");
             System.out.println("3. Display Catalogue");
             System.out.println("4. Delete Item");
-            System.out.println("5. Back to Main Menu");
+            System.out.println("5. Trending Items");
+            System.out.println("6. Library Report");
+            System.out.println("7. Back to Main Menu");
             System.out.println("=============================");
 
-            int choice = getValidIntInput("Enter your choice: ", 1, 5);
+            int choice = getValidIntInput("Enter your choice: ", 1, 7);
             scanner.nextLine(); // Clear the input buffer
 
-            // If they choose 5, go back to the main menu
-            if (choice == 5) return;
+            // If they choose 7, go back to the main menu
+            if (choice == 7) return;
 
             try {
                 switch (choice) {
@@ -128,6 +201,16 @@ public class LibraryUI {
                     case 4: // Delete Item
                         deleteItem();
                         break;
+                    case 5: // Trending Items
+                        showTrendingItems();
+                        break;
+                    case 6: // Library Report
+                        LibraryReport report = reportingEngine.report(catalogue, borrowingService);
+                        System.out.println("\n----- LIBRARY REPORT (" + LocalDate.ofEpochDay(report.getDay()) + ") -----");
+                        System.out.print(report.format());
+                        System.out.println("Press Enter to continue...");
+                        scanner.nextLine();
+                        break;
                 }
             } catch (Exception e) {
                 // If something goes wrong, show the error and continue
@@ -205,6 +288,35 @@ public class LibraryUI {
         scanner.nextLine();
     }
 
+    /**
+     * Show the most borrowed items over the last day, week and month
+     */
+    private void showTrendingItems() {
+        CirculationStats circulation = borrowingService.getCirculationStats();
+        // Include the borrows since the last background update
+        circulation.refresh();
+
+        output.setLength(0);
+        output.append("\n----- TRENDING ITEMS -----\n");
+        for (CirculationStats.Period period : CirculationStats.Period.values()) {
+            output.append("\nLast ").append(period.name().toLowerCase()).append(":\n");
+            List<CirculationStats.TrendingItem> trending = circulation.getTrending(period, TRENDING_SHOWN);
+            if (trending.isEmpty()) {
+                output.append("  Nothing borrowed yet.\n");
+            }
+            for (int i = 0; i < trending.size(); i++) {
+                CirculationStats.TrendingItem entry = trending.get(i);
+                output.append("  ").append(i + 1).append(". ").append(entry.getItem().getTitle())
+                        .append(" (about ").append(Math.round(entry.getScore())).append(" borrows, ")
+                        .append(entry.getTotalBorrows()).append(" in total)\n");
+            }
+        }
+        System.out.print(output);
+
+        System.out.println("\nPress Enter to continue...");
+        scanner.nextLine();
+    }
+
     /**
      * Delete an item from the catalogue
      */
@@ -244,6 +356,13 @@ public class LibraryUI {
         // Check if the item can be deleted (not checked out)
         if (!item.isAvailable()) {
             System.out.println("Cannot delete this item because it is currently checked out.");
+
+            // Show who has it, so the desk can chase it up
+            Member borrower = borrowingService.getBorrower(item);
+            if (borrower != null) {
+                System.out.println("It is borrowed by " + borrower.getName() + " (ID: " + borrower.getMembershipId()
+                        + "), due " + LocalDate.ofEpochDay(borrowingService.getDueDay(item)) + ".");
+            }
             System.out.println("The item must be returned before it can be deleted.");
             System.out.println("Press Enter to continue...");
             scanner.nextLine();
@@ -259,6 +378,7 @@ public class LibraryUI {
         if (confirm.equals("y") || confirm.equals("yes")) {
             // Delete the item
             catalogue.removeItem(item);
+            borrowingService.getCirculationStats().forgetItem(item);
             System.out.println("Item deleted successfully.");
         } else {
             System.out.println("Deletion canceled.");
@@ -350,7 +470,7 @@ public class LibraryUI {
         System.out.print("Enter staff role: ");
         String role = scanner.nextLine().trim();
 
-        int membershipId = 1001 + memberService.getMemberCount();
+        int membershipId = memberService.nextMembershipId();
 
         // Create a new staff member with the same ID
         Staff staff = new Staff(name, membershipId, contactInfo, role);
@@ -443,6 +563,15 @@ public class LibraryUI {
         }
 
         System.out.println("\n----- RETURN ITEM -----");
+        System.out.println("1. Select the member, then the item");
+        System.out.println("2. Return by item ID (barcode)");
+        int mode = getValidIntInput("Enter your choice: ", 1, 2);
+        scanner.nextLine(); // Clear buffer
+
+        if (mode == 2) {
+            returnItemById();
+            return;
+        }
 
         // First, select which member is returning an item
         Member member = selectMember();
@@ -458,13 +587,9 @@ public class LibraryUI {
 
         // Display all items borrowed by this member
         System.out.println("\nItems borrowed by " + member.getName() + ":");
-        int index = 1;
         List<LibraryItem> borrowedItems = new ArrayList<>(borrowingService.getBorrowedItems(member).keySet());
 
-        for (LibraryItem item : borrowedItems) {
-            System.out.print(index++ + ". ");
-            item.displayDetails();
-        }
+        printItemList(borrowedItems);
 
         // Let the user select which item to return
         System.out.print("Enter the number of the item to return: ");
@@ -486,6 +611,25 @@ public class LibraryUI {
         }
     }
 
+    /**
+     * Process a return using only the item ID - the borrower is looked up automatically
+     */
+    private void returnItemById() {
+        System.out.print("Enter item ID: ");
+        int itemId = getValidIntInput("", 1, Integer.MAX_VALUE);
+        scanner.nextLine(); // Clear buffer
+
+        LibraryItem item = catalogue.findItemById(itemId);
+        if (item == null) {
+            System.out.println("No item with ID " + itemId + " in the catalogue.");
+        } else {
+            borrowingService.returnItem(item);
+        }
+
+        System.out.println("Press Enter to continue...");
+        scanner.nextLine();
+    }
+
     /**
      * View all items borrowed by a member
      */
@@ -521,13 +665,15 @@ public class LibraryUI {
             System.out.println("1. Search Items by Title");
             System.out.println("2. Search Items by Category");
             System.out.println("3. Search Members by Name");
-            System.out.println("4. Back to Main Menu");
+            System.out.println("4. Search Items by Publication Date");
+            System.out.println("5. Advanced Item Search");
+            System.out.println("6. Back to Main Menu");
             System.out.println("=======================");
 
-            int choice = getValidIntInput("Enter your choice: ", 1, 4);
+            int choice = getValidIntInput("Enter your choice: ", 1, 6);
             scanner.nextLine();
 
-            if (choice == 4) return;
+            if (choice == 6) return;
 
             try {
                 switch (choice) {
@@ -540,6 +686,12 @@ public class LibraryUI {
                     case 3: // Search Members
                         searchMembersByName();
                         break;
+                    case 4: // Search by Publication Date
+                        searchItemsByPublicationDate();
+                        break;
+                    case 5: // Search with several conditions
+                        advancedItemSearch();
+                        break;
                 }
             } catch (Exception e) {
                 System.out.println("Error: " + e.getMessage());
@@ -572,16 +724,16 @@ public class LibraryUI {
             }
 
             try {
-                List<LibraryItem> results = catalogue.searchByTitle(title);
+                RankedResults results = catalogue.rankByTitle(title, SEARCH_PAGE_SIZE);
 
                 if (results.isEmpty()) {
                     System.out.println("No items found with title containing: " + title);
                 } else {
-                    System.out.println("\nFound " + results.size() + " items matching '" + title + "':");
-                    for (int i = 0; i < results.size(); i++) {
-                        System.out.print((i + 1) + ". ");
-                        results.get(i).displayDetails();
-                    }
+                    System.out.println("\nFound " + (results.isMatchCountExact() ? "" : "at least ")
+                            + results.getMatchCount() + " items matching '" + title + "'"
+                            + (results.getMatchCount() > results.getItems().size()
+                                    ? ", showing the best " + results.getItems().size() : "") + ":");
+                    printItemList(results.getItems());
                 }
 
                 // Search is complete, exit the loop
@@ -627,10 +779,7 @@ public class LibraryUI {
                     System.out.println("No items found in category: " + category);
                 } else {
                     System.out.println("\nFound " + results.size() + " items in category '" + category + "':");
-                    for (int i = 0; i < results.size(); i++) {
-                        System.out.print((i + 1) + ". ");
-                        results.get(i).displayDetails();
-                    }
+                    printItemList(results);
                 }
 
                 // Search is complete, exit the loop
@@ -646,6 +795,99 @@ public class LibraryUI {
         scanner.nextLine();
     }
 
+    /**
+     * Search for items published between two dates, optionally in one category
+     */
+    private void searchItemsByPublicationDate() {
+        System.out.println("\n----- SEARCH ITEMS BY PUBLICATION DATE -----");
+
+        System.out.print("Enter start date (MM/DD/YYYY): ");
+        LocalDate from = toLocalDate(parseDate(scanner.nextLine().trim()));
+
+        System.out.print("Enter end date (MM/DD/YYYY): ");
+        LocalDate to = toLocalDate(parseDate(scanner.nextLine().trim()));
+
+        System.out.print("Enter category (or leave empty for all categories): ");
+        String category = scanner.nextLine().trim();
+
+        List<LibraryItem> results = catalogue.searchByPublicationDate(from, to, category.isEmpty() ? null : category);
+
+        if (results.isEmpty()) {
+            System.out.println("No items found published between " + from + " and " + to + ".");
+        } else {
+            System.out.println("\nFound " + results.size() + " items published between " + from + " and " + to + ":");
+            printItemList(results);
+        }
+
+        // Wait for user to continue
+        System.out.println("\nPress Enter to return to search menu...");
+        scanner.nextLine();
+    }
+
+    /**
+     * Search for items with several conditions at once.
+     * Every question can be left empty to mean "any".
+     */
+    private void advancedItemSearch() {
+        System.out.println("\n----- ADVANCED ITEM SEARCH -----");
+        System.out.println("(Leave any question empty to skip it)");
+        CatalogueQuery.Builder query = new CatalogueQuery.Builder();
+
+        String title = ask("Title contains: ");
+        if (!title.isEmpty()) query.titleContains(title);
+
+        String author = ask("Author or publisher contains: ");
+        if (!author.isEmpty()) query.authorContains(author);
+
+        String category = ask("Category: ");
+        if (!category.isEmpty()) query.category(category);
+
+        String isbn = ask("ISBN: ");
+        if (!isbn.isEmpty()) query.isbn(isbn);
+
+        String from = ask("Published from (MM/DD/YYYY): ");
+        String to = ask("Published to (MM/DD/YYYY): ");
+        if (!from.isEmpty() || !to.isEmpty()) {
+            query.publishedBetween(from.isEmpty() ? null : toLocalDate(parseDate(from)),
+                    to.isEmpty() ? null : toLocalDate(parseDate(to)));
+        }
+
+        String availability = ask("Only available items? (y/n): ");
+        if (availability.equalsIgnoreCase("y")) {
+            query.available(true);
+        } else if (availability.equalsIgnoreCase("n")) {
+            query.available(false);
+        }
+
+        String type = ask("Type (book/magazine): ");
+        if (type.equalsIgnoreCase("book")) {
+            query.itemType(Book.class);
+        } else if (type.equalsIgnoreCase("magazine")) {
+            query.itemType(Magazine.class);
+        }
+
+        List<LibraryItem> results = catalogue.search(query.build());
+
+        if (results.isEmpty()) {
+            System.out.println("No items match all of those conditions.");
+        } else {
+            System.out.println("\nFound " + results.size() + " matching items:");
+            printItemList(results);
+        }
+
+        // Wait for user to continue
+        System.out.println("\nPress Enter to return to search menu...");
+        scanner.nextLine();
+    }
+
+    /**
+     * Print a question and return the (trimmed) answer
+     */
+    private String ask(String question) {
+        System.out.print(question);
+        return scanner.nextLine().trim();
+    }
+
     /**
      * Search for members by name
      */
@@ -654,7 +896,7 @@ public class LibraryUI {
 
         // Same as the title and category, loops until a valid input is found or user chooses to go back
         while (true) {
-            System.out.print("Enter name (or type 'back' to return): ");
+            System.out.print("Enter name or the start of any name (or type 'back' to return): ");
             String name = scanner.nextLine().trim();
 
             // Check for exit command
@@ -675,9 +917,7 @@ public class LibraryUI {
                     System.out.println("No members found matching: " + name);
                 } else {
                     System.out.println("\nFound " + results.size() + " members matching '" + name + "':");
-                    for (Member member : results) {
-                        member.displayMemberInfo();
-                    }
+                    printMemberList(results);
                 }
 
                 // Search is complete, exit the loop
@@ -742,6 +982,13 @@ public class LibraryUI {
         }
     }
 
+    /**
+     * Turn a Date into a LocalDate (a date without a time), in this computer's time zone
+     */
+    private LocalDate toLocalDate(Date date) {
+        return date.toInstant().atZone(ZoneId.systemDefault()).toLocalDate();
+    }
+
     /**
      * Get a valid integer input within a specified range
      */
@@ -772,6 +1019,39 @@ public class LibraryUI {
         return input;
     }
 
+    /**
+     * Print a numbered list of items, built up as text and printed in one go
+     */
+    private void printItemList(List<LibraryItem> items) {
+        output.setLength(0);
+        try {
+            for (int i = 0; i < items.size(); i++) {
+                output.append(i + 1).append(". ");
+                items.get(i).renderTo(output);
+            }
+        } catch (IOException e) {
+            // Can't happen - a StringBuilder never throws
+            throw new UncheckedIOException(e);
+        }
+        System.out.print(output);
+    }
+
+    /**
+     * Print a list of members, built up as text and printed in one go
+     */
+    private void printMemberList(List<Member> members) {
+        output.setLength(0);
+        try {
+            for (Member member : members) {
+                member.renderTo(output);
+            }
+        } catch (IOException e) {
+            // Can't happen - a StringBuilder never throws
+            throw new UncheckedIOException(e);
+        }
+        System.out.print(output);
+    }
+
     /**
      * Initialize some sample data for testing
      */